@@ -1,6 +1,6 @@
 package com.dlw;
 
-import com.sun.org.apache.regexp.internal.RE;
+import java.util.Comparator;
 
 /**
  * 自己手写红黑二叉树
@@ -13,9 +13,11 @@ import com.sun.org.apache.regexp.internal.RE;
  * 7.内部插入接口方法定义：insert(RBNode node)
  * 8.修正插入导致红黑树失衡的方法定义：insertFIxUp(TBNode node);
  * 9.测试红黑树的正确性
+ * 10.删除最小节点：popMin()，修正删除导致红黑树失衡的方法：deleteFixUp(RBNode node)
+ * 11.和TreeMap一样可以传入Comparator：key不需要实现Comparable，比较规则由使用方决定
  */
 
-public class RBTree<K extends Comparable<K>,V>{
+public class RBTree<K,V>{
 
 	private static final boolean RED = true;
 	private static final boolean BLACK = false;
@@ -23,10 +25,32 @@ public class RBTree<K extends Comparable<K>,V>{
 	//树根的引用
 	private RBNode root;
 
+	//节点个数
+	private int size;
+
+	//key的比较器，null表示按key的自然顺序(Comparable)比较
+	private final Comparator<? super K> comparator;
+
+	public RBTree() {
+		this(null);
+	}
+
+	public RBTree(Comparator<? super K> comparator) {
+		this.comparator = comparator;
+	}
+
 	public RBNode getRoot() {
 		return root;
 	}
 
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return root == null;
+	}
+
 	/**
 	 * 获取当前节点的父节点
 	 * @param node
@@ -203,7 +227,7 @@ public class RBTree<K extends Comparable<K>,V>{
 			 * tmp == 0 说明node.key 等于 parent.key 需要进行替换操作
 			 * tmp > 0 说明node.key 大于 parent.key 需要到parent的右子树查找
 			 */
-			int tmp = node.key.compareTo(parent.key);
+			int tmp = compare(node.key,parent.key);
 			if(tmp < 0){
 				x = x.left;
 			}else if(tmp == 0){
@@ -215,10 +239,11 @@ public class RBTree<K extends Comparable<K>,V>{
 		}
 
 		node.parent = parent;
+		size++;
 
 		//判断node和parent的key谁大：决定node在parent的左子树还是右子树
 		if(parent != null){
-			int cmp = node.key.compareTo(parent.key);
+			int cmp = compare(node.key,parent.key);
 			if(cmp < 0){//当前node的key比parent的key小，需要把node放入parent的左子节点
 				parent.left = node;
 			}else {//当前node的key比parent的key大，需要把node放入parent的右子节点
@@ -233,6 +258,14 @@ public class RBTree<K extends Comparable<K>,V>{
 
 	}
 
+	/**
+	 * 有comparator就用comparator，否则key必须实现Comparable
+	 */
+	@SuppressWarnings("unchecked")
+	private int compare(Object k1,Object k2){
+		return comparator != null ? comparator.compare((K) k1,(K) k2) : ((Comparable<Object>) k1).compareTo(k2);
+	}
+
 	/**
 	 * 插入后修复红黑树平衡的方法
 	 *     |---情景1：红黑树为空树：将根节点染色为黑色
@@ -348,8 +381,171 @@ public class RBTree<K extends Comparable<K>,V>{
 		}
 	}
 
+	/**
+	 * 最小的节点：从根节点一直往左走，空树返回null
+	 */
+	public RBNode minimum(){
+		RBNode node = this.root;
+		if(node != null){
+			while (node.left != null){
+				node = node.left;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * 删除并返回最小的节点，空树返回null
+	 * 最小的节点没有左子节点，删除时不会出现"用后继节点替换"的情况，返回的节点就是原来的节点(key、value没有被改动)
+	 */
+	public RBNode popMin(){
+		RBNode min = minimum();
+		if(min != null){
+			delete(min);
+		}
+		return min;
+	}
+
+	/**
+	 * 删除节点
+	 *     |---情景1：node有两个子节点：把后继节点(右子树中最小的节点)的key、value复制到node上，转换成删除后继节点，
+	 *     			后继节点没有左子节点，转换成情景2或者情景3
+	 *     |---情景2：node只有一个子节点：用子节点顶替node的位置。
+	 *     			这时node一定是黑色，子节点一定是红色(否则两边的黑色节点数不相等)，把子节点染色为黑色即可
+	 *     |---情景3：node没有子节点
+	 *          |---情景3.1：node是根节点：树变成空树
+	 *          |---情景3.2：node是红色：直接删除，黑色节点数没有变化
+	 *          |---情景3.3：node是黑色：删除之后这条路径少了一个黑色节点，
+	 *          			先把node当作"多了一层黑色"的节点进行修复(deleteFixUp)，再把它从父节点上摘下来
+	 */
+	private void delete(RBNode node){
+		size--;
+		//情景1：有两个子节点
+		if(node.left != null && node.right != null){
+			RBNode successor = node.right;
+			while (successor.left != null){
+				successor = successor.left;
+			}
+			node.key = successor.key;
+			node.value = successor.value;
+			node = successor;
+		}
+
+		RBNode replacement = node.left != null ? node.left : node.right;
+		if(replacement != null){
+			//情景2：用子节点顶替node
+			replacement.parent = node.parent;
+			if(node.parent == null){
+				this.root = replacement;
+			}else if(node == node.parent.left){
+				node.parent.left = replacement;
+			}else {
+				node.parent.right = replacement;
+			}
+			node.left = node.right = node.parent = null;
+			setBlack(replacement);
+		}else if(node.parent == null){
+			//情景3.1
+			this.root = null;
+		}else {
+			//情景3.3：先修复，再摘下来
+			if(!isRed(node)){
+				deleteFixUp(node);
+			}
+			RBNode parent = node.parent;
+			if(parent != null){
+				if(node == parent.left){
+					parent.left = null;
+				}else if(node == parent.right){
+					parent.right = null;
+				}
+				node.parent = null;
+			}
+		}
+	}
+
+	/**
+	 * 删除后修复红黑树平衡的方法：node所在的路径少了一个黑色节点(node多了一层黑色)
+	 * 下面以node是父节点的左子节点为例(右子节点的情况左右对称)，兄弟节点记作sib：
+	 *     |---情景1：sib是红色：把sib染色为黑色，父节点染色为红色，以父节点左旋，转换成sib是黑色的情况
+	 *     |---情景2：sib是黑色，sib的两个子节点都是黑色(null也算黑色)：
+	 *     			把sib染色为红色，两边都少了一个黑色节点，以父节点为当前节点进行下一轮处理
+	 *     |---情景3：sib是黑色，sib的左子节点是红色，右子节点是黑色：
+	 *     			把sib的左子节点染色为黑色，sib染色为红色，以sib右旋，转换成情景4
+	 *     |---情景4：sib是黑色，sib的右子节点是红色：
+	 *     			sib染成父节点的颜色，父节点和sib的右子节点染色为黑色，以父节点左旋，多出来的一层黑色补上了，修复结束
+	 * 当前节点是红色 或者 到了根节点时，把它染色为黑色，修复结束
+	 */
+	private void deleteFixUp(RBNode node){
+		while (node != this.root && !isRed(node)){
+			RBNode parent = parentOf(node);
+			if(node == parent.left){
+				RBNode sib = parent.right;
+				//情景1
+				if(isRed(sib)){
+					setBlack(sib);
+					setRed(parent);
+					leftRotate(parent);
+					sib = parent.right;
+				}
+				//情景2
+				if(!isRed(leftOf(sib)) && !isRed(rightOf(sib))){
+					setRed(sib);
+					node = parent;
+				}else {
+					//情景3
+					if(!isRed(rightOf(sib))){
+						setBlack(leftOf(sib));
+						setRed(sib);
+						rightRotate(sib);
+						sib = parent.right;
+					}
+					//情景4
+					sib.color = parent.color;
+					setBlack(parent);
+					setBlack(rightOf(sib));
+					leftRotate(parent);
+					node = this.root;
+				}
+			}else {
+				RBNode sib = parent.left;
+				if(isRed(sib)){
+					setBlack(sib);
+					setRed(parent);
+					rightRotate(parent);
+					sib = parent.left;
+				}
+				if(!isRed(leftOf(sib)) && !isRed(rightOf(sib))){
+					setRed(sib);
+					node = parent;
+				}else {
+					if(!isRed(leftOf(sib))){
+						setBlack(rightOf(sib));
+						setRed(sib);
+						leftRotate(sib);
+						sib = parent.left;
+					}
+					sib.color = parent.color;
+					setBlack(parent);
+					setBlack(leftOf(sib));
+					rightRotate(parent);
+					node = this.root;
+				}
+			}
+		}
+		setBlack(node);
+	}
+
+	private RBNode leftOf(RBNode node){
+		return node != null ? node.left : null;
+	}
+
+	private RBNode rightOf(RBNode node){
+		return node != null ? node.right : null;
+	}
+
 	//内部类RBNode
-	static class RBNode <K extends Comparable<K> ,V> {
+	static class RBNode <K,V> {
 		private RBNode parent;
 		private RBNode left;
 		private RBNode right;
@@ -1,5 +1,8 @@
 package com.dlw;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 public interface BrokingQueue<T> {
 
 	/**
@@ -11,4 +14,60 @@ public interface BrokingQueue<T> {
 	 * 获取数据的接口
 	 */
 	T take();
+
+	/**
+	 * 限时插入：队列满了最多等待timeout，期间有空位就插入
+	 * @return 超时还没有空位，返回false，元素没有插入
+	 * @throws InterruptedException 等待期间被中断
+	 */
+	boolean offer(T element,long timeout,TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * 限时获取：队列空了最多等待timeout
+	 * @return 超时还没有数据，返回null
+	 * @throws InterruptedException 等待期间被中断
+	 */
+	T poll(long timeout,TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * 批量插入：按顺序插入elements中的所有元素，队列满了就等待
+	 * 默认实现逐个put，基于锁的实现应该在一次持锁期间插入尽量多的元素，只发一次唤醒信号
+	 */
+	default void putAll(Collection<? extends T> elements){
+		for(T element : elements){
+			put(element);
+		}
+	}
+
+	/**
+	 * 批量获取：把当前已有的元素(最多maxElements个)移到c中，队列为空时不等待，直接返回0
+	 * 默认实现逐个poll(0)，被中断时停下来，中断标记会保留下来
+	 * @return 移动的元素个数
+	 */
+	default int drainTo(Collection<? super T> c,int maxElements){
+		int n = 0;
+		try{
+			T element;
+			while (n < maxElements && (element = poll(0L,TimeUnit.NANOSECONDS)) != null){
+				c.add(element);
+				n++;
+			}
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		return n;
+	}
+
+	/**
+	 * 阻塞的批量获取：队列为空时等待，直到至少有一个元素；然后像drainTo一样把已有的元素(最多maxElements个)移到c中
+	 * 默认实现先take一个再drainTo，基于锁的实现应该在一次持锁期间完成
+	 * @return 移动的元素个数，maxElements > 0 时至少是1
+	 */
+	default int takeBatch(Collection<? super T> c,int maxElements){
+		if(maxElements <= 0){
+			return 0;
+		}
+		c.add(take());
+		return 1 + drainTo(c,maxElements - 1);
+	}
 }
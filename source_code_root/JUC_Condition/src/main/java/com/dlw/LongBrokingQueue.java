@@ -0,0 +1,31 @@
+package com.dlw;
+
+/**
+ * 元素是long的BrokingQueue
+ *
+ * putLong/takeLong直接存取基本类型，不需要装箱成Long，热路径上没有对象分配；
+ * 底层的long[]里也没有引用，GC不需要扫描它。
+ * 同时它也是一个BrokingQueue<Long>，put/take会装箱/拆箱，方便和其它队列混用。
+ */
+public interface LongBrokingQueue extends BrokingQueue<Long> {
+
+	/**
+	 * 插入数据，队列满了就等待
+	 */
+	void putLong(long element);
+
+	/**
+	 * 获取数据，队列空了就等待
+	 */
+	long takeLong();
+
+	@Override
+	default void put(Long element) {
+		putLong(element);
+	}
+
+	@Override
+	default Long take() {
+		return takeLong();
+	}
+}
@@ -1,14 +1,17 @@
 package com.dlw;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
-public class MiniArrayBrokingQueue implements BrokingQueue {
+public class MiniArrayBrokingQueue<T> implements TransferBrokingQueue<T> {
 
-	/**线程并发控制*/
-	private Lock lock = new ReentrantLock();
+	/**
+	 * 线程并发控制，用的是JUC_ReentrantLock中实现的MiniReentrantLock，条件队列也由它提供
+	 * 和原来的new ReentrantLock()一样用非公平模式：公平模式下每次交接锁都要唤醒排队的线程，多生产者/消费者时吞吐量很低
+	 */
+	private MiniReentrantLock lock = new MiniReentrantLock(false);
 
 	/**
 	 * 当生成者线程生产数据时，它会先检查当前queues是否已经满了。
@@ -32,26 +35,81 @@ public class MiniArrayBrokingQueue implements BrokingQueue {
 
 	/**
 	 * count:当前队列中可以被消费的数据量
+	 * 		volatile：按waitStrategy空转的线程不持有锁，要能及时看到它的变化
 	 * putptr：记录生产者存放数据的下一次位置。每个生成者生产完一个数据后，会将 putptr++
 	 * takeptr：记录消费者消费数据的下一次位置。每个消费者消费完一个数据后，会将 takeptr++
 	 */
-	private int count,putptr,takeptr;
+	private volatile int count;
+	private int putptr,takeptr;
+
+	/**
+	 * 挂起在notFull/notEmpty上的线程数，只有持有锁时访问
+	 * 平稳运行时队列既不满也不空，没有线程挂起，put/take就不用去signal条件队列；
+	 * 有线程挂起，说明队列刚刚是满的/空的，这时的put/take才是"满->不满"、"空->不空"的转换，需要signal。
+	 * 被signal的线程重新抢到锁之前还算在里面，可能会多signal一次，不会少signal。
+	 */
+	private int notFullWaiters,notEmptyWaiters;
+
+	/**
+	 * takeCount：一共被取走的元素个数，只有持有锁时访问
+	 * 		队列是FIFO的，放入后排在第count个的元素，在takeCount达到放入时的takeCount + count(ticket)时被取走
+	 * transferWaiters：等待自己的元素被取走的transfer，只有持有锁时访问
+	 * 		每个transfer有自己的条件队列，takeCount达到它的ticket时只唤醒它一个，不会把所有transfer都叫醒再各自睡回去；
+	 * 		ticket是按放入的顺序递增的，所以队头的ticket最小，take只需要看队头
+	 */
+	private long takeCount;
+	private final ArrayDeque<TransferWaiter> transferWaiters = new ArrayDeque<TransferWaiter>();
+
+	static final class TransferWaiter{
+		final long ticket;
+		final Condition consumed;
+
+		TransferWaiter(long ticket,Condition consumed) {
+			this.ticket = ticket;
+			this.consumed = consumed;
+		}
+	}
+
+	/**
+	 * 队列满/空时怎么等：默认SPIN_THEN_PARK，先释放锁短暂地空转、yield，还不行再挂起在条件队列上
+	 * 生产者和消费者速度差不多时，大部分等待在空转阶段就结束了，不用挂起，对方也就不用signal
+	 */
+	private final WaitStrategy waitStrategy;
+
+	/**
+	 * 占用和阻塞统计，null表示没有开启
+	 */
+	private volatile MiniQueueMetrics metrics;
 
 	public MiniArrayBrokingQueue(int size){
+		this(size,WaitStrategy.SPIN_THEN_PARK);
+	}
+
+	/**
+	 * @param size 容量，必须大于0；不需要缓冲、生产者直接交给消费者用MiniSynchronousBrokingQueue
+	 */
+	public MiniArrayBrokingQueue(int size,WaitStrategy waitStrategy){
+		if(size <= 0){
+			throw new IllegalArgumentException("size must be positive, use MiniSynchronousBrokingQueue for direct handoff: " + size);
+		}
+		if(waitStrategy == null){
+			throw new NullPointerException();
+		}
 		this.size = size;
 		this.queues = new Object[size];
+		this.waitStrategy = waitStrategy;
 	}
 
 	@Override
-	public void put(Object element) {
+	public void put(T element) {
+		int c;
 		lock.lock();
 		try {
 			/**
-			 * 1.判断当前queues是否已经满了
+			 * 1.判断当前queues是否已经满了，满了就等待
+			 * put不能抛出InterruptedException，等待时不响应中断，中断标记会保留下来
 			 * */
-			if(count == this.size){
-				notFull.await();
-			}
+			awaitNotFull(false,0L);
 
 			/**
 			 * 执行到这里说明当前队列中还可以存放数据
@@ -59,33 +117,42 @@ public class MiniArrayBrokingQueue implements BrokingQueue {
 			this.queues[putptr] = element;
 
 			putptr = ++putptr == this.size ? 0 :putptr;
-			count ++;
+			c = ++count;
 
 			/**
 			 * 当向队列中放入一个元素之后，需要做什么呢？
-			 * 需要给notEmpty一个唤醒信号
+			 * 如果有消费者挂起在notEmpty上，需要给notEmpty一个唤醒信号
 			 */
-			notEmpty.signal();
+			if(notEmptyWaiters > 0){
+				notEmpty.signal();
+			}
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			//不限时的等待不响应中断，不会走到这里
+			throw new IllegalStateException(e);
 		} finally {
 			lock.unlock();
 		}
+		//统计在释放锁之后记录，不拉长临界区
+		MiniQueueMetrics m = metrics;
+		if(m != null){
+			m.recordPut(1,c);
+		}
 	}
 
 	@Override
-	public Object take() {
+	@SuppressWarnings("unchecked")
+	public T take() {
+		T element;
 		lock.lock();
 		try{
-			/**1.判断一下当前队列是否有数据可以被消费*/
-			if(count == 0){
-				notEmpty.await();
-			}
+			/**1.判断一下当前队列是否有数据可以被消费，没有就等待*/
+			awaitNotEmpty(false,0L);
 
 			/**
 			 * 执行到这里，说明当前队列有数据可以被消费了
 			 */
-			Object element = this.queues[takeptr];
+			element = (T) this.queues[takeptr];
+			this.queues[takeptr] = null;
 
 			takeptr = ++takeptr == size ? 0 : takeptr;
 			/**消费了一个数据*/
@@ -93,20 +160,357 @@ public class MiniArrayBrokingQueue implements BrokingQueue {
 
 			/**
 			 * 向队列中take(消费)一个数据之后，需要做什么呢？
-			 * 需要给notFull一个唤醒信号
+			 * 如果有生产者挂起在notFull上，需要给notFull一个唤醒信号
 			 */
-			notFull.signal();
-			return element;
+			if(notFullWaiters > 0){
+				notFull.signal();
+			}
+			signalConsumed(1);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			lock.unlock();
+		}
+		MiniQueueMetrics m = metrics;
+		if(m != null){
+			m.recordTake(1);
+		}
+		return element;
+	}
+
+	@Override
+	public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		int c;
+		lock.lockInterruptibly();
+		try{
+			if(!awaitNotFull(true,nanos)){
+				return false;
+			}
+			this.queues[putptr] = element;
+			putptr = ++putptr == this.size ? 0 :putptr;
+			c = ++count;
+			if(notEmptyWaiters > 0){
+				notEmpty.signal();
+			}
+		}finally {
+			lock.unlock();
+		}
+		MiniQueueMetrics m = metrics;
+		if(m != null){
+			m.recordPut(1,c);
+		}
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		T element;
+		lock.lockInterruptibly();
+		try{
+			if(!awaitNotEmpty(true,nanos)){
+				return null;
+			}
+			element = (T) this.queues[takeptr];
+			this.queues[takeptr] = null;
+			takeptr = ++takeptr == size ? 0 : takeptr;
+			count--;
+			if(notFullWaiters > 0){
+				notFull.signal();
+			}
+			signalConsumed(1);
+		}finally {
+			lock.unlock();
+		}
+		MiniQueueMetrics m = metrics;
+		if(m != null){
+			m.recordTake(1);
+		}
+		return element;
+	}
+
+	/**
+	 * 批量插入：一次持锁插入尽量多的元素
+	 * 队列满了需要等待时，先把已经插入的这一批通知给消费者，否则批量比容量大时会和消费者互相等待
+	 */
+	@Override
+	public void putAll(Collection<? extends T> elements) {
+		lock.lock();
+		int added = 0;
+		int total = 0,peak = 0;
+		try{
+			for(T element : elements){
+				if(count == this.size){
+					signalBatch(notEmpty,added,notEmptyWaiters);
+					added = 0;
+					awaitNotFull(false,0L);
+				}
+				this.queues[putptr] = element;
+				putptr = ++putptr == this.size ? 0 :putptr;
+				peak = Math.max(peak,++count);
+				added++;
+				total++;
+			}
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			signalBatch(notEmpty,added,notEmptyWaiters);
+			lock.unlock();
+		}
+		MiniQueueMetrics m = metrics;
+		if(m != null && total > 0){
+			m.recordPut(total,peak);
+		}
+	}
+
+	/**
+	 * 批量获取：一次持锁把已有的元素(最多maxElements个)都取走，队列为空时不等待
+	 */
+	@Override
+	public int drainTo(Collection<? super T> c, int maxElements) {
+		return drain(c,maxElements,false);
+	}
+
+	/**
+	 * 批量获取：等到至少有一个元素，然后一次持锁把已有的元素(最多maxElements个)都取走
+	 */
+	@Override
+	public int takeBatch(Collection<? super T> c, int maxElements) {
+		return drain(c,maxElements,true);
+	}
+
+	/**
+	 * @param wait true：队列为空时等待(不响应中断)
+	 */
+	@SuppressWarnings("unchecked")
+	private int drain(Collection<? super T> c,int maxElements,boolean wait) {
+		if(maxElements <= 0){
+			return 0;
+		}
+		lock.lock();
+		int taken = 0;
+		try{
+			if(wait){
+				awaitNotEmpty(false,0L);
+			}
+			int n = Math.min(count,maxElements);
+			for(; taken < n; taken++){
+				c.add((T) this.queues[takeptr]);
+				this.queues[takeptr] = null;
+				takeptr = ++takeptr == size ? 0 : takeptr;
+				count--;
+			}
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			signalBatch(notFull,taken,notFullWaiters);
+			signalConsumed(taken);
+			lock.unlock();
+		}
+		MiniQueueMetrics m = metrics;
+		if(m != null && taken > 0){
+			m.recordTake(taken);
+		}
+		return taken;
+	}
+
+	/**
+	 * 像put一样放入元素，然后等到它被消费者取走(take/poll/drainTo/takeBatch)
+	 * 不响应中断，中断标记会保留下来
+	 */
+	@Override
+	public void transfer(T element) {
+		int c;
+		lock.lock();
+		try{
+			awaitNotFull(false,0L);
+			this.queues[putptr] = element;
+			putptr = ++putptr == this.size ? 0 :putptr;
+			c = ++count;
+			if(notEmptyWaiters > 0){
+				notEmpty.signal();
+			}
+			final long ticket = takeCount + c;
+			if(takeCount - ticket < 0L){
+				//不响应中断，不会中途放弃，节点由signalConsumed移出
+				TransferWaiter w = new TransferWaiter(ticket,lock.newCondition());
+				transferWaiters.addLast(w);
+				while (takeCount - ticket < 0L){
+					w.consumed.awaitUninterruptibly();
+				}
+			}
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			throw new IllegalStateException(e);
 		} finally {
 			lock.unlock();
 		}
-		return null;
+		MiniQueueMetrics m = metrics;
+		if(m != null){
+			m.recordPut(1,c);
+		}
+	}
+
+	/**
+	 * 当前元素个数，不需要加锁
+	 */
+	public int size(){
+		return count;
+	}
+
+	public int capacity(){
+		return size;
+	}
+
+	/**
+	 * 开启占用和阻塞统计，之前的统计数据会被丢弃
+	 */
+	public void enableMetrics(){
+		this.metrics = new MiniQueueMetrics();
+	}
+
+	public void disableMetrics(){
+		this.metrics = null;
+	}
+
+	/**
+	 * @return 当前的统计快照，没有开启统计时返回null
+	 */
+	public MiniQueueMetrics.Snapshot getMetricsSnapshot(){
+		MiniQueueMetrics m = metrics;
+		return m == null ? null : m.snapshot(count,size);
+	}
+
+	/**
+	 * 持锁调用，等到队列不满
+	 * @param timed false：一直等，不响应中断；true：最多等nanos纳秒，响应中断
+	 * @return 超时返回false
+	 */
+	private boolean awaitNotFull(boolean timed,long nanos) throws InterruptedException {
+		return await(true,timed,nanos);
+	}
+
+	/**
+	 * 持锁调用，等到队列不空，参数同awaitNotFull
+	 */
+	private boolean awaitNotEmpty(boolean timed,long nanos) throws InterruptedException {
+		return await(false,timed,nanos);
+	}
+
+	/**
+	 * 需要等待时，开启了统计就记录这一次一共等了多久(包括空转、挂起、被唤醒后没抢到又接着等)
+	 */
+	private boolean await(boolean forSpace,boolean timed,long nanos) throws InterruptedException {
+		if(!blocked(forSpace)){
+			return true;
+		}
+		MiniQueueMetrics m = metrics;
+		if(m == null){
+			return awaitLoop(forSpace,timed,nanos);
+		}
+		long begin = System.nanoTime();
+		try{
+			return awaitLoop(forSpace,timed,nanos);
+		}finally {
+			m.recordWait(forSpace,System.nanoTime() - begin);
+		}
+	}
+
+	/**
+	 * 先按waitStrategy释放锁空转/yield，还不行再挂起在条件队列上。
+	 * 不管是空转结束、被signal唤醒、超时还是虚假唤醒，都回到循环开头持锁重新判断：
+	 * signal之后、重新抢到锁之前，别的线程可能已经把空位/数据抢走了。
+	 */
+	private boolean awaitLoop(boolean forSpace,boolean timed,long nanos) throws InterruptedException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		int tries = 0;
+		while (blocked(forSpace)){
+			if(timed && (nanos = deadline - System.nanoTime()) <= 0L){
+				return false;
+			}
+			if(waitStrategy.shouldPark(tries)){
+				Condition condition = forSpace ? notFull : notEmpty;
+				if(forSpace){
+					notFullWaiters++;
+				}else {
+					notEmptyWaiters++;
+				}
+				try{
+					if(timed){
+						condition.awaitNanos(nanos);
+					}else {
+						condition.awaitUninterruptibly();
+					}
+				}finally {
+					//await返回(包括被中断抛出异常)时已经重新持有锁
+					if(forSpace){
+						notFullWaiters--;
+					}else {
+						notEmptyWaiters--;
+					}
+				}
+			}else {
+				tries = spin(forSpace,timed,deadline,tries);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 释放锁空转(否则别的线程没法改变队列的状态)，只读volatile的count；
+	 * 看起来可以继续了、该挂起了 或者 超时了，再重新抢锁
+	 * @return 新的tries
+	 */
+	private int spin(boolean forSpace,boolean timed,long deadline,int tries) throws InterruptedException {
+		lock.unlock();
+		try{
+			do {
+				if(timed && Thread.interrupted()){
+					throw new InterruptedException();
+				}
+				tries = waitStrategy.idle(tries);
+			}while (blocked(forSpace) && !waitStrategy.shouldPark(tries)
+					&& !(timed && deadline - System.nanoTime() <= 0L));
+		}finally {
+			lock.lock();
+		}
+		return tries;
+	}
+
+	private boolean blocked(boolean forSpace){
+		return forSpace ? count == size : count == 0;
+	}
+
+	/**
+	 * 持锁调用，取走了n个元素：更新takeCount，只唤醒元素已经被取走的transfer
+	 */
+	private void signalConsumed(int n){
+		takeCount += n;
+		TransferWaiter w;
+		while ((w = transferWaiters.peekFirst()) != null && takeCount - w.ticket >= 0L){
+			transferWaiters.pollFirst();
+			w.consumed.signal();
+		}
+	}
+
+	/**
+	 * 一批操作之后只发一次信号，没有线程挂起就不发
+	 * 只变化了一个元素，唤醒一个线程就够了；变化了多个，可能有多个线程可以继续，全部唤醒
+	 */
+	private static void signalBatch(Condition condition,int n,int waiters){
+		if(waiters == 0){
+			return;
+		}
+		if(n == 1){
+			condition.signal();
+		}else if(n > 1){
+			condition.signalAll();
+		}
 	}
 
 	public static void main(String[] args) {
-		BrokingQueue<Integer> queue = new MiniArrayBrokingQueue(10);
+		BrokingQueue<Integer> queue = new MiniArrayBrokingQueue<Integer>(10);
 
 		Thread producer = new Thread(() -> {
 			int i = 0;
@@ -137,8 +541,5 @@ public class MiniArrayBrokingQueue implements BrokingQueue {
 			}
 		});
 		consumer.start();
-		Condition
-
-
 	}
 }
@@ -0,0 +1,239 @@
+package com.dlw;
+
+import java.util.Collection;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 延迟队列：元素到期(getDelay <= 0)之后才能被取出，用于定时重试之类的场景
+ *
+ * 和MiniPriorityBrokingQueue一样底层是红黑树RBTree，按到期时间排序，最早到期的元素是最小的节点。
+ *
+ * leader-follower：
+ * 最早到期的元素还没到期时，如果所有消费者都awaitNanos(剩余时间)，到期时会一起醒来抢这一个元素，没抢到的再接着睡。
+ * 所以只让一个消费者(leader)限时等待最早的到期时间，其它消费者(follower)在available上无限期等待：
+ * 1.leader醒来取走元素之后，如果队列里还有元素，signal一个follower，它成为新的leader
+ * 2.插入的元素比原来最早的还早，原来的leader等的时间就太长了：清掉leader并signal，让一个消费者按新的到期时间重新等待
+ *
+ * 没有容量上限，put不会等待。
+ * put/take不能抛出InterruptedException，等待时不响应中断，中断标记会保留下来。
+ */
+public class MiniDelayBrokingQueue<E extends Delayed> implements BrokingQueue<E> {
+
+	private final RBTree<MiniQueueEntry<E>,Object> tree
+			= new RBTree<MiniQueueEntry<E>,Object>(MiniQueueEntry.order(MiniDelayBrokingQueue::compare));
+
+	/**
+	 * 插入序号，到期时间相同的元素先进先出，只有持有锁时访问
+	 */
+	private long seq;
+
+	private final MiniReentrantLock lock = new MiniReentrantLock(false);
+
+	/**
+	 * 有元素到期了 或者 需要一个新的leader
+	 */
+	private final Condition available = lock.newCondition();
+
+	/**
+	 * 正在限时等待最早到期时间的消费者，只有持有锁时访问
+	 */
+	private Thread leader;
+
+	@Override
+	public void put(E element) {
+		if(element == null){
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try{
+			MiniQueueEntry<E> entry = new MiniQueueEntry<E>(element,seq++);
+			tree.insert(entry,null);
+			if(tree.minimum().getKey() == entry){
+				leader = null;
+				available.signal();
+			}
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public E take() {
+		boolean interrupted = false;
+		lock.lock();
+		try{
+			for(;;){
+				E first = peek();
+				if(first == null){
+					available.awaitUninterruptibly();
+					continue;
+				}
+				long delay = first.getDelay(TimeUnit.NANOSECONDS);
+				if(delay <= 0L){
+					return popMin();
+				}
+				first = null;//等待期间不持有元素的引用
+				if(leader != null){
+					available.awaitUninterruptibly();
+					continue;
+				}
+				Thread current = Thread.currentThread();
+				leader = current;
+				try{
+					available.awaitNanos(delay);
+				}catch (InterruptedException e){
+					//take不响应中断：记下来，返回之前补回去
+					interrupted = true;
+				}finally {
+					if(leader == current){
+						leader = null;
+					}
+				}
+			}
+		}finally {
+			signalNextLeader();
+			lock.unlock();
+			if(interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * 没有容量上限，不会等待
+	 */
+	@Override
+	public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		put(element);
+		return true;
+	}
+
+	/**
+	 * 最多等待timeout，直到有元素到期
+	 * @return 超时还没有到期的元素，返回null
+	 */
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try{
+			for(;;){
+				E first = peek();
+				if(first == null){
+					if(nanos <= 0L){
+						return null;
+					}
+					nanos = available.awaitNanos(nanos);
+					continue;
+				}
+				long delay = first.getDelay(TimeUnit.NANOSECONDS);
+				if(delay <= 0L){
+					return popMin();
+				}
+				if(nanos <= 0L){
+					return null;
+				}
+				first = null;
+				if(nanos < delay || leader != null){
+					nanos = available.awaitNanos(nanos);
+					continue;
+				}
+				Thread current = Thread.currentThread();
+				leader = current;
+				try{
+					long left = available.awaitNanos(delay);
+					nanos -= delay - left;
+				}finally {
+					if(leader == current){
+						leader = null;
+					}
+				}
+			}
+		}finally {
+			signalNextLeader();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 批量获取：取走已经到期的元素(最多maxElements个)，没有到期的元素时不等待
+	 */
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		int n = 0;
+		lock.lock();
+		try{
+			E first;
+			//先c.add，成功了才从树上删掉：c.add抛出异常时，这个元素还留在队列里
+			while (n < maxElements && (first = peek()) != null && first.getDelay(TimeUnit.NANOSECONDS) <= 0L){
+				c.add(first);
+				tree.popMin();
+				n++;
+			}
+		}finally {
+			//取走的可能正是leader在等的元素
+			if(n > 0){
+				signalNextLeader();
+			}
+			lock.unlock();
+		}
+		return n;
+	}
+
+	/**
+	 * 批量获取：像take一样等到第一个元素到期，再把其它已经到期的元素(最多maxElements个)一起取走
+	 */
+	@Override
+	public int takeBatch(Collection<? super E> c, int maxElements) {
+		if(maxElements <= 0){
+			return 0;
+		}
+		E first = take();
+		try{
+			c.add(first);
+		}catch (RuntimeException | Error e){
+			//c.add失败，把取出来的元素放回去，不能丢掉
+			put(first);
+			throw e;
+		}
+		return 1 + drainTo(c,maxElements - 1);
+	}
+
+	public int size(){
+		lock.lock();
+		try{
+			return tree.size();
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 没有leader、并且队列里还有元素，唤醒一个follower来当leader
+	 */
+	private void signalNextLeader(){
+		if(leader == null && !tree.isEmpty()){
+			available.signal();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private E peek(){
+		RBTree.RBNode<?,?> min = tree.minimum();
+		return min == null ? null : ((MiniQueueEntry<E>) min.getKey()).element;
+	}
+
+	@SuppressWarnings("unchecked")
+	private E popMin(){
+		return ((MiniQueueEntry<E>) tree.popMin().getKey()).element;
+	}
+
+	private static int compare(Delayed a,Delayed b){
+		return a.compareTo(b);
+	}
+}
@@ -0,0 +1,335 @@
+package com.dlw;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 双锁链表队列(参考LinkedBlockingQueue)
+ *
+ * MiniArrayBrokingQueue只有一把锁，生产者和消费者互相排队。
+ * 链表队列的入队只动last，出队只动head，两端没有共享的字段，所以可以各用一把锁：
+ * 1.putLock + notFull：生产者之间互斥，队列满了在notFull上等
+ * 2.takeLock + notEmpty：消费者之间互斥，队列空了在notEmpty上等
+ * 两端唯一共享的是元素个数count，用AtomicInteger。
+ *
+ * 跨锁的唤醒：
+ * 生产者放入元素前队列是空的(count从0变成1)，消费者可能都在notEmpty上等，需要拿takeLock去signal；
+ * 消费者取走元素前队列是满的，同理拿putLock去signal notFull。
+ * 其它时候只在自己这一端"接力"唤醒：put之后还没满，就signal下一个生产者；take之后还有数据，就signal下一个消费者。
+ * 这样大部分操作只需要拿一把锁。
+ *
+ * put/take不能抛出InterruptedException，等待时不响应中断(awaitUninterruptibly)，中断标记会保留下来；
+ * 限时的offer/poll响应中断。
+ */
+public class MiniLinkedBrokingQueue<T> implements BrokingQueue<T> {
+
+	static final class Node<T>{
+		/**
+		 * head节点的item永远是null
+		 */
+		T item;
+		Node<T> next;
+
+		Node(T item) {
+			this.item = item;
+		}
+	}
+
+	private final int capacity;
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * 哑节点，head.next才是第一个元素，只有持有takeLock时访问
+	 */
+	private Node<T> head;
+
+	/**
+	 * 最后一个节点，只有持有putLock时访问
+	 */
+	private Node<T> last;
+
+	/**
+	 * 和MiniArrayBrokingQueue一样用非公平模式
+	 */
+	private final MiniReentrantLock takeLock = new MiniReentrantLock(false);
+	private final Condition notEmpty = takeLock.newCondition();
+
+	private final MiniReentrantLock putLock = new MiniReentrantLock(false);
+	private final Condition notFull = putLock.newCondition();
+
+	/**
+	 * 不限容量(Integer.MAX_VALUE)
+	 */
+	public MiniLinkedBrokingQueue(){
+		this(Integer.MAX_VALUE);
+	}
+
+	public MiniLinkedBrokingQueue(int capacity){
+		if(capacity <= 0){
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		last = head = new Node<T>(null);
+	}
+
+	@Override
+	public void put(T element) {
+		if(element == null){
+			throw new NullPointerException();
+		}
+		Node<T> node = new Node<T>(element);
+		int c;
+		putLock.lock();
+		try{
+			while (count.get() == capacity){
+				notFull.awaitUninterruptibly();
+			}
+			enqueue(node);
+			c = count.getAndIncrement();
+			/**
+			 * 还有空位，接力唤醒下一个生产者
+			 */
+			if(c + 1 < capacity){
+				notFull.signal();
+			}
+		}finally {
+			putLock.unlock();
+		}
+		if(c == 0){
+			signalNotEmpty();
+		}
+	}
+
+	@Override
+	public T take() {
+		T element;
+		int c;
+		takeLock.lock();
+		try{
+			while (count.get() == 0){
+				notEmpty.awaitUninterruptibly();
+			}
+			element = dequeue();
+			c = count.getAndDecrement();
+			/**
+			 * 还有数据，接力唤醒下一个消费者
+			 */
+			if(c > 1){
+				notEmpty.signal();
+			}
+		}finally {
+			takeLock.unlock();
+		}
+		if(c == capacity){
+			signalNotFull();
+		}
+		return element;
+	}
+
+	@Override
+	public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+		if(element == null){
+			throw new NullPointerException();
+		}
+		long nanos = unit.toNanos(timeout);
+		Node<T> node = new Node<T>(element);
+		int c;
+		putLock.lockInterruptibly();
+		try{
+			while (count.get() == capacity){
+				if(nanos <= 0L){
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			enqueue(node);
+			c = count.getAndIncrement();
+			if(c + 1 < capacity){
+				notFull.signal();
+			}
+		}finally {
+			putLock.unlock();
+		}
+		if(c == 0){
+			signalNotEmpty();
+		}
+		return true;
+	}
+
+	@Override
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		T element;
+		int c;
+		takeLock.lockInterruptibly();
+		try{
+			while (count.get() == 0){
+				if(nanos <= 0L){
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			element = dequeue();
+			c = count.getAndDecrement();
+			if(c > 1){
+				notEmpty.signal();
+			}
+		}finally {
+			takeLock.unlock();
+		}
+		if(c == capacity){
+			signalNotFull();
+		}
+		return element;
+	}
+
+	/**
+	 * 批量插入：持有putLock期间插入尽量多的元素，队列满了先通知消费者再等待
+	 */
+	@Override
+	public void putAll(Collection<? extends T> elements) {
+		for(T element : elements){
+			if(element == null){
+				throw new NullPointerException();
+			}
+		}
+		int added = 0;
+		boolean wasEmpty = false;
+		putLock.lock();
+		try{
+			for(T element : elements){
+				while (count.get() == capacity){
+					if(wasEmpty){
+						wasEmpty = false;
+						signalNotEmpty();
+					}
+					notFull.awaitUninterruptibly();
+				}
+				enqueue(new Node<T>(element));
+				if(count.getAndIncrement() == 0){
+					wasEmpty = true;
+				}
+				added++;
+			}
+			if(added > 0 && count.get() < capacity){
+				notFull.signal();
+			}
+		}finally {
+			putLock.unlock();
+		}
+		if(wasEmpty){
+			signalNotEmpty();
+		}
+	}
+
+	/**
+	 * 批量获取：持有takeLock把已有的元素(最多maxElements个)都取走，队列为空时不等待
+	 */
+	@Override
+	public int drainTo(Collection<? super T> c, int maxElements) {
+		return drain(c,maxElements,false);
+	}
+
+	/**
+	 * 批量获取：等到至少有一个元素，然后持有takeLock把已有的元素(最多maxElements个)都取走
+	 */
+	@Override
+	public int takeBatch(Collection<? super T> c, int maxElements) {
+		return drain(c,maxElements,true);
+	}
+
+	/**
+	 * @param wait true：队列为空时等待(不响应中断)
+	 */
+	private int drain(Collection<? super T> c,int maxElements,boolean wait) {
+		if(maxElements <= 0){
+			return 0;
+		}
+		boolean wasFull = false;
+		int i = 0;
+		takeLock.lock();
+		try{
+			while (wait && count.get() == 0){
+				notEmpty.awaitUninterruptibly();
+			}
+			int n = Math.min(count.get(),maxElements);
+			/**
+			 * 和LinkedBlockingQueue.drainTo一样：先c.add，成功了才把节点摘下来，
+			 * c.add抛出异常时，这个元素还留在队列里，已经移走的i个在finally里从count中减掉
+			 */
+			while (i < n){
+				c.add(head.next.item);
+				dequeue();
+				i++;
+			}
+		}finally {
+			if(i > 0){
+				int before = count.getAndAdd(-i);
+				wasFull = before == capacity;
+				if(before > i){
+					notEmpty.signal();
+				}
+			}
+			takeLock.unlock();
+		}
+		if(wasFull){
+			signalNotFull();
+		}
+		return i;
+	}
+
+	public int size(){
+		return count.get();
+	}
+
+	public int capacity(){
+		return capacity;
+	}
+
+	/**
+	 * 持有putLock时调用
+	 */
+	private void enqueue(Node<T> node){
+		last = last.next = node;
+	}
+
+	/**
+	 * 持有takeLock时调用：第一个元素所在的节点变成新的哑节点
+	 */
+	private T dequeue(){
+		Node<T> h = head;
+		Node<T> first = h.next;
+		h.next = h;//help GC
+		head = first;
+		T element = first.item;
+		first.item = null;
+		return element;
+	}
+
+	/**
+	 * 队列从空变成非空，唤醒一个消费者(只在put/putAll中调用)
+	 */
+	private void signalNotEmpty(){
+		takeLock.lock();
+		try{
+			notEmpty.signal();
+		}finally {
+			takeLock.unlock();
+		}
+	}
+
+	/**
+	 * 队列从满变成不满，唤醒一个生产者(只在take/drainTo中调用)
+	 */
+	private void signalNotFull(){
+		putLock.lock();
+		try{
+			notFull.signal();
+		}finally {
+			putLock.unlock();
+		}
+	}
+}
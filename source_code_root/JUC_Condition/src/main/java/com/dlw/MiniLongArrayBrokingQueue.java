@@ -0,0 +1,184 @@
+package com.dlw;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 基于long[]的有界阻塞队列
+ *
+ * 和MiniArrayBrokingQueue的结构一样(一把锁 + notFull/notEmpty两个条件队列 + 环形数组)，
+ * 区别只在于元素直接存成long，putLong/takeLong不会分配Long对象。
+ *
+ * putLong/takeLong不能抛出InterruptedException，等待时不响应中断(awaitUninterruptibly)，中断标记会保留下来；
+ * 限时的offerLong/offer/poll响应中断。
+ */
+public class MiniLongArrayBrokingQueue implements LongBrokingQueue {
+
+	/**
+	 * 和MiniArrayBrokingQueue一样用非公平模式
+	 */
+	private final MiniReentrantLock lock = new MiniReentrantLock(false);
+
+	private final Condition notFull = lock.newCondition();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	/**底层存储元素的数组队列*/
+	private final long[] queues;
+
+	/**
+	 * count:当前队列中可以被消费的数据量
+	 * putptr：下一次存放数据的位置
+	 * takeptr：下一次消费数据的位置
+	 */
+	private int count,putptr,takeptr;
+
+	public MiniLongArrayBrokingQueue(int size){
+		if(size <= 0){
+			throw new IllegalArgumentException("size: " + size);
+		}
+		this.queues = new long[size];
+	}
+
+	@Override
+	public void putLong(long element) {
+		lock.lock();
+		try{
+			while (count == queues.length){
+				notFull.awaitUninterruptibly();
+			}
+			queues[putptr] = element;
+			putptr = ++putptr == queues.length ? 0 : putptr;
+			count++;
+			notEmpty.signal();
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long takeLong() {
+		lock.lock();
+		try{
+			while (count == 0){
+				notEmpty.awaitUninterruptibly();
+			}
+			long element = queues[takeptr];
+			takeptr = ++takeptr == queues.length ? 0 : takeptr;
+			count--;
+			notFull.signal();
+			return element;
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 限时插入，不装箱
+	 * @return 超时还没有空位，返回false
+	 */
+	public boolean offerLong(long element,long timeout,TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try{
+			while (count == queues.length){
+				if(nanos <= 0L){
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			queues[putptr] = element;
+			putptr = ++putptr == queues.length ? 0 : putptr;
+			count++;
+			notEmpty.signal();
+			return true;
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean offer(Long element, long timeout, TimeUnit unit) throws InterruptedException {
+		return offerLong(element,timeout,unit);
+	}
+
+	/**
+	 * 限时获取：超时要返回null，只能是装箱的版本
+	 */
+	@Override
+	public Long poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try{
+			while (count == 0){
+				if(nanos <= 0L){
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			long element = queues[takeptr];
+			takeptr = ++takeptr == queues.length ? 0 : takeptr;
+			count--;
+			notFull.signal();
+			return element;
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 批量获取：一次持锁把已有的元素(最多dst.length个)拷贝到dst中，队列为空时不等待
+	 * @return 拷贝的元素个数
+	 */
+	public int drainTo(long[] dst){
+		return drain(dst,false);
+	}
+
+	/**
+	 * 批量获取：等到至少有一个元素，然后一次持锁把已有的元素(最多dst.length个)拷贝到dst中
+	 * @return 拷贝的元素个数，dst不为空时至少是1
+	 */
+	public int takeBatch(long[] dst){
+		return drain(dst,true);
+	}
+
+	/**
+	 * @param wait true：队列为空时等待(不响应中断)
+	 */
+	private int drain(long[] dst,boolean wait){
+		if(dst.length == 0){
+			return 0;
+		}
+		int n;
+		lock.lock();
+		try{
+			while (wait && count == 0){
+				notEmpty.awaitUninterruptibly();
+			}
+			n = Math.min(count,dst.length);
+			//环形数组最多分两段拷贝
+			int first = Math.min(n,queues.length - takeptr);
+			System.arraycopy(queues,takeptr,dst,0,first);
+			System.arraycopy(queues,0,dst,first,n - first);
+			takeptr = (takeptr + n) % queues.length;
+			count -= n;
+			if(n == 1){
+				notFull.signal();
+			}else if(n > 1){
+				notFull.signalAll();
+			}
+		}finally {
+			lock.unlock();
+		}
+		return n;
+	}
+
+	public int size(){
+		lock.lock();
+		try{
+			return count;
+		}finally {
+			lock.unlock();
+		}
+	}
+}
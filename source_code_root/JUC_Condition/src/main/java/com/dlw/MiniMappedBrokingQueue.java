@@ -0,0 +1,612 @@
+package com.dlw;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 基于内存映射文件的持久化队列，元素是byte[]
+ *
+ * 内存队列里的元素在进程重启之后就丢了。这个队列把元素追加写到目录下的段文件(segment)里：
+ * 1.段文件：固定大小segmentSize，文件名是这个段第一个字节的全局偏移量(20位数字)，
+ * 		全局偏移量 / segmentSize 决定它在哪个段，段内偏移量 = 全局偏移量 % segmentSize
+ * 2.记录格式：[int header][payload]，header = payload长度 + 1
+ * 		header == 0：还没有写入(新文件都是0)，header == ROLL：这个段剩下的空间放不下，后面的记录在下一个段
+ * 		先写payload，最后写header，进程在写的过程中被杀掉，重启时这条没写完的记录不可见
+ * 3.消费者游标：consumer.cursor文件里的一个long，每次take之后更新，重启后从游标处继续消费
+ * 4.消费者读完一个段，游标移到下一个段之后，删掉这个段文件
+ *
+ * 读写都直接访问MappedByteBuffer(写到page cache里)，没有read/write系统调用，
+ * 数据在page cache里放得下时，吞吐量接近内存队列。
+ * 写入page cache的数据在进程崩溃之后不会丢；机器掉电之前没有刷盘的数据会丢，需要时调用sync()。
+ *
+ * 并发控制和MiniLinkedBrokingQueue一样用两把锁：生产者追加只动写端，消费者只动读端，
+ * 两端共享的只有记录个数count(AtomicLong)，它的volatile写/读保证消费者能看到生产者写进映射内存的记录。
+ * 队列没有容量上限(只受磁盘空间限制)，put不会等待。
+ *
+ * 同一个目录同时只能被一个实例打开：构造时对目录下的queue.lock加文件锁(tryLock)，
+ * 目录已经被打开(同一个进程或者别的进程)时构造失败，抛出IOException。用完之后调用close()释放。
+ */
+public class MiniMappedBrokingQueue implements BrokingQueue<byte[]>, Closeable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+	static final int ROLL = -1;
+
+	static final String CURSOR_FILE = "consumer.cursor";
+
+	static final String LOCK_FILE = "queue.lock";
+
+	static final String SEGMENT_SUFFIX = ".seg";
+
+	private final File dir;
+
+	private final int segmentSize;
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final MiniReentrantLock putLock = new MiniReentrantLock(false);
+
+	private final MiniReentrantLock takeLock = new MiniReentrantLock(false);
+	private final Condition notEmpty = takeLock.newCondition();
+
+	/**
+	 * 持有queue.lock文件锁的channel，close时关掉它，文件锁随之释放
+	 */
+	private final FileChannel lockChannel;
+
+	/**
+	 * close之后为true，之后的操作都抛出IllegalStateException
+	 * 同时持有putLock和takeLock时修改
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * 写端，只有持有putLock时访问
+	 */
+	private long writePosition;
+	private long writeBase;
+	private MappedByteBuffer writeSegment;
+
+	/**
+	 * 读端，只有持有takeLock时访问
+	 */
+	private long readPosition;
+	private long readBase;
+	private MappedByteBuffer readSegment;
+	private MappedByteBuffer cursor;
+
+	public MiniMappedBrokingQueue(File dir) throws IOException {
+		this(dir,DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * 打开(或者新建)dir下的队列，从上次的消费者游标处继续
+	 * @param segmentSize 段文件大小，重新打开已有的队列时必须和原来一样；一条记录(payload + 4字节)不能超过它
+	 */
+	public MiniMappedBrokingQueue(File dir,int segmentSize) throws IOException {
+		if(segmentSize < 64){
+			throw new IllegalArgumentException("segmentSize: " + segmentSize);
+		}
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("cannot create directory " + dir);
+		}
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.lockChannel = lock(new File(dir,LOCK_FILE));
+		try{
+			recover();
+		}catch (IOException | RuntimeException e){
+			lockChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 从游标开始扫描段文件，恢复读端、写端和记录个数
+	 */
+	private void recover() throws IOException {
+		this.cursor = map(new File(dir,CURSOR_FILE),8);
+
+		long[] bases = segmentBases();
+		long start = cursor.getLong(0);
+		if(!segmentFile(baseOf(start)).exists() && bases.length > 0 && bases[0] > start){
+			//游标所在的段不存在了，从最早的段开始
+			start = bases[0];
+		}
+		for(long base : bases){
+			if(base < baseOf(start)){
+				//已经消费完、还没来得及删除的段
+				delete(base);
+			}
+		}
+
+		/**
+		 * 从游标开始扫描到第一个没有写入的位置：
+		 * 统计还没有消费的记录个数，扫描结束的位置就是生产者下一次追加的位置
+		 */
+		long p = start;
+		long base = baseOf(p);
+		MappedByteBuffer segment = map(segmentFile(base),segmentSize);
+		long n = 0;
+		for(;;){
+			long b = baseOf(p);
+			if(b != base){
+				File file = segmentFile(b);
+				if(!file.exists()){
+					break;
+				}
+				segment = map(file,segmentSize);
+				base = b;
+			}
+			int offset = (int) (p - b);
+			int header = offset <= segmentSize - 4 ? segment.getInt(offset) : ROLL;
+			if(header == 0){
+				break;
+			}
+			if(header == ROLL){
+				p = b + segmentSize;
+				continue;
+			}
+			if(header < 0 || offset + 4 + header - 1 > segmentSize){
+				throw new IOException("corrupted segment " + segmentFile(b) + " at " + offset);
+			}
+			p += 4 + header - 1;
+			n++;
+		}
+		for(long b : segmentBases()){
+			if(b > baseOf(p)){
+				//追加下一个段时进程退出，留下的空段
+				delete(b);
+			}
+		}
+
+		this.writePosition = p;
+		this.writeBase = baseOf(p);
+		this.writeSegment = writeBase == base ? segment : map(segmentFile(writeBase),segmentSize);
+		zeroTail(writeSegment,(int) (p - writeBase));
+
+		this.readPosition = start;
+		this.readBase = baseOf(start);
+		this.readSegment = map(segmentFile(readBase),segmentSize);
+		cursor.putLong(0,start);
+		count.set(n);
+	}
+
+	@Override
+	public void put(byte[] element) {
+		checkElement(element);
+		long c;
+		putLock.lock();
+		try{
+			ensureOpen();
+			append(element);
+			c = count.getAndIncrement();
+		}finally {
+			putLock.unlock();
+		}
+		if(c == 0){
+			signalNotEmpty();
+		}
+	}
+
+	@Override
+	public byte[] take() {
+		byte[] element;
+		long c;
+		takeLock.lock();
+		try{
+			ensureOpen();
+			while (count.get() == 0){
+				notEmpty.awaitUninterruptibly();
+				ensureOpen();
+			}
+			element = dequeue();
+			c = count.getAndDecrement();
+			if(c > 1){
+				notEmpty.signal();
+			}
+		}finally {
+			takeLock.unlock();
+		}
+		return element;
+	}
+
+	/**
+	 * 零拷贝的take：返回映射内存上这条记录的只读视图，不把payload拷贝到byte[]
+	 * 段文件被删除之后，已经映射的内存在buffer被回收之前仍然可以读
+	 */
+	public ByteBuffer takeBuffer() {
+		ByteBuffer element;
+		long c;
+		takeLock.lock();
+		try{
+			ensureOpen();
+			while (count.get() == 0){
+				notEmpty.awaitUninterruptibly();
+				ensureOpen();
+			}
+			int offset = locate();
+			int length = readSegment.getInt(offset) - 1;
+			ByteBuffer view = readSegment.duplicate();
+			view.limit(offset + 4 + length);
+			view.position(offset + 4);
+			element = view.slice().asReadOnlyBuffer();
+			advance(length);
+			c = count.getAndDecrement();
+			if(c > 1){
+				notEmpty.signal();
+			}
+		}finally {
+			takeLock.unlock();
+		}
+		return element;
+	}
+
+	/**
+	 * 没有容量上限，不会等待
+	 */
+	@Override
+	public boolean offer(byte[] element, long timeout, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		put(element);
+		return true;
+	}
+
+	@Override
+	public byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		byte[] element;
+		long c;
+		takeLock.lockInterruptibly();
+		try{
+			ensureOpen();
+			while (count.get() == 0){
+				if(nanos <= 0L){
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+				ensureOpen();
+			}
+			element = dequeue();
+			c = count.getAndDecrement();
+			if(c > 1){
+				notEmpty.signal();
+			}
+		}finally {
+			takeLock.unlock();
+		}
+		return element;
+	}
+
+	/**
+	 * 批量追加：一次持有putLock
+	 */
+	@Override
+	public void putAll(Collection<? extends byte[]> elements) {
+		for(byte[] element : elements){
+			checkElement(element);
+		}
+		if(elements.isEmpty()){
+			return;
+		}
+		long c;
+		putLock.lock();
+		try{
+			ensureOpen();
+			for(byte[] element : elements){
+				append(element);
+			}
+			c = count.getAndAdd(elements.size());
+		}finally {
+			putLock.unlock();
+		}
+		if(c == 0){
+			signalNotEmpty();
+		}
+	}
+
+	/**
+	 * 批量获取：一次持有takeLock取走已有的记录(最多maxElements条)，没有记录时不等待
+	 */
+	@Override
+	public int drainTo(Collection<? super byte[]> c, int maxElements) {
+		return drain(c,maxElements,false);
+	}
+
+	/**
+	 * 批量获取：等到至少有一条记录，然后一次持有takeLock取走已有的记录(最多maxElements条)
+	 */
+	@Override
+	public int takeBatch(Collection<? super byte[]> c, int maxElements) {
+		return drain(c,maxElements,true);
+	}
+
+	/**
+	 * @param wait true：没有记录时等待(不响应中断)
+	 */
+	private int drain(Collection<? super byte[]> c,int maxElements,boolean wait) {
+		if(maxElements <= 0){
+			return 0;
+		}
+		int i = 0;
+		takeLock.lock();
+		try{
+			ensureOpen();
+			while (wait && count.get() == 0){
+				notEmpty.awaitUninterruptibly();
+				ensureOpen();
+			}
+			int n = (int) Math.min(count.get(),maxElements);
+			/**
+			 * 和MiniLinkedBrokingQueue.drain一样：先读出记录交给c.add，成功了才移动读位置和游标，
+			 * c.add抛出异常时，这条记录还留在队列里，已经移走的i条在finally里从count中减掉
+			 */
+			while (i < n){
+				byte[] element = read(locate());
+				c.add(element);
+				advance(element.length);
+				i++;
+			}
+		}finally {
+			if(i > 0 && count.getAndAdd(-i) > i){
+				notEmpty.signal();
+			}
+			takeLock.unlock();
+		}
+		return i;
+	}
+
+	/**
+	 * 还没有消费的记录条数
+	 */
+	public long size(){
+		return count.get();
+	}
+
+	/**
+	 * 把写端所在的段和消费者游标刷到磁盘上(msync)，调用之前put/take的结果在掉电之后也不会丢
+	 */
+	public void sync(){
+		putLock.lock();
+		try{
+			ensureOpen();
+			writeSegment.force();
+		}finally {
+			putLock.unlock();
+		}
+		takeLock.lock();
+		try{
+			ensureOpen();
+			cursor.force();
+		}finally {
+			takeLock.unlock();
+		}
+	}
+
+	/**
+	 * 把写端和游标刷到磁盘上，丢掉映射的buffer(映射在buffer被回收时解除)，释放queue.lock文件锁
+	 * 之后同一个目录可以重新打开；等在take上的消费者会被唤醒，抛出IllegalStateException
+	 * 重复调用没有影响
+	 */
+	@Override
+	public void close() throws IOException {
+		//和sync一样先putLock后takeLock，不会互相等待
+		putLock.lock();
+		takeLock.lock();
+		try{
+			if(closed){
+				return;
+			}
+			closed = true;
+			writeSegment.force();
+			cursor.force();
+			writeSegment = null;
+			readSegment = null;
+			cursor = null;
+			notEmpty.signalAll();
+		}finally {
+			takeLock.unlock();
+			putLock.unlock();
+		}
+		lockChannel.close();
+	}
+
+	private void ensureOpen(){
+		if(closed){
+			throw new IllegalStateException("queue closed: " + dir);
+		}
+	}
+
+	private void checkElement(byte[] element){
+		if(element == null){
+			throw new NullPointerException();
+		}
+		if(element.length > segmentSize - 4){
+			throw new IllegalArgumentException("element too large: " + element.length);
+		}
+	}
+
+	/**
+	 * 持有putLock时调用：当前段放不下就写一个ROLL标记，换到下一个段
+	 */
+	private void append(byte[] element){
+		int offset = (int) (writePosition - writeBase);
+		if(offset + 4 + element.length > segmentSize){
+			if(offset <= segmentSize - 4){
+				writeSegment.putInt(offset,ROLL);
+			}
+			long next = writeBase + segmentSize;
+			try{
+				writeSegment = map(segmentFile(next),segmentSize);
+			}catch (IOException e){
+				throw new UncheckedIOException(e);
+			}
+			writeBase = writePosition = next;
+			offset = 0;
+		}
+		writeSegment.position(offset + 4);
+		writeSegment.put(element);
+		//最后写header，这条记录才算写完
+		writeSegment.putInt(offset,element.length + 1);
+		writePosition += 4 + element.length;
+	}
+
+	/**
+	 * 持有takeLock、并且count > 0时调用
+	 */
+	private byte[] dequeue(){
+		byte[] element = read(locate());
+		advance(element.length);
+		return element;
+	}
+
+	/**
+	 * 把读端当前段offset处的记录拷贝出来，不移动读位置
+	 */
+	private byte[] read(int offset){
+		byte[] element = new byte[readSegment.getInt(offset) - 1];
+		readSegment.position(offset + 4);
+		readSegment.get(element);
+		return element;
+	}
+
+	/**
+	 * 找到下一条记录在读端当前段中的偏移量，遇到段尾就换到下一个段
+	 */
+	private int locate(){
+		for(;;){
+			long base = baseOf(readPosition);
+			if(base != readBase){
+				rollReader(base);
+			}
+			int offset = (int) (readPosition - base);
+			int header = offset <= segmentSize - 4 ? readSegment.getInt(offset) : ROLL;
+			if(header != ROLL){
+				return offset;
+			}
+			readPosition = base + segmentSize;
+		}
+	}
+
+	private void advance(int length){
+		readPosition += 4 + length;
+		cursor.putLong(0,readPosition);
+	}
+
+	/**
+	 * 先把游标移到下一个段，再删除读完的段：删除之后、游标更新之前进程退出的话，重启时会找不到游标所在的段
+	 */
+	private void rollReader(long base){
+		long old = readBase;
+		try{
+			readSegment = map(segmentFile(base),segmentSize);
+		}catch (IOException e){
+			throw new UncheckedIOException(e);
+		}
+		readBase = base;
+		cursor.putLong(0,readPosition);
+		delete(old);
+	}
+
+	private void signalNotEmpty(){
+		takeLock.lock();
+		try{
+			notEmpty.signal();
+		}finally {
+			takeLock.unlock();
+		}
+	}
+
+	private long baseOf(long position){
+		return position - position % segmentSize;
+	}
+
+	private File segmentFile(long base){
+		return new File(dir,String.format("%020d",base) + SEGMENT_SUFFIX);
+	}
+
+	private void delete(long base){
+		File file = segmentFile(base);
+		if(file.exists() && !file.delete()){
+			file.deleteOnExit();
+		}
+	}
+
+	private long[] segmentBases() throws IOException {
+		File[] files = dir.listFiles((d,name) -> name.endsWith(SEGMENT_SUFFIX));
+		if(files == null){
+			throw new IOException("cannot list " + dir);
+		}
+		long[] bases = new long[files.length];
+		for(int i = 0; i < files.length; i++){
+			if(files[i].length() != segmentSize){
+				throw new IllegalArgumentException("segment size mismatch: " + files[i] + " is " + files[i].length()
+						+ " bytes, expected " + segmentSize);
+			}
+			String name = files[i].getName();
+			bases[i] = Long.parseLong(name.substring(0,name.length() - SEGMENT_SUFFIX.length()));
+		}
+		Arrays.sort(bases);
+		return bases;
+	}
+
+	/**
+	 * 进程在写一条记录的过程中退出时，写端后面可能残留没有header的payload，
+	 * 清零之后，它们不会在下一次重启时被当成header
+	 */
+	private static void zeroTail(MappedByteBuffer segment,int offset){
+		for(int i = offset; i < segment.limit(); i++){
+			//只改非0的字节，没写过的页不会被弄脏
+			if(segment.get(i) != 0){
+				segment.put(i,(byte) 0);
+			}
+		}
+	}
+
+	/**
+	 * 对file加排它的文件锁，已经被锁住(同一个进程里没有close的实例，或者别的进程)时抛出IOException
+	 * @return 持有文件锁的channel，关掉它就释放了文件锁
+	 */
+	private static FileChannel lock(File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file,"rw").getChannel();
+		FileLock lock;
+		try{
+			lock = channel.tryLock();
+		}catch (OverlappingFileLockException e){
+			lock = null;
+		}catch (IOException | RuntimeException e){
+			channel.close();
+			throw e;
+		}
+		if(lock == null){
+			channel.close();
+			throw new IOException("queue directory is already open: " + file.getParentFile());
+		}
+		return channel;
+	}
+
+	/**
+	 * 文件不存在就创建，长度不够会被扩展到size
+	 * 映射建立之后关掉文件，映射在buffer被回收之前一直有效
+	 */
+	private static MappedByteBuffer map(File file,int size) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file,"rw")){
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE,0,size);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多生产者 多消费者 的有界无锁队列(Dmitry Vyukov的bounded MPMC queue)
+ *
+ * 每个格子除了元素之外还有一个序号sequence，初始时第i格的序号是i：
+ * 1.生产者拿到位置pos，只有 sequence == pos 时这一格才能写(说明上一轮的元素已经被取走了)，
+ * 		cas enqueuePos 抢到这个位置后写入元素，再把sequence改成 pos + 1，通知消费者
+ * 2.消费者拿到位置pos，只有 sequence == pos + 1 时这一格才有数据，
+ * 		cas dequeuePos 抢到这个位置后取出元素，再把sequence改成 pos + 容量，留给下一轮的生产者
+ * 生产者只cas enqueuePos，消费者只cas dequeuePos，两边不会竞争同一个变量；
+ * 格子的所有权通过sequence交接，不需要锁。
+ *
+ * 队列满/空时和MiniSpscBrokingQueue一样按WaitStrategy退避等待。
+ */
+public class MiniMpmcBrokingQueue<T> extends MiniMpmcPadding.Rhs implements BrokingQueue<T> {
+
+	private final Object[] elements;
+
+	private final long[] sequences;
+
+	private final int mask;
+
+	private final WaitStrategy waitStrategy;
+
+	/**
+	 * @param capacity 容量，会向上取整成2的幂，至少是2
+	 * 		(容量为1时，"可写"的序号pos 和 "可读"的序号pos + 1 会和下一轮重叠，算法要求至少两格)
+	 */
+	public MiniMpmcBrokingQueue(int capacity){
+		this(capacity,WaitStrategy.SPIN_THEN_PARK);
+	}
+
+	public MiniMpmcBrokingQueue(int capacity,WaitStrategy waitStrategy){
+		if(capacity <= 0 || capacity > (1 << 30)){
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		if(waitStrategy == null){
+			throw new NullPointerException();
+		}
+		this.waitStrategy = waitStrategy;
+		int n = Integer.highestOneBit(capacity);
+		if(n < capacity){
+			n <<= 1;
+		}
+		if(n < 2){
+			n = 2;
+		}
+		this.mask = n - 1;
+		this.elements = new Object[n];
+		this.sequences = new long[n];
+		for(int i = 0; i < n; i++){
+			sequences[i] = i;
+		}
+	}
+
+	/**
+	 * 队列满了就返回false，不会等待
+	 */
+	public boolean offer(T element){
+		if(element == null){
+			throw new NullPointerException();
+		}
+		long pos = enqueuePos;
+		int i;
+		for(;;){
+			i = (int) pos & mask;
+			long dif = sequenceAt(i) - pos;
+			if(dif == 0L){
+				if(unsafe.compareAndSwapLong(this,enqueuePosOffset,pos,pos + 1)){
+					break;
+				}
+				pos = enqueuePos;
+			}else if(dif < 0L){
+				/**
+				 * 这一格上一轮的元素还没被取走，队列满了
+				 */
+				return false;
+			}else {
+				/**
+				 * 别的生产者已经写过这一格了，重新读一下位置
+				 */
+				pos = enqueuePos;
+			}
+		}
+		elements[i] = element;
+		setSequenceOrdered(i,pos + 1);
+		return true;
+	}
+
+	/**
+	 * 队列空了就返回null，不会等待
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll(){
+		long pos = dequeuePos;
+		int i;
+		for(;;){
+			i = (int) pos & mask;
+			long dif = sequenceAt(i) - (pos + 1);
+			if(dif == 0L){
+				if(unsafe.compareAndSwapLong(this,dequeuePosOffset,pos,pos + 1)){
+					break;
+				}
+				pos = dequeuePos;
+			}else if(dif < 0L){
+				/**
+				 * 这一格还没有写入数据，队列空了
+				 */
+				return null;
+			}else {
+				pos = dequeuePos;
+			}
+		}
+		T element = (T) elements[i];
+		elements[i] = null;
+		setSequenceOrdered(i,pos + mask + 1);
+		return element;
+	}
+
+	@Override
+	public void put(T element) {
+		if(offer(element)){
+			return;
+		}
+		boolean interrupted = false;
+		for(int tries = 0; !offer(element); ){
+			if(waitStrategy.shouldPark(tries)){
+				interrupted |= MiniSpscBrokingQueue.park(waitStrategy.parkNanos(tries));
+				tries = WaitStrategy.next(tries);
+			}else {
+				tries = waitStrategy.idle(tries);
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public T take() {
+		T element = poll();
+		if(element != null){
+			return element;
+		}
+		boolean interrupted = false;
+		for(int tries = 0; (element = poll()) == null; ){
+			if(waitStrategy.shouldPark(tries)){
+				interrupted |= MiniSpscBrokingQueue.park(waitStrategy.parkNanos(tries));
+				tries = WaitStrategy.next(tries);
+			}else {
+				tries = waitStrategy.idle(tries);
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		return element;
+	}
+
+	@Override
+	public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		if(offer(element)){
+			return true;
+		}
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(int tries = 0; !offer(element); ){
+			tries = MiniSpscBrokingQueue.awaitNanos(waitStrategy,tries,deadline);
+			if(tries < 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		T element = poll();
+		if(element != null){
+			return element;
+		}
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(int tries = 0; (element = poll()) == null; ){
+			tries = MiniSpscBrokingQueue.awaitNanos(waitStrategy,tries,deadline);
+			if(tries < 0){
+				return null;
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * 逐个poll，直到队列空了或者取够maxElements个，不等待
+	 * 阻塞的takeBatch用BrokingQueue的默认实现：先take一个，再drainTo
+	 */
+	@Override
+	public int drainTo(Collection<? super T> c, int maxElements) {
+		int n = 0;
+		T element;
+		while (n < maxElements && (element = poll()) != null){
+			c.add(element);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * 估算值：并发put/take时只是某一刻的近似
+	 */
+	public int size(){
+		long d = dequeuePos;
+		long e = enqueuePos;
+		return (int) Math.max(0L,Math.min(e - d,mask + 1L));
+	}
+
+	public int capacity(){
+		return mask + 1;
+	}
+
+	private long sequenceAt(int i){
+		return unsafe.getLongVolatile(sequences,LONG_ARRAY_BASE + ((long) i << LONG_ARRAY_SHIFT));
+	}
+
+	/**
+	 * 有序写：读到新序号的线程，一定能看到之前对这一格元素的写入
+	 */
+	private void setSequenceOrdered(int i,long value){
+		unsafe.putOrderedLong(sequences,LONG_ARRAY_BASE + ((long) i << LONG_ARRAY_SHIFT),value);
+	}
+
+	private static final Unsafe unsafe;
+	private static final long enqueuePosOffset;
+	private static final long dequeuePosOffset;
+	private static final long LONG_ARRAY_BASE;
+	private static final int LONG_ARRAY_SHIFT;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			enqueuePosOffset = unsafe.objectFieldOffset
+					(MiniMpmcPadding.Producer.class.getDeclaredField("enqueuePos"));
+			dequeuePosOffset = unsafe.objectFieldOffset
+					(MiniMpmcPadding.Consumer.class.getDeclaredField("dequeuePos"));
+			LONG_ARRAY_BASE = unsafe.arrayBaseOffset(long[].class);
+			LONG_ARRAY_SHIFT = 31 - Integer.numberOfLeadingZeros(unsafe.arrayIndexScale(long[].class));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.dlw;
+
+/**
+ * MiniMpmcBrokingQueue的字段布局
+ *
+ * 生产者的位置 和 消费者的位置 分别放在不同的缓存行上，原因和MiniSpscPadding一样
+ * 	[padding] [enqueuePos] [padding] [dequeuePos] [padding] [buffer ...]
+ */
+final class MiniMpmcPadding {
+
+	private MiniMpmcPadding() {
+	}
+
+	abstract static class Lhs {
+		int p00;
+		long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+	}
+
+	abstract static class Producer extends Lhs {
+		/**
+		 * 下一个要写入的位置，生产者之间cas竞争
+		 */
+		volatile long enqueuePos;
+	}
+
+	abstract static class Mid extends Producer {
+		long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+	}
+
+	abstract static class Consumer extends Mid {
+		/**
+		 * 下一个要读取的位置，消费者之间cas竞争
+		 */
+		volatile long dequeuePos;
+	}
+
+	abstract static class Rhs extends Consumer {
+		long p31, p32, p33, p34, p35, p36, p37, p38, p39, p40, p41, p42, p43, p44, p45;
+	}
+}
@@ -0,0 +1,194 @@
+package com.dlw;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 优先级队列：take总是取出当前最小(优先级最高)的元素
+ *
+ * 底层用JDK_HashMap模块里的红黑树RBTree：插入、删除最小节点(popMin)都是O(logN)。
+ * key是MiniQueueEntry(元素 + 插入序号)，优先级相同的元素先进先出。
+ *
+ * 和PriorityBlockingQueue一样没有容量上限，put不会等待；take在队列为空时等待。
+ * put/take不能抛出InterruptedException，等待时不响应中断(awaitUninterruptibly)，中断标记会保留下来。
+ */
+public class MiniPriorityBrokingQueue<T> implements BrokingQueue<T> {
+
+	private final RBTree<MiniQueueEntry<T>,Object> tree;
+
+	/**
+	 * 插入序号，只有持有锁时访问
+	 */
+	private long seq;
+
+	/**
+	 * 和MiniArrayBrokingQueue一样用非公平模式
+	 */
+	private final MiniReentrantLock lock = new MiniReentrantLock(false);
+
+	private final Condition notEmpty = lock.newCondition();
+
+	/**
+	 * 按元素的自然顺序(Comparable)排序
+	 */
+	@SuppressWarnings("unchecked")
+	public MiniPriorityBrokingQueue(){
+		this((a,b) -> ((Comparable<? super T>) a).compareTo(b));
+	}
+
+	public MiniPriorityBrokingQueue(Comparator<? super T> comparator){
+		if(comparator == null){
+			throw new NullPointerException();
+		}
+		this.tree = new RBTree<MiniQueueEntry<T>,Object>(MiniQueueEntry.order(comparator));
+	}
+
+	@Override
+	public void put(T element) {
+		if(element == null){
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try{
+			tree.insert(new MiniQueueEntry<T>(element,seq++),null);
+			notEmpty.signal();
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public T take() {
+		lock.lock();
+		try{
+			while (tree.isEmpty()){
+				notEmpty.awaitUninterruptibly();
+			}
+			return popMin();
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 没有容量上限，不会等待
+	 */
+	@Override
+	public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		put(element);
+		return true;
+	}
+
+	@Override
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try{
+			while (tree.isEmpty()){
+				if(nanos <= 0L){
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return popMin();
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 批量插入：一次持锁，插入多个元素时唤醒所有等待的消费者
+	 */
+	@Override
+	public void putAll(Collection<? extends T> elements) {
+		for(T element : elements){
+			if(element == null){
+				throw new NullPointerException();
+			}
+		}
+		lock.lock();
+		try{
+			for(T element : elements){
+				tree.insert(new MiniQueueEntry<T>(element,seq++),null);
+			}
+			if(elements.size() == 1){
+				notEmpty.signal();
+			}else if(elements.size() > 1){
+				notEmpty.signalAll();
+			}
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 批量获取：按优先级从高到低取走已有的元素(最多maxElements个)，队列为空时不等待
+	 */
+	@Override
+	public int drainTo(Collection<? super T> c, int maxElements) {
+		return drain(c,maxElements,false);
+	}
+
+	/**
+	 * 批量获取：等到至少有一个元素，然后按优先级从高到低取走最多maxElements个
+	 */
+	@Override
+	public int takeBatch(Collection<? super T> c, int maxElements) {
+		return drain(c,maxElements,true);
+	}
+
+	/**
+	 * @param wait true：队列为空时等待(不响应中断)
+	 */
+	private int drain(Collection<? super T> c,int maxElements,boolean wait) {
+		if(maxElements <= 0){
+			return 0;
+		}
+		lock.lock();
+		try{
+			while (wait && tree.isEmpty()){
+				notEmpty.awaitUninterruptibly();
+			}
+			int n = 0;
+			//先c.add，成功了才从树上删掉：c.add抛出异常时，这个元素还留在队列里
+			while (n < maxElements && !tree.isEmpty()){
+				c.add(peek());
+				tree.popMin();
+				n++;
+			}
+			return n;
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	public int size(){
+		lock.lock();
+		try{
+			return tree.size();
+		}finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 持锁、并且队列不为空时调用
+	 */
+	@SuppressWarnings("unchecked")
+	private T peek(){
+		return ((MiniQueueEntry<T>) tree.minimum().getKey()).element;
+	}
+
+	/**
+	 * 持锁、并且队列不为空时调用
+	 */
+	@SuppressWarnings("unchecked")
+	private T popMin(){
+		return ((MiniQueueEntry<T>) tree.popMin().getKey()).element;
+	}
+}
@@ -0,0 +1,31 @@
+package com.dlw;
+
+import java.util.Comparator;
+
+/**
+ * MiniPriorityBrokingQueue、MiniDelayBrokingQueue里红黑树的key：元素 + 插入序号
+ *
+ * RBTree的key不能重复(相同的key会覆盖value)，而队列里可以有优先级相同的元素，
+ * 所以先按元素比较，相同时再按插入序号比较，优先级相同的元素先进先出。
+ * 比较器由队列持有(传给RBTree)，每个entry只有元素和序号两个字段。
+ */
+final class MiniQueueEntry<T> {
+
+	final T element;
+	final long seq;
+
+	MiniQueueEntry(T element,long seq) {
+		this.element = element;
+		this.seq = seq;
+	}
+
+	/**
+	 * 先按comparator比较元素，相同时按插入序号比较
+	 */
+	static <T> Comparator<MiniQueueEntry<T>> order(final Comparator<? super T> comparator){
+		return (a,b) -> {
+			int c = comparator.compare(a.element,b.element);
+			return c != 0 ? c : Long.compare(a.seq,b.seq);
+		};
+	}
+}
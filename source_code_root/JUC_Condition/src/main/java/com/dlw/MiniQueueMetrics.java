@@ -0,0 +1,154 @@
+package com.dlw;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MiniArrayBrokingQueue的占用和阻塞统计
+ *
+ * 统计项：
+ * 1.当前元素个数、最高水位(出现过的最大元素个数)
+ * 2.put/take次数，以及换算出来的每秒速率
+ * 3.生产者在notFull上等待的时间、消费者在notEmpty上等待的时间的直方图
+ *
+ * 怎么看：
+ * 消费者在notEmpty上等得多、等得久，说明上游供不上(starved)；
+ * 生产者在notFull上等得多、最高水位一直等于容量，说明下游处理不过来(backpressured)。
+ *
+ * 开销：
+ * 1.计数器都是LongAdder/LongAccumulator(分段计数)，不会变成新的竞争点；
+ * 		put/take的计数在释放队列的锁之后记录，不拉长临界区
+ * 2.只有真正需要等待时才调用System.nanoTime计时，不需要等待的put/take不计时(等待本来就慢，多两次计时无所谓)
+ */
+public class MiniQueueMetrics {
+
+	private final long startNanos = System.nanoTime();
+
+	final LongAdder puts = new LongAdder();
+	final LongAdder takes = new LongAdder();
+	final LongAccumulator highWaterMark = new LongAccumulator(Math::max,0L);
+	final MiniHistogram notFullWait = new MiniHistogram();
+	final MiniHistogram notEmptyWait = new MiniHistogram();
+
+	/**
+	 * @param n 插入的元素个数
+	 * @param peak 插入过程中出现过的最大元素个数
+	 */
+	void recordPut(int n,int peak){
+		puts.add(n);
+		highWaterMark.accumulate(peak);
+	}
+
+	void recordTake(int n){
+		takes.add(n);
+	}
+
+	void recordWait(boolean forSpace,long nanos){
+		(forSpace ? notFullWait : notEmptyWait).record(nanos);
+	}
+
+	Snapshot snapshot(int count,int capacity){
+		return new Snapshot(System.nanoTime() - startNanos,count,capacity,highWaterMark.get(),puts.sum(),takes.sum(),
+				notFullWait.snapshot(),notEmptyWait.snapshot());
+	}
+
+	public static final class Snapshot{
+		private final long elapsedNanos;
+		private final int count;
+		private final int capacity;
+		private final long highWaterMark;
+		private final long puts;
+		private final long takes;
+		private final MiniHistogram.Snapshot notFullWait;
+		private final MiniHistogram.Snapshot notEmptyWait;
+
+		Snapshot(long elapsedNanos,int count,int capacity,long highWaterMark,long puts,long takes,
+				 MiniHistogram.Snapshot notFullWait,MiniHistogram.Snapshot notEmptyWait) {
+			this.elapsedNanos = elapsedNanos;
+			this.count = count;
+			this.capacity = capacity;
+			this.highWaterMark = highWaterMark;
+			this.puts = puts;
+			this.takes = takes;
+			this.notFullWait = notFullWait;
+			this.notEmptyWait = notEmptyWait;
+		}
+
+		/**
+		 * 从开启统计到这个快照经过的时间
+		 */
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+
+		public long getHighWaterMark() {
+			return highWaterMark;
+		}
+
+		public long getPuts() {
+			return puts;
+		}
+
+		public long getTakes() {
+			return takes;
+		}
+
+		/**
+		 * 开启统计以来的平均速率(次/秒)
+		 */
+		public double getPutRate() {
+			return rate(puts,elapsedNanos);
+		}
+
+		public double getTakeRate() {
+			return rate(takes,elapsedNanos);
+		}
+
+		/**
+		 * earlier到这个快照之间的速率(次/秒)，定期取快照时用它看最近一段时间的情况
+		 */
+		public double getPutRate(Snapshot earlier) {
+			return rate(puts - earlier.puts,elapsedNanos - earlier.elapsedNanos);
+		}
+
+		public double getTakeRate(Snapshot earlier) {
+			return rate(takes - earlier.takes,elapsedNanos - earlier.elapsedNanos);
+		}
+
+		/**
+		 * 生产者在notFull上的等待时间(只统计需要等待的put)
+		 */
+		public MiniHistogram.Snapshot getNotFullWait() {
+			return notFullWait;
+		}
+
+		/**
+		 * 消费者在notEmpty上的等待时间(只统计需要等待的take)
+		 */
+		public MiniHistogram.Snapshot getNotEmptyWait() {
+			return notEmptyWait;
+		}
+
+		private static double rate(long n,long nanos){
+			return nanos <= 0L ? 0.0 : n * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + "/" + capacity
+					+ ", highWaterMark=" + highWaterMark
+					+ ", puts=" + puts + String.format(" (%.0f/s)",getPutRate())
+					+ ", takes=" + takes + String.format(" (%.0f/s)",getTakeRate())
+					+ "\n  notFull wait: " + notFullWait
+					+ "\n  notEmpty wait: " + notEmptyWait;
+		}
+	}
+}
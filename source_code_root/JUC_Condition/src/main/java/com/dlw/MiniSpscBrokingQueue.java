@@ -0,0 +1,257 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单生产者 单消费者 的无锁环形队列
+ *
+ * MiniArrayBrokingQueue每次put/take都要加锁、signal条件队列，
+ * 只有一个生产者、一个消费者时，这些开销都是可以省掉的：
+ * 1.tail只有生产者写，head只有消费者写，不需要cas，也不需要锁
+ * 2.发布用有序写(lazySet/putOrderedLong)：保证"先写元素、再更新tail"的顺序，但不需要StoreLoad屏障
+ * 3.生产者缓存head，消费者缓存tail，大部分时候不用去读对方的缓存行
+ *
+ * 注意：只能有一个线程put、一个线程take，多个生产者/消费者会丢数据。
+ *
+ * 队列满/空时不挂起线程等signal(没有锁也就没有条件队列)，而是按WaitStrategy退避：
+ * 默认SPIN_THEN_PARK，先自旋，再yield，最后parkNanos，每次挂起的时间翻倍，最多WaitStrategy.MAX_PARK_NANOS。
+ */
+public class MiniSpscBrokingQueue<T> extends MiniSpscPadding.Rhs implements BrokingQueue<T> {
+
+	private final Object[] buffer;
+
+	private final int mask;
+
+	private final int capacity;
+
+	private final WaitStrategy waitStrategy;
+
+	/**
+	 * @param capacity 容量，会向上取整成2的幂，取下标时用 & mask 代替取模
+	 */
+	public MiniSpscBrokingQueue(int capacity){
+		this(capacity,WaitStrategy.SPIN_THEN_PARK);
+	}
+
+	public MiniSpscBrokingQueue(int capacity,WaitStrategy waitStrategy){
+		if(capacity <= 0 || capacity > (1 << 30)){
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		if(waitStrategy == null){
+			throw new NullPointerException();
+		}
+		this.waitStrategy = waitStrategy;
+		int n = Integer.highestOneBit(capacity);
+		if(n < capacity){
+			n <<= 1;
+		}
+		this.capacity = n;
+		this.mask = n - 1;
+		this.buffer = new Object[n];
+	}
+
+	/**
+	 * 队列满了就返回false，不会等待
+	 */
+	public boolean offer(T element){
+		if(element == null){
+			throw new NullPointerException();
+		}
+		long t = tail;
+		if(t - headCache >= capacity){
+			headCache = head;
+			if(t - headCache >= capacity){
+				return false;
+			}
+		}
+		buffer[(int) t & mask] = element;
+		//有序写：消费者读到新的tail时，一定能读到上面写入的元素
+		unsafe.putOrderedLong(this,tailOffset,t + 1);
+		return true;
+	}
+
+	/**
+	 * 队列空了就返回null，不会等待
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll(){
+		long h = head;
+		if(h >= tailCache){
+			tailCache = tail;
+			if(h >= tailCache){
+				return null;
+			}
+		}
+		int i = (int) h & mask;
+		T element = (T) buffer[i];
+		buffer[i] = null;
+		//有序写：生产者读到新的head时，这个位置一定已经清空了
+		unsafe.putOrderedLong(this,headOffset,h + 1);
+		return element;
+	}
+
+	/**
+	 * 队列满了就退避等待，直到有空位
+	 */
+	@Override
+	public void put(T element) {
+		if(offer(element)){
+			return;
+		}
+		boolean interrupted = false;
+		for(int tries = 0; !offer(element); ){
+			if(waitStrategy.shouldPark(tries)){
+				interrupted |= park(waitStrategy.parkNanos(tries));
+				tries = WaitStrategy.next(tries);
+			}else {
+				tries = waitStrategy.idle(tries);
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 队列空了就退避等待，直到有数据
+	 */
+	@Override
+	public T take() {
+		T element = poll();
+		if(element != null){
+			return element;
+		}
+		boolean interrupted = false;
+		for(int tries = 0; (element = poll()) == null; ){
+			if(waitStrategy.shouldPark(tries)){
+				interrupted |= park(waitStrategy.parkNanos(tries));
+				tries = WaitStrategy.next(tries);
+			}else {
+				tries = waitStrategy.idle(tries);
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		return element;
+	}
+
+	@Override
+	public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		if(offer(element)){
+			return true;
+		}
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(int tries = 0; !offer(element); ){
+			tries = awaitNanos(waitStrategy,tries,deadline);
+			if(tries < 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		T element = poll();
+		if(element != null){
+			return element;
+		}
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(int tries = 0; (element = poll()) == null; ){
+			tries = awaitNanos(waitStrategy,tries,deadline);
+			if(tries < 0){
+				return null;
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * 逐个poll，直到队列空了或者取够maxElements个，不等待
+	 * 阻塞的takeBatch用BrokingQueue的默认实现：先take一个，再drainTo
+	 */
+	@Override
+	public int drainTo(Collection<? super T> c, int maxElements) {
+		int n = 0;
+		T element;
+		while (n < maxElements && (element = poll()) != null){
+			c.add(element);
+			n++;
+		}
+		return n;
+	}
+
+	public int size(){
+		//先读head再读tail，tail只会变大，结果不会是负数
+		long h = head;
+		long t = tail;
+		return (int) Math.min(t - h,capacity);
+	}
+
+	public int capacity(){
+		return capacity;
+	}
+
+	/**
+	 * WaitStrategy到了挂起阶段，挂起nanos
+	 * put/take不能抛出InterruptedException，中断标记先清掉(否则parkNanos会立即返回，变成空转)，返回之前再补回去
+	 * @return 等待期间是否被中断
+	 */
+	static boolean park(long nanos){
+		LockSupport.parkNanos(nanos);
+		return Thread.interrupted();
+	}
+
+	/**
+	 * 限时等待的一次退避：按strategy空转/yield，或者挂起(不超过strategy.parkNanos(tries)，也不超过剩余时间)
+	 * @return 新的tries；已经超时返回-1
+	 * @throws InterruptedException 被中断
+	 */
+	static int awaitNanos(WaitStrategy strategy,int tries,long deadline) throws InterruptedException {
+		long nanos = deadline - System.nanoTime();
+		if(nanos <= 0L){
+			return -1;
+		}
+		if(strategy.shouldPark(tries)){
+			LockSupport.parkNanos(Math.min(nanos,strategy.parkNanos(tries)));
+			tries = WaitStrategy.next(tries);
+		}else {
+			tries = strategy.idle(tries);
+		}
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		return tries;
+	}
+
+	private static final Unsafe unsafe;
+	private static final long tailOffset;
+	private static final long headOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			tailOffset = unsafe.objectFieldOffset
+					(MiniSpscPadding.Producer.class.getDeclaredField("tail"));
+			headOffset = unsafe.objectFieldOffset
+					(MiniSpscPadding.Consumer.class.getDeclaredField("head"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+}
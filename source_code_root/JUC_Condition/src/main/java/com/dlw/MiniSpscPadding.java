@@ -0,0 +1,55 @@
+package com.dlw;
+
+/**
+ * MiniSpscBrokingQueue的字段布局
+ *
+ * 为什么要有下面这几个padding类？
+ * 生产者只写tail，消费者只写head，如果它们在同一个缓存行上，
+ * 每次put都会让消费者缓存的head失效，每次take也会让生产者缓存的tail失效(伪共享)。
+ * 和MiniLockPadding一样，用继承保证字段的先后顺序：
+ * 	[padding] [tail、headCache] [padding] [head、tailCache] [padding] [buffer ...]
+ * 写成嵌套类的原因也和MiniLockPadding一样。
+ */
+final class MiniSpscPadding {
+
+	private MiniSpscPadding() {
+	}
+
+	abstract static class Lhs {
+		int p00;
+		long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+	}
+
+	abstract static class Producer extends Lhs {
+		/**
+		 * 生产者下一次写入的位置，只有生产者会写
+		 */
+		volatile long tail;
+
+		/**
+		 * 生产者缓存的head
+		 * 只有缓存的值显示队列满了，才去读一次真正的head(会发生缓存行的传输)
+		 */
+		long headCache;
+	}
+
+	abstract static class Mid extends Producer {
+		long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+	}
+
+	abstract static class Consumer extends Mid {
+		/**
+		 * 消费者下一次读取的位置，只有消费者会写
+		 */
+		volatile long head;
+
+		/**
+		 * 消费者缓存的tail，只有缓存的值显示队列空了，才去读一次真正的tail
+		 */
+		long tailCache;
+	}
+
+	abstract static class Rhs extends Consumer {
+		long p31, p32, p33, p34, p35, p36, p37, p38, p39, p40, p41, p42, p43, p44, p45;
+	}
+}
@@ -0,0 +1,380 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 没有缓冲的队列(参考SynchronousQueue的公平模式)：每个put都要等到一个take来取，每个take都要等到一个put
+ *
+ * 容量为0的MiniArrayBrokingQueue没法表达"直接交接"，这里用无锁的双重队列(dual queue)实现：
+ * 队列里的节点要么都是数据节点(等待消费者的生产者)，要么都是请求节点(等待生产者的消费者)。
+ * 1.来了一个和队尾同类型的操作(或者队列为空)：追加一个节点，按WaitStrategy空转/yield，再park等待配对
+ * 2.来了一个互补的操作：cas队头节点的item完成配对(数据节点item改成null，请求节点item改成元素)，
+ * 		出队并unpark等待的线程
+ * 节点按FIFO配对，先等的先配对，等待时间是可预期的。
+ *
+ * 取消(超时或者中断)：把节点的item cas成节点自己，再把它从链表中摘掉(clean)。
+ *
+ * put/take不能抛出InterruptedException，等待时不响应中断，中断标记会保留下来；
+ * 限时的offer/poll响应中断，超时或者被中断时取消等待。
+ */
+public class MiniSynchronousBrokingQueue<T> implements TransferBrokingQueue<T> {
+
+	/**
+	 * 剩余时间比这个还短就不parkNanos了，自旋更准
+	 */
+	static final long SPIN_FOR_TIMEOUT_THRESHOLD = 1000L;
+
+	static final class QNode{
+		volatile QNode next;
+		/**
+		 * 数据节点：元素，被消费者取走后变成null
+		 * 请求节点：null，被生产者配对后变成元素
+		 * 取消：节点自己
+		 */
+		volatile Object item;
+		volatile Thread waiter;
+		final boolean isData;
+
+		QNode(Object item,boolean isData) {
+			this.item = item;
+			this.isData = isData;
+		}
+
+		boolean casNext(QNode cmp,QNode val){
+			return next == cmp && unsafe.compareAndSwapObject(this,nextOffset,cmp,val);
+		}
+
+		boolean casItem(Object cmp,Object val){
+			return item == cmp && unsafe.compareAndSwapObject(this,itemOffset,cmp,val);
+		}
+
+		void tryCancel(Object cmp){
+			unsafe.compareAndSwapObject(this,itemOffset,cmp,this);
+		}
+
+		boolean isCancelled(){
+			return item == this;
+		}
+
+		/**
+		 * 出队的节点next指向自己
+		 */
+		boolean isOffList(){
+			return next == this;
+		}
+	}
+
+	/**
+	 * head是哑节点，head.next才是第一个等待的节点
+	 */
+	private volatile QNode head;
+	private volatile QNode tail;
+
+	/**
+	 * 被取消的节点恰好是队尾时不能直接摘掉(会和并发的追加冲突)，先记下它的前驱，下一次clean时再摘
+	 */
+	private volatile QNode cleanMe;
+
+	/**
+	 * 等待配对时怎么等：默认SPIN_THEN_PARK
+	 * 请求/响应流水线上对方通常很快就来，先空转/yield可以省掉一次park/unpark；
+	 * 单核机器上空转没有意义，yield把cpu让给对方，往往yield回来就已经配对了
+	 */
+	private final WaitStrategy waitStrategy;
+
+	public MiniSynchronousBrokingQueue(){
+		this(WaitStrategy.SPIN_THEN_PARK);
+	}
+
+	public MiniSynchronousBrokingQueue(WaitStrategy waitStrategy){
+		if(waitStrategy == null){
+			throw new NullPointerException();
+		}
+		this.waitStrategy = waitStrategy;
+		QNode h = new QNode(null,false);
+		head = h;
+		tail = h;
+	}
+
+	@Override
+	public void put(T element) {
+		if(element == null){
+			throw new NullPointerException();
+		}
+		transfer(element,false,0L);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T take() {
+		return (T) transfer(null,false,0L);
+	}
+
+	/**
+	 * 没有缓冲，put返回时元素已经被消费者取走了
+	 */
+	@Override
+	public void transfer(T element) {
+		put(element);
+	}
+
+	/**
+	 * 只有正好有消费者在等待时才能成功，不会等待
+	 */
+	public boolean offer(T element){
+		if(element == null){
+			throw new NullPointerException();
+		}
+		return transfer(element,true,0L) != null;
+	}
+
+	/**
+	 * 只有正好有生产者在等待时才能取到元素，不会等待
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll(){
+		return (T) transfer(null,true,0L);
+	}
+
+	@Override
+	public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+		if(element == null){
+			throw new NullPointerException();
+		}
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		Object x = transfer(element,true,unit.toNanos(timeout));
+		if(x == INTERRUPTED){
+			throw new InterruptedException();
+		}
+		return x != null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		Object x = transfer(null,true,unit.toNanos(timeout));
+		if(x == INTERRUPTED){
+			throw new InterruptedException();
+		}
+		return (T) x;
+	}
+
+	/**
+	 * 限时的等待被中断、取消了
+	 */
+	private static final Object INTERRUPTED = new Object();
+
+	/**
+	 * 放入或者取出一个元素
+	 * @param e 不为null：生产者放入e；null：消费者取出一个元素
+	 * @param timed true：offer/poll，最多等待nanos，响应中断；false：put/take，一直等到配对，不响应中断
+	 * @return 配对成功：生产者返回e，消费者返回取到的元素；超时返回null；被中断返回INTERRUPTED
+	 */
+	private Object transfer(Object e,boolean timed,long nanos){
+		QNode s = null;
+		boolean isData = e != null;
+		for(;;){
+			QNode t = tail;
+			QNode h = head;
+			if(h == t || t.isData == isData){
+				//队列为空 或者 队尾和自己是同一种操作：追加节点，等待配对
+				QNode tn = t.next;
+				if(t != tail){
+					continue;
+				}
+				if(tn != null){
+					//别的线程追加了节点还没来得及更新tail，帮它更新
+					advanceTail(t,tn);
+					continue;
+				}
+				if(timed && nanos <= 0L){
+					return null;
+				}
+				if(s == null){
+					s = new QNode(e,isData);
+				}
+				if(!t.casNext(null,s)){
+					continue;
+				}
+				advanceTail(t,s);
+				Object x = awaitFulfill(s,e,timed,nanos);
+				if(x == s){
+					//取消了(超时或者被中断)，只有限时的等待会取消
+					clean(t,s);
+					return Thread.interrupted() ? INTERRUPTED : null;
+				}
+				if(!s.isOffList()){
+					//配对的线程还没把s出队，帮它出队
+					advanceHead(t,s);
+					if(x != null){
+						s.item = s;
+					}
+					s.waiter = null;
+				}
+				return x != null ? x : e;
+			}else {
+				//和队头互补：配对
+				QNode m = h.next;
+				if(t != tail || m == null || h != head){
+					continue;
+				}
+				Object x = m.item;
+				if(isData == (x != null) || x == m || !m.casItem(x,e)){
+					//m已经被配对了 或者 取消了，出队之后重试
+					advanceHead(h,m);
+					continue;
+				}
+				advanceHead(h,m);
+				LockSupport.unpark(m.waiter);
+				return x != null ? x : e;
+			}
+		}
+	}
+
+	/**
+	 * 自旋/park，直到s被配对或者取消
+	 * 不限时的等待被中断时先清掉中断标记(否则park会立即返回，变成空转)，配对之后再补回去
+	 * @return 配对后的item；取消时返回s
+	 */
+	private Object awaitFulfill(QNode s,Object e,boolean timed,long nanos){
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		Thread w = Thread.currentThread();
+		boolean interrupted = false;
+		int tries = 0;
+		for(;;){
+			if(w.isInterrupted()){
+				if(timed){
+					s.tryCancel(e);
+				}else {
+					Thread.interrupted();
+					interrupted = true;
+				}
+			}
+			Object x = s.item;
+			if(x != e){
+				if(interrupted){
+					w.interrupt();
+				}
+				return x;
+			}
+			if(timed){
+				nanos = deadline - System.nanoTime();
+				if(nanos <= 0L){
+					s.tryCancel(e);
+					continue;
+				}
+			}
+			if(!waitStrategy.shouldPark(tries)){
+				tries = waitStrategy.idle(tries);
+			}else if(s.waiter == null){
+				//先登记waiter再检查一次item，配对的线程看到waiter才会unpark
+				s.waiter = w;
+			}else if(!timed){
+				LockSupport.park(this);
+			}else if(nanos > SPIN_FOR_TIMEOUT_THRESHOLD){
+				LockSupport.parkNanos(this,nanos);
+			}
+		}
+	}
+
+	/**
+	 * 把被取消的节点s从链表中摘掉，pred是s入队时的前驱
+	 */
+	private void clean(QNode pred,QNode s){
+		s.waiter = null;
+		while (pred.next == s){
+			QNode h = head;
+			QNode hn = h.next;
+			if(hn != null && hn.isCancelled()){
+				//第一个节点被取消了，直接让它成为新的哑节点
+				advanceHead(h,hn);
+				continue;
+			}
+			QNode t = tail;
+			if(t == h){
+				return;
+			}
+			QNode tn = t.next;
+			if(t != tail){
+				continue;
+			}
+			if(tn != null){
+				advanceTail(t,tn);
+				continue;
+			}
+			if(s != t){
+				//s不是队尾，可以直接摘掉
+				QNode sn = s.next;
+				if(sn == s || pred.casNext(s,sn)){
+					return;
+				}
+			}
+			//s是队尾：先摘掉上一次记下来的节点，再把s的前驱记下来
+			QNode dp = cleanMe;
+			if(dp != null){
+				QNode d = dp.next;
+				QNode dn;
+				if(d == null || d == dp || !d.isCancelled()
+						|| (d != t && (dn = d.next) != null && dn != d && dp.casNext(d,dn))){
+					casCleanMe(dp,null);
+				}
+				if(dp == pred){
+					return;
+				}
+			}else if(casCleanMe(null,pred)){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 出队：nh成为新的哑节点，旧的哑节点next指向自己(isOffList)，帮助GC
+	 */
+	private void advanceHead(QNode h,QNode nh){
+		if(h == head && unsafe.compareAndSwapObject(this,headOffset,h,nh)){
+			unsafe.putOrderedObject(h,nextOffset,h);
+		}
+	}
+
+	private void advanceTail(QNode t,QNode nt){
+		if(tail == t){
+			unsafe.compareAndSwapObject(this,tailOffset,t,nt);
+		}
+	}
+
+	private boolean casCleanMe(QNode cmp,QNode val){
+		return cleanMe == cmp && unsafe.compareAndSwapObject(this,cleanMeOffset,cmp,val);
+	}
+
+	private static final Unsafe unsafe;
+	private static final long headOffset;
+	private static final long tailOffset;
+	private static final long cleanMeOffset;
+	private static final long nextOffset;
+	private static final long itemOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			headOffset = unsafe.objectFieldOffset(MiniSynchronousBrokingQueue.class.getDeclaredField("head"));
+			tailOffset = unsafe.objectFieldOffset(MiniSynchronousBrokingQueue.class.getDeclaredField("tail"));
+			cleanMeOffset = unsafe.objectFieldOffset(MiniSynchronousBrokingQueue.class.getDeclaredField("cleanMe"));
+			nextOffset = unsafe.objectFieldOffset(QNode.class.getDeclaredField("next"));
+			itemOffset = unsafe.objectFieldOffset(QNode.class.getDeclaredField("item"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+}
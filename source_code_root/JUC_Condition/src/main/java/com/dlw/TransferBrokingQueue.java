@@ -0,0 +1,16 @@
+package com.dlw;
+
+/**
+ * 支持transfer的BrokingQueue(参考TransferQueue)
+ *
+ * put只保证元素进了队列；transfer要等到元素被某个消费者取走才返回，
+ * 生产者可以用它做"请求已经被处理方接收"的确认，或者限制自己不要跑得比消费者快太多。
+ */
+public interface TransferBrokingQueue<T> extends BrokingQueue<T> {
+
+	/**
+	 * 插入元素(队列满了就等待)，然后等到这个元素被消费者取走
+	 * 和put一样不能抛出InterruptedException，等待时不响应中断，中断标记会保留下来
+	 */
+	void transfer(T element);
+}
@@ -0,0 +1,127 @@
+package com.dlw;
+
+/**
+ * 队列满/空时，等待的线程怎么等
+ *
+ * 前spins次空转，接下来yields次Thread.yield()，再之后挂起：
+ * 1.BUSY_SPIN：一直空转，延迟最低，但一直占着一个cpu核，适合绑核的延迟敏感的消费者
+ * 2.YIELD：一直yield，比空转友好一点，cpu还是会被占满
+ * 3.SPIN_THEN_PARK：先空转、再yield，等了一会儿还不行再挂起，兼顾延迟和cpu
+ * 4.PARK：直接挂起，唤醒延迟最高，适合批处理的消费者
+ *
+ * 挂起的方式由队列决定：
+ * 1.基于锁的队列在条件队列上await，等signal，挂起期间不占cpu
+ * 2.无锁队列没有条件队列，没有人来唤醒，只能parkNanos一段时间再重新检查：
+ * 		每次挂起的时间从MIN_PARK_NANOS开始翻倍，最多MAX_PARK_NANOS(指数退避)，
+ * 		一直空着的队列，等待的线程每秒醒来大约1000次，代价是空闲之后的第一个元素最多晚MAX_PARK_NANOS才被取走
+ *
+ * 用法(调用者在一个循环里重新检查条件)：
+ * 	int tries = 0;
+ * 	while (条件不满足){
+ * 		if(strategy.shouldPark(tries)){ 挂起 }else { tries = strategy.idle(tries); }
+ * 	}
+ * 无锁队列挂起的时间是parkNanos(tries)，挂起之后tries = next(tries)，下一次挂起的时间翻倍
+ */
+public final class WaitStrategy {
+
+	/**
+	 * spins或者yields等于它表示不限次数：一直停在这个阶段，永远不会挂起
+	 * tries到Integer.MAX_VALUE就不再增加了，不能靠tries去数满它
+	 */
+	static final int FOREVER = Integer.MAX_VALUE;
+
+	/**
+	 * 无锁队列第一次挂起的时间
+	 */
+	static final long MIN_PARK_NANOS = 1000L;
+
+	/**
+	 * 无锁队列每次挂起的时间上限
+	 */
+	static final long MAX_PARK_NANOS = 1000_000L;
+
+	public static final WaitStrategy BUSY_SPIN = new WaitStrategy(FOREVER,0);
+
+	public static final WaitStrategy YIELD = new WaitStrategy(0,FOREVER);
+
+	public static final WaitStrategy SPIN_THEN_PARK = new WaitStrategy(100,100);
+
+	public static final WaitStrategy PARK = new WaitStrategy(0,0);
+
+	private final int spins;
+
+	private final int yields;
+
+	private WaitStrategy(int spins,int yields) {
+		this.spins = spins;
+		this.yields = yields;
+	}
+
+	/**
+	 * 自定义：先空转spins次，再yield yields次，然后挂起
+	 * spins或者yields传Integer.MAX_VALUE表示不限次数(和BUSY_SPIN、YIELD一样不挂起)
+	 */
+	public static WaitStrategy spinThenPark(int spins,int yields){
+		if(spins < 0 || yields < 0){
+			throw new IllegalArgumentException();
+		}
+		return new WaitStrategy(spins,yields);
+	}
+
+	/**
+	 * 已经等了tries次，是不是该挂起了
+	 * BUSY_SPIN、YIELD(不限次数的阶段)永远返回false
+	 */
+	public boolean shouldPark(int tries){
+		if(spins == FOREVER || yields == FOREVER){
+			return false;
+		}
+		return (long) tries >= (long) spins + yields;
+	}
+
+	/**
+	 * 不挂起地等一次：空转阶段什么都不做(调用者马上重新检查)，yield阶段让出cpu
+	 * BUSY_SPIN一直空转，不会因为tries不再增加而进入yield阶段
+	 * @return tries + 1，到Integer.MAX_VALUE就不再增加
+	 */
+	public int idle(int tries){
+		if(spins != FOREVER && tries >= spins){
+			Thread.yield();
+		}
+		return next(tries);
+	}
+
+	/**
+	 * 无锁队列在挂起阶段每次parkNanos多久：挂起阶段的第一次是MIN_PARK_NANOS，之后每次翻倍，最多MAX_PARK_NANOS
+	 * @param tries 已经等了tries次，挂起也算一次
+	 */
+	long parkNanos(int tries){
+		long parks = (long) tries - spins - yields;
+		if(parks <= 0L){
+			return MIN_PARK_NANOS;
+		}
+		//MIN_PARK_NANOS << 10已经超过上限，parks很大时再左移会溢出
+		return parks >= 10L ? MAX_PARK_NANOS : Math.min(MIN_PARK_NANOS << parks,MAX_PARK_NANOS);
+	}
+
+	/**
+	 * @return tries + 1，到Integer.MAX_VALUE就不再增加
+	 */
+	static int next(int tries){
+		return tries == Integer.MAX_VALUE ? tries : tries + 1;
+	}
+
+	@Override
+	public String toString() {
+		if(this == BUSY_SPIN){
+			return "BUSY_SPIN";
+		}
+		if(this == YIELD){
+			return "YIELD";
+		}
+		if(this == PARK){
+			return "PARK";
+		}
+		return "SPIN_THEN_PARK(" + spins + "," + yields + ")";
+	}
+}
@@ -0,0 +1,67 @@
+package com.dlw;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 几个队列基准测试共用的部分
+ *
+ * 1.轮次：没有引入JMH，同一组场景连续跑ROUNDS轮，第一轮当作预热(JIT编译、类加载、堆扩展大多发生在这一轮)，
+ * 		只看后面几轮的结果
+ * 2.把JDK的阻塞队列包装成BrokingQueue，作为对照组跑同一套生产者/消费者代码
+ */
+final class BenchmarkSupport {
+
+	static final int ROUNDS = 3;
+
+	interface Round{
+		void run() throws Exception;
+	}
+
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * 把round连续跑ROUNDS遍
+	 */
+	static void rounds(Round round) throws Exception {
+		for(int i = 0; i < ROUNDS; i++){
+			round.run();
+		}
+	}
+
+	/**
+	 * put/take被中断时转成IllegalStateException(基准测试里不会中断)
+	 */
+	static <T> BrokingQueue<T> jdkQueue(final BlockingQueue<T> queue){
+		return new BrokingQueue<T>() {
+			@Override
+			public void put(T element) {
+				try{
+					queue.put(element);
+				}catch (InterruptedException e){
+					throw new IllegalStateException(e);
+				}
+			}
+
+			@Override
+			public T take() {
+				try{
+					return queue.take();
+				}catch (InterruptedException e){
+					throw new IllegalStateException(e);
+				}
+			}
+
+			@Override
+			public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+				return queue.offer(element,timeout,unit);
+			}
+
+			@Override
+			public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+				return queue.poll(timeout,unit);
+			}
+		};
+	}
+}
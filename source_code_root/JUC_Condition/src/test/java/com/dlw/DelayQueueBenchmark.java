@@ -0,0 +1,125 @@
+package com.dlw;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 基于RBTree的优先级/延迟队列 和 JDK的PriorityBlockingQueue/DelayQueue(二叉堆)的对比
+ *
+ * 1.优先级：producers个生产者put随机优先级的元素，consumers个消费者take，统计吞吐量
+ * 2.延迟：producers个生产者put到期时间在[0, maxDelay)内随机的任务，consumers个消费者take，
+ * 		统计吞吐量，以及任务被取出的时间比到期时间晚了多少(直方图)
+ * 延迟场景的吞吐量上限取决于maxDelay：消费者取得再快也要等元素到期，这时主要看lateness，
+ * 它反映的是leader-follower唤醒得准不准，而不是红黑树和二叉堆谁快。
+ *
+ * 用法：java com.dlw.DelayQueueBenchmark [每轮元素个数，默认200万] [最大延迟毫秒数，默认5]
+ */
+public class DelayQueueBenchmark {
+
+	static final class Task implements Delayed{
+		final long deadline;
+
+		Task(long delayNanos) {
+			this.deadline = System.nanoTime() + delayNanos;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - System.nanoTime(),TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(deadline,((Task) o).deadline);
+		}
+	}
+
+	interface Producer<T>{
+		T next(ThreadLocalRandom random);
+	}
+
+	public static void main(String[] args) throws Exception {
+		final long total = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000L;
+		final long maxDelay = TimeUnit.MILLISECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 5L);
+
+		System.out.println("cpu核数：" + Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-28s %6s %14s%n","queue","p/c","ops/s");
+		Producer<Long> priorities = random -> random.nextLong();
+		for(final int[] shape : new int[][]{{1,1},{4,4}}){
+			BenchmarkSupport.rounds(() -> {
+				run("MiniPriorityBrokingQueue",MiniPriorityBrokingQueue<Long>::new,priorities,shape[0],shape[1],total,null);
+				run("PriorityBlockingQueue",() -> BenchmarkSupport.jdkQueue(new PriorityBlockingQueue<Long>()),
+						priorities,shape[0],shape[1],total,null);
+			});
+			System.out.println();
+		}
+
+		Producer<Task> tasks = random -> new Task(random.nextLong(maxDelay));
+		for(final int[] shape : new int[][]{{1,1},{4,4}}){
+			BenchmarkSupport.rounds(() -> {
+				MiniHistogram lateness = new MiniHistogram();
+				run("MiniDelayBrokingQueue",MiniDelayBrokingQueue<Task>::new,tasks,shape[0],shape[1],total,lateness);
+				System.out.println("    lateness: " + lateness.snapshot());
+				lateness = new MiniHistogram();
+				run("DelayQueue",() -> BenchmarkSupport.jdkQueue(new DelayQueue<Task>()),tasks,shape[0],shape[1],total,lateness);
+				System.out.println("    lateness: " + lateness.snapshot());
+			});
+			System.out.println();
+		}
+	}
+
+	/**
+	 * @param lateness 不为null时，元素是Task，记录取出时间比到期时间晚了多少
+	 */
+	static <T> void run(String name,Supplier<BrokingQueue<T>> factory,final Producer<T> producer,int producers,int consumers,
+						long total,final MiniHistogram lateness) throws InterruptedException {
+		final BrokingQueue<T> queue = factory.get();
+		final long perProducer = total / producers;
+		final long count = perProducer * producers;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(producers + consumers);
+		for(int p = 0; p < producers; p++){
+			new Thread(() -> {
+				try{
+					start.await();
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for(long i = 0; i < perProducer; i++){
+						queue.put(producer.next(random));
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		for(int c = 0; c < consumers; c++){
+			final long share = count / consumers + (c < count % consumers ? 1 : 0);
+			new Thread(() -> {
+				try{
+					start.await();
+					for(long i = 0; i < share; i++){
+						T element = queue.take();
+						if(lateness != null){
+							lateness.record(System.nanoTime() - ((Task) element).deadline);
+						}
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		System.out.printf("%-28s %6s %14.0f%n",name,producers + "/" + consumers,count * 1e9 / elapsed);
+	}
+}
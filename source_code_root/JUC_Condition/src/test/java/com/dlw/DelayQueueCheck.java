@@ -0,0 +1,203 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MiniDelayBrokingQueue的到期检查
+ *
+ * 1.提前交付：多个消费者take，取到的元素必须已经到期(取到时的nanoTime不早于到期时间)
+ * 2.leader被抢占：leader在等一个很晚到期的元素，放入一个更早到期的元素后要按新的到期时间返回，不能等到原来的时间
+ * 3.限时poll：最早的元素没到期时poll超时返回null，到期后poll取到它
+ * 4.drainTo只取已经到期的元素，到期时间相同的元素先进先出
+ * 5.take不响应中断，中断标记保留
+ * 6.drainTo/takeBatch的目标集合add抛出异常：已经交出去的元素被取走，没交出去的还在队列里
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.DelayQueueCheck
+ */
+public class DelayQueueCheck {
+
+	static final class Task implements Delayed{
+		final long deadline;
+		final int id;
+
+		Task(long deadline,int id) {
+			this.deadline = deadline;
+			this.id = id;
+		}
+
+		static Task after(long delayNanos,int id){
+			return new Task(System.nanoTime() + delayNanos,id);
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - System.nanoTime(),TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(deadline,((Task) o).deadline);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		noEarlyDelivery(4,20_000);
+		leaderPreempted();
+		timedPoll();
+		drainExpiredOnly();
+		takeKeepsInterrupt();
+		failingDrain();
+		System.out.println("all checks passed");
+	}
+
+	static void noEarlyDelivery(int consumers,final int n) throws InterruptedException {
+		final MiniDelayBrokingQueue<Task> queue = new MiniDelayBrokingQueue<Task>();
+		final AtomicInteger taken = new AtomicInteger();
+		final AtomicLong early = new AtomicLong();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int c = 0; c < consumers; c++){
+			threads.add(new Thread(() -> {
+				while (true){
+					Task task = queue.take();
+					if(task.id < 0){
+						return;
+					}
+					if(System.nanoTime() < task.deadline){
+						early.incrementAndGet();
+					}
+					taken.incrementAndGet();
+				}
+			}));
+		}
+		for(Thread t : threads){
+			t.start();
+		}
+		Random random = new Random(1);
+		for(int i = 0; i < n; i++){
+			queue.put(Task.after(random.nextInt(20_000_000),i));
+		}
+		while (taken.get() < n){
+			Thread.sleep(5);
+		}
+		//id为负数的元素让消费者退出
+		for(int c = 0; c < consumers; c++){
+			queue.put(Task.after(0,-1));
+		}
+		for(Thread t : threads){
+			t.join();
+		}
+		check(early.get() == 0,early.get() + " elements delivered before their deadline");
+		System.out.println("no early delivery ok, " + n + " elements");
+	}
+
+	static void leaderPreempted() throws InterruptedException {
+		final MiniDelayBrokingQueue<Task> queue = new MiniDelayBrokingQueue<Task>();
+		queue.put(Task.after(TimeUnit.SECONDS.toNanos(5),1));
+		final Task[] got = new Task[1];
+		final long[] waited = new long[1];
+		Thread consumer = new Thread(() -> {
+			long begin = System.nanoTime();
+			got[0] = queue.take();
+			waited[0] = System.nanoTime() - begin;
+		});
+		consumer.start();
+		Thread.sleep(30);
+		queue.put(Task.after(TimeUnit.MILLISECONDS.toNanos(50),2));
+		consumer.join();
+		check(got[0].id == 2,"leader took " + got[0].id + " instead of the earlier element");
+		check(waited[0] < TimeUnit.SECONDS.toNanos(2),"leader kept waiting for the old deadline");
+		System.out.println("leader preempted ok, waited " + TimeUnit.NANOSECONDS.toMillis(waited[0]) + "ms");
+	}
+
+	static void timedPoll() throws InterruptedException {
+		MiniDelayBrokingQueue<Task> queue = new MiniDelayBrokingQueue<Task>();
+		queue.put(Task.after(TimeUnit.SECONDS.toNanos(5),1));
+		check(queue.poll(50,TimeUnit.MILLISECONDS) == null,"poll returned an element that is not due");
+		Task due = Task.after(TimeUnit.MILLISECONDS.toNanos(30),2);
+		queue.put(due);
+		Task got = queue.poll(1,TimeUnit.SECONDS);
+		check(got == due,"poll should return the element once it is due");
+		check(System.nanoTime() >= due.deadline,"poll returned the element early");
+		System.out.println("timed poll ok");
+	}
+
+	static void drainExpiredOnly(){
+		MiniDelayBrokingQueue<Task> queue = new MiniDelayBrokingQueue<Task>();
+		long deadline = System.nanoTime();
+		for(int i = 0; i < 5; i++){
+			queue.put(new Task(deadline,i));
+		}
+		queue.put(Task.after(TimeUnit.SECONDS.toNanos(10),99));
+		List<Task> out = new ArrayList<Task>();
+		int n = queue.drainTo(out,100);
+		check(n == 5,"drained " + n + " elements, expected the 5 expired ones");
+		for(int i = 0; i < 5; i++){
+			check(out.get(i).id == i,"equal deadlines should be drained in insertion order");
+		}
+		System.out.println("drain expired only ok");
+	}
+
+	static void takeKeepsInterrupt(){
+		MiniDelayBrokingQueue<Task> queue = new MiniDelayBrokingQueue<Task>();
+		queue.put(Task.after(TimeUnit.MILLISECONDS.toNanos(40),1));
+		Thread.currentThread().interrupt();
+		Task got = queue.take();
+		check(Thread.interrupted(),"take should keep the interrupt flag");
+		check(System.nanoTime() >= got.deadline,"interrupted take returned the element early");
+		System.out.println("take keeps interrupt ok");
+	}
+
+	static void failingDrain(){
+		MiniDelayBrokingQueue<Task> queue = new MiniDelayBrokingQueue<Task>();
+		long deadline = System.nanoTime();
+		for(int i = 0; i < 10; i++){
+			queue.put(new Task(deadline,i));
+		}
+		List<Task> out = new ArrayList<Task>();
+		try{
+			queue.drainTo(failAfter(out,3),100);
+			throw new IllegalStateException("drainTo should propagate the exception from add");
+		}catch (IllegalArgumentException expected){
+			//目标集合满了
+		}
+		check(out.size() == 3 && queue.size() == 7,"after a failing drainTo: drained " + out.size() + ", left " + queue.size());
+		try{
+			queue.takeBatch(failAfter(out,3),100);
+			throw new IllegalStateException("takeBatch should propagate the exception from add");
+		}catch (IllegalArgumentException expected){
+			//目标集合满了
+		}
+		check(queue.size() == 7,"takeBatch dropped an element: left " + queue.size());
+		Task first = queue.take();
+		check(first.id == 3 || first.id == 4,"unexpected element after a failing takeBatch: " + first.id);
+		System.out.println("failing drain ok");
+	}
+
+	/**
+	 * 往out里add，out里已经有limit个元素时抛出IllegalArgumentException
+	 */
+	static List<Task> failAfter(final List<Task> out,final int limit){
+		return new ArrayList<Task>(){
+			@Override
+			public boolean add(Task task) {
+				if(out.size() >= limit){
+					throw new IllegalArgumentException("full");
+				}
+				return out.add(task);
+			}
+		};
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.dlw;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.function.Supplier;
+
+/**
+ * 请求/响应流水线上直接交接(没有缓冲)的延迟对比
+ *
+ * 一个客户端线程、一个服务端线程，两个队列：客户端把请求放进requests，等服务端从responses回一个响应，
+ * 记录每一次往返的时间(直方图)，以及每秒多少次往返。
+ * 1.MiniSynchronousBrokingQueue 对比 JDK的SynchronousQueue(公平模式)
+ * 2.容量为1的MiniArrayBrokingQueue
+ * 3.有缓冲的MiniArrayBrokingQueue，请求用transfer放入(等到服务端取走才返回)
+ * 每次往返包括两次交接(请求、响应)，所以它放大的是交接本身的延迟：等待方是空转着、yield着还是已经park了，
+ * 差别会直接体现在往返时间上。
+ *
+ * 用法：java com.dlw.HandoffBenchmark [每轮往返次数，默认100万] [容量，默认1024]
+ */
+public class HandoffBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final long total = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000L;
+		final int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+		System.out.println("cpu核数：" + Runtime.getRuntime().availableProcessors() + "，容量：" + capacity);
+		System.out.printf("%-36s %14s%n","queue","round trips/s");
+		BenchmarkSupport.rounds(() -> {
+			run("MiniSynchronousBrokingQueue",MiniSynchronousBrokingQueue<Long>::new,false,total);
+			run("SynchronousQueue(fair)",() -> BenchmarkSupport.jdkQueue(new SynchronousQueue<Long>(true)),false,total);
+			run("MiniArrayBrokingQueue(1)",() -> new MiniArrayBrokingQueue<Long>(1),false,total);
+			run("MiniArrayBrokingQueue(" + capacity + ").transfer",
+					() -> new MiniArrayBrokingQueue<Long>(capacity),true,total);
+			System.out.println();
+		});
+	}
+
+	/**
+	 * @param transfer true：请求用transfer放入(requests必须是TransferBrokingQueue)
+	 */
+	static void run(String name,Supplier<BrokingQueue<Long>> factory,boolean transfer,final long total) throws InterruptedException {
+		final BrokingQueue<Long> requests = factory.get();
+		final BrokingQueue<Long> responses = factory.get();
+		Thread server = new Thread(() -> {
+			for(long i = 0; i < total; i++){
+				responses.put(requests.take() + 1);
+			}
+		});
+		server.start();
+
+		MiniHistogram latency = new MiniHistogram();
+		long sum = 0;
+		long begin = System.nanoTime();
+		for(long i = 0; i < total; i++){
+			long start = System.nanoTime();
+			if(transfer){
+				((TransferBrokingQueue<Long>) requests).transfer(i);
+			}else {
+				requests.put(i);
+			}
+			sum += responses.take();
+			latency.record(System.nanoTime() - start);
+		}
+		long elapsed = System.nanoTime() - begin;
+		server.join();
+		if(sum != total * (total + 1) / 2){
+			throw new IllegalStateException(name + " 响应校验失败：" + sum);
+		}
+		System.out.printf("%-36s %14.0f%n",name,total * 1e9 / elapsed);
+		System.out.println("    latency: " + latency.snapshot());
+	}
+}
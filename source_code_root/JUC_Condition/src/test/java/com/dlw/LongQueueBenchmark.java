@@ -0,0 +1,110 @@
+package com.dlw;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * long队列(不装箱) 和 MiniArrayBrokingQueue(Long对象) 的对比
+ *
+ * 一个生产者、一个消费者传递n个long(值都大于127，Long.valueOf没有缓存，每个元素都会分配一个对象)，统计：
+ * 1.吞吐量
+ * 2.生产者、消费者两个线程一共分配了多少字节(HotSpot的com.sun.management.ThreadMXBean)
+ * 3.这一轮期间GC的次数和耗时
+ *
+ * 用法：java com.dlw.LongQueueBenchmark [每轮元素个数，默认1000万] [容量，默认1024]
+ */
+public class LongQueueBenchmark {
+
+	interface Side{
+		void run(long n);
+	}
+
+	public static void main(String[] args) throws Exception {
+		final long n = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+		final int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+		System.out.printf("%-28s %14s %16s %8s %10s%n","queue","ops/s","allocated(MB)","gc","gc(ms)");
+		BenchmarkSupport.rounds(() -> {
+			final MiniLongArrayBrokingQueue longs = new MiniLongArrayBrokingQueue(capacity);
+			final long[] sum = new long[1];
+			run("MiniLongArrayBrokingQueue",n,
+					count -> {
+						for(long i = 0; i < count; i++){
+							longs.putLong(i + 1000L);
+						}
+					},
+					count -> {
+						long s = 0;
+						for(long i = 0; i < count; i++){
+							s += longs.takeLong();
+						}
+						sum[0] = s;
+					});
+			check(sum[0],n);
+
+			final BrokingQueue<Long> boxed = new MiniArrayBrokingQueue<Long>(capacity);
+			run("MiniArrayBrokingQueue<Long>",n,
+					count -> {
+						for(long i = 0; i < count; i++){
+							boxed.put(i + 1000L);
+						}
+					},
+					count -> {
+						long s = 0;
+						for(long i = 0; i < count; i++){
+							s += boxed.take();
+						}
+						sum[0] = s;
+					});
+			check(sum[0],n);
+			System.out.println();
+		});
+	}
+
+	static void check(long sum,long n){
+		long expected = n * (n - 1) / 2 + n * 1000L;
+		if(sum != expected){
+			throw new IllegalStateException("checksum mismatch: " + sum + " != " + expected);
+		}
+	}
+
+	static void run(String name,final long n,final Side producer,final Side consumer) throws InterruptedException {
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long[] allocated = new long[2];
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2);
+		Side[] sides = {producer,consumer};
+		for(int i = 0; i < 2; i++){
+			final int id = i;
+			final Side side = sides[i];
+			new Thread(() -> {
+				try{
+					start.await();
+					long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+					side.run(n);
+					allocated[id] = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		long gcCount = 0, gcTime = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+			gcCount -= gc.getCollectionCount();
+			gcTime -= gc.getCollectionTime();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+			gcCount += gc.getCollectionCount();
+			gcTime += gc.getCollectionTime();
+		}
+		System.out.printf("%-28s %14.0f %16.1f %8d %10d%n",name,n * 1e9 / elapsed,
+				(allocated[0] + allocated[1]) / 1048576.0,gcCount,gcTime);
+	}
+}
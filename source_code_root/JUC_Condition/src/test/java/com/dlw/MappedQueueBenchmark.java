@@ -0,0 +1,125 @@
+package com.dlw;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 持久化队列MiniMappedBrokingQueue 和 内存队列 的吞吐量对比，以及重启之后的恢复
+ *
+ * 1.吞吐量：一个生产者、一个消费者传递n条payload字节的记录，
+ * 		对比MiniLinkedBrokingQueue(同样是双锁) 和 MiniArrayBrokingQueue，数据量比内存小，都在page cache里
+ * 2.重启：写入一批记录、消费一部分，close之后在同一个目录上重新打开，
+ * 		校验剩下的记录一条不少、内容和顺序都没变，并统计重新打开(扫描段文件)的耗时
+ *
+ * 用法：java com.dlw.MappedQueueBenchmark [每轮记录条数，默认500万] [payload字节数，默认64]
+ */
+public class MappedQueueBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final long n = args.length > 0 ? Long.parseLong(args[0]) : 5_000_000L;
+		final int payload = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+		System.out.printf("%-28s %14s %12s%n","queue","ops/s","MB/s");
+		BenchmarkSupport.rounds(() -> {
+			File dir = Files.createTempDirectory("mapped-queue").toFile();
+			try(MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir)){
+				run("MiniMappedBrokingQueue",queue,n,payload);
+			}finally {
+				deleteAll(dir);
+			}
+			run("MiniLinkedBrokingQueue",new MiniLinkedBrokingQueue<byte[]>(1024),n,payload);
+			run("MiniArrayBrokingQueue",new MiniArrayBrokingQueue<byte[]>(1024),n,payload);
+			System.out.println();
+		});
+
+		restart(n / 10,payload);
+	}
+
+	static void run(String name,final BrokingQueue<byte[]> queue,final long n,final int payload) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] sum = new long[1];
+		Thread producer = new Thread(() -> {
+			try{
+				start.await();
+				for(long i = 0; i < n; i++){
+					queue.put(record(i,payload));
+				}
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		});
+		Thread consumer = new Thread(() -> {
+			try{
+				start.await();
+				long s = 0;
+				for(long i = 0; i < n; i++){
+					s += queue.take()[0];
+				}
+				sum[0] = s;
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+		consumer.start();
+		long begin = System.nanoTime();
+		start.countDown();
+		producer.join();
+		consumer.join();
+		long elapsed = System.nanoTime() - begin;
+		long expected = 0;
+		for(long i = 0; i < n; i++){
+			expected += (byte) i;
+		}
+		System.out.printf("%-28s %14.0f %12.1f%s%n",name,n * 1e9 / elapsed,n * payload * 1e9 / elapsed / 1048576,
+				sum[0] == expected ? "" : "  CHECKSUM MISMATCH");
+	}
+
+	static void restart(long n,int payload) throws Exception {
+		File dir = Files.createTempDirectory("mapped-queue").toFile();
+		try{
+			MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,1 << 20);
+			for(long i = 0; i < n; i++){
+				queue.put(record(i,payload));
+			}
+			long consumed = n / 3;
+			for(long i = 0; i < consumed; i++){
+				queue.take();
+			}
+			queue.close();
+
+			long begin = System.nanoTime();
+			queue = new MiniMappedBrokingQueue(dir,1 << 20);
+			long reopen = System.nanoTime() - begin;
+
+			boolean ok = queue.size() == n - consumed;
+			for(long i = consumed; ok && i < n; i++){
+				ok = Arrays.equals(queue.take(),record(i,payload));
+			}
+			queue.close();
+			System.out.printf("restart: %d records, %d consumed before restart, reopen %.1f ms, %s%n",
+					n,consumed,reopen / 1e6,ok ? "all remaining records recovered" : "RECOVERY MISMATCH");
+		}finally {
+			deleteAll(dir);
+		}
+	}
+
+	static byte[] record(long i,int payload){
+		byte[] bytes = new byte[payload];
+		bytes[0] = (byte) i;
+		bytes[payload - 1] = (byte) (i >>> 8);
+		return bytes;
+	}
+
+	static void deleteAll(File dir){
+		File[] files = dir.listFiles();
+		if(files != null){
+			for(File file : files){
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,223 @@
+package com.dlw;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MiniMappedBrokingQueue跨段文件的恢复检查
+ *
+ * 用很小的段(256字节)，让记录频繁落在段的边界上：
+ * 1.边界：记录正好写满一个段、段尾剩4字节(写ROLL标记)、段尾剩不到4字节(没有地方写ROLL)、空记录
+ * 2.重启：每消费一部分就close再重新打开，剩下的记录个数、内容、顺序不变，游标停在段尾时也一样
+ * 3.写了一半：最后一个段里写入位置之后的垃圾数据不会被当成记录，重启后可以继续追加
+ * 4.同一个目录不能同时被打开两次
+ * 5.drainTo的目标集合add抛出异常：已经交出去的记录被消费掉，没交出去的还在队列里，重启之后也一样
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.MappedQueueCheck
+ */
+public class MappedQueueCheck {
+
+	static final int SEGMENT_SIZE = 256;
+
+	public static void main(String[] args) throws Exception {
+		boundaries();
+		restartEverywhere(2000);
+		tornWrite();
+		doubleOpen();
+		failingDrain();
+		System.out.println("all checks passed");
+	}
+
+	static void boundaries() throws IOException {
+		//段大小256，一条记录占4 + payload字节，注释里是每条写完之后的段内偏移量
+		int[] sizes = {
+				252,			//256：正好写满第一个段
+				248, 1,			//252：段尾剩4字节，放不下下一条，写ROLL；1写到新段：5
+				245, 1,			//254：段尾剩2字节，放不下header，不写ROLL直接换段；1写到新段：5
+				243, 0,			//252、256：段尾剩4字节正好放下一条空记录
+				100, 100, 44,	//104、208、256
+				0, 0, 0};
+		List<byte[]> records = new ArrayList<byte[]>();
+		for(int i = 0; i < sizes.length; i++){
+			records.add(record(i,sizes[i]));
+		}
+		File dir = Files.createTempDirectory("mapped-queue-check").toFile();
+		try{
+			MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE);
+			try{
+				for(byte[] r : records){
+					queue.put(r);
+				}
+			}finally {
+				queue.close();
+			}
+			//每消费一条就重启一次
+			for(int i = 0; i < records.size(); i++){
+				try(MiniMappedBrokingQueue reopened = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE)){
+					check(reopened.size() == records.size() - i,"size after restart " + reopened.size() + ", expected " + (records.size() - i));
+					checkRecord(reopened.take(),records.get(i),i);
+				}
+			}
+			try(MiniMappedBrokingQueue reopened = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE)){
+				check(reopened.size() == 0,"queue should be empty");
+			}
+		}finally {
+			MappedQueueBenchmark.deleteAll(dir);
+		}
+		System.out.println("segment boundaries ok");
+	}
+
+	static void restartEverywhere(int n) throws IOException {
+		File dir = Files.createTempDirectory("mapped-queue-check").toFile();
+		try{
+			int produced = 0;
+			int consumed = 0;
+			int round = 0;
+			while (consumed < n){
+				try(MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE)){
+					check(queue.size() == produced - consumed,"size after restart " + queue.size() + ", expected " + (produced - consumed));
+					//每一轮先写一些、再读一些，写的比读的多，直到写满n条
+					for(int i = 0; i < 37 && produced < n; i++, produced++){
+						queue.put(record(produced,produced % 37));
+					}
+					int take = 1 + round % 29;
+					for(int i = 0; i < take && consumed < produced; i++, consumed++){
+						if((consumed & 1) == 0){
+							checkRecord(queue.take(),record(consumed,consumed % 37),consumed);
+						}else {
+							ByteBuffer buffer = queue.takeBuffer();
+							byte[] bytes = new byte[buffer.remaining()];
+							buffer.get(bytes);
+							checkRecord(bytes,record(consumed,consumed % 37),consumed);
+						}
+					}
+				}
+				round++;
+			}
+			//消费完的段文件都删掉了，只剩写端所在的段
+			String[] segments = dir.list((d,name) -> name.endsWith(MiniMappedBrokingQueue.SEGMENT_SUFFIX));
+			check(segments.length <= 2,"consumed segments left behind: " + Arrays.toString(segments));
+			System.out.println("restart everywhere ok, " + round + " restarts");
+		}finally {
+			MappedQueueBenchmark.deleteAll(dir);
+		}
+	}
+
+	static void tornWrite() throws IOException {
+		File dir = Files.createTempDirectory("mapped-queue-check").toFile();
+		try{
+			try(MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE)){
+				for(int i = 0; i < 10; i++){
+					queue.put(record(i,30));
+				}
+			}
+			//10条一共340字节，第二个段写到84，在写入位置之后伪造一个没写完的header
+			String[] segments = dir.list((d,name) -> name.endsWith(MiniMappedBrokingQueue.SEGMENT_SUFFIX));
+			Arrays.sort(segments);
+			File last = new File(dir,segments[segments.length - 1]);
+			try(RandomAccessFile file = new RandomAccessFile(last,"rw")){
+				file.seek(200);
+				file.write(new byte[]{9,9,9,9,9,9,9,9});
+			}
+			try(MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE)){
+				check(queue.size() == 10,"garbage after the write position was recovered as records: " + queue.size());
+				for(int i = 10; i < 20; i++){
+					queue.put(record(i,30));
+				}
+			}
+			try(MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE)){
+				check(queue.size() == 20,"size after appending past the torn write " + queue.size());
+				for(int i = 0; i < 20; i++){
+					checkRecord(queue.take(),record(i,30),i);
+				}
+			}
+		}finally {
+			MappedQueueBenchmark.deleteAll(dir);
+		}
+		System.out.println("torn write ok");
+	}
+
+	static void doubleOpen() throws IOException {
+		File dir = Files.createTempDirectory("mapped-queue-check").toFile();
+		try{
+			MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE);
+			try{
+				new MiniMappedBrokingQueue(dir,SEGMENT_SIZE).close();
+				throw new IllegalStateException("the same directory was opened twice");
+			}catch (IOException expected){
+				//目录已经被打开
+			}finally {
+				queue.close();
+			}
+			//close之后可以重新打开
+			new MiniMappedBrokingQueue(dir,SEGMENT_SIZE).close();
+		}finally {
+			MappedQueueBenchmark.deleteAll(dir);
+		}
+		System.out.println("double open rejected ok");
+	}
+
+	static void failingDrain() throws IOException {
+		File dir = Files.createTempDirectory("mapped-queue-check").toFile();
+		try{
+			final List<byte[]> out = new ArrayList<byte[]>();
+			//第4次add抛出异常
+			List<byte[]> failing = new ArrayList<byte[]>(){
+				@Override
+				public boolean add(byte[] bytes) {
+					if(out.size() == 3){
+						throw new IllegalArgumentException("full");
+					}
+					return out.add(bytes);
+				}
+			};
+			try(MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE)){
+				for(int i = 0; i < 20; i++){
+					queue.put(record(i,i % 37));
+				}
+				try{
+					queue.drainTo(failing,10);
+					throw new IllegalStateException("drainTo should propagate the exception from add");
+				}catch (IllegalArgumentException expected){
+					//目标集合满了
+				}
+				check(out.size() == 3 && queue.size() == 17,"after a failing drainTo: drained " + out.size() + ", left " + queue.size());
+				checkRecord(queue.take(),record(3,3),3);
+			}
+			try(MiniMappedBrokingQueue queue = new MiniMappedBrokingQueue(dir,SEGMENT_SIZE)){
+				check(queue.size() == 16,"size after restart " + queue.size());
+				for(int i = 4; i < 20; i++){
+					checkRecord(queue.take(),record(i,i % 37),i);
+				}
+			}
+		}finally {
+			MappedQueueBenchmark.deleteAll(dir);
+		}
+		System.out.println("failing drain ok");
+	}
+
+	static byte[] record(int i,int payload){
+		byte[] bytes = new byte[payload];
+		for(int k = 0; k < payload; k++){
+			bytes[k] = (byte) (i + k);
+		}
+		return bytes;
+	}
+
+	static void checkRecord(byte[] actual,byte[] expected,int i){
+		check(Arrays.equals(actual,expected),"record " + i + " differs: " + (actual == null ? null : actual.length + " bytes"));
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MiniMpmcBrokingQueue的正确性检查
+ *
+ * 1.容量向上取整成2的幂，至少是2；满了offer返回false，空了poll返回null；序号绕回之后仍然先进先出
+ * 2.限时offer/poll：等够时间才超时返回；等待期间被中断抛出InterruptedException
+ * 3.drainTo最多取maxElements个、不等待；takeBatch先等到一个，再把已有的取走
+ * 4.每种WaitStrategy下，多个生产者、多个消费者(混用put/take、限时offer/poll、takeBatch)：
+ * 		每个元素正好被取走一次；同一个消费者看到的、同一个生产者的元素是按放入顺序的
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.MpmcQueueCheck
+ */
+public class MpmcQueueCheck {
+
+	static final WaitStrategy[] STRATEGIES = {
+			WaitStrategy.BUSY_SPIN,WaitStrategy.YIELD,WaitStrategy.SPIN_THEN_PARK,WaitStrategy.PARK,WaitStrategy.spinThenPark(10,0)
+	};
+
+	/**
+	 * 生产者都结束之后放进去的结束标记，每个消费者取到一个就退出
+	 */
+	static final int POISON = -1;
+
+	public static void main(String[] args) throws Exception {
+		boundaries();
+		for(WaitStrategy strategy : STRATEGIES){
+			timeouts(strategy);
+		}
+		batch();
+		for(WaitStrategy strategy : STRATEGIES){
+			//BUSY_SPIN要求每个线程独占一个cpu核，核数不够时每次交接都要等时间片用完，少跑一些
+			stream(strategy,3,3,strategy == WaitStrategy.BUSY_SPIN ? 1_000 : 50_000);
+		}
+		System.out.println("all checks passed");
+	}
+
+	static void boundaries(){
+		check(new MiniMpmcBrokingQueue<Integer>(1).capacity() == 2,"capacity(1) should round up to 2");
+		check(new MiniMpmcBrokingQueue<Integer>(5).capacity() == 8,"capacity(5) should round up to 8");
+		MiniMpmcBrokingQueue<Integer> queue = new MiniMpmcBrokingQueue<Integer>(4);
+		check(queue.poll() == null,"poll on an empty queue should return null");
+		//转几圈，序号绕回
+		for(int round = 0; round < 5; round++){
+			for(int i = 0; i < 4; i++){
+				check(queue.offer(round * 4 + i),"offer " + i + " should fit");
+			}
+			check(!queue.offer(POISON) && queue.size() == 4,"offer on a full queue should return false");
+			for(int i = 0; i < 4; i++){
+				Integer v = queue.poll();
+				check(v != null && v == round * 4 + i,"poll returned " + v + ", expected " + (round * 4 + i));
+			}
+			check(queue.poll() == null && queue.size() == 0,"queue should be empty");
+		}
+		try{
+			queue.offer(null);
+			throw new IllegalStateException("offer(null) should throw");
+		}catch (NullPointerException expected){
+		}
+		System.out.println("boundaries ok");
+	}
+
+	static void timeouts(WaitStrategy strategy) throws InterruptedException {
+		MiniMpmcBrokingQueue<Integer> queue = new MiniMpmcBrokingQueue<Integer>(2,strategy);
+		long begin = System.nanoTime();
+		check(queue.poll(20,TimeUnit.MILLISECONDS) == null,strategy + ": poll on an empty queue should time out");
+		checkWaited(strategy,"poll",begin,20);
+
+		queue.put(1);
+		queue.put(2);
+		begin = System.nanoTime();
+		check(!queue.offer(3,20,TimeUnit.MILLISECONDS),strategy + ": offer on a full queue should time out");
+		checkWaited(strategy,"offer",begin,20);
+		check(queue.size() == 2,strategy + ": a timed-out offer should not insert");
+
+		final Thread waiter = Thread.currentThread();
+		Thread interrupter = new Thread(() -> {
+			sleep(20);
+			waiter.interrupt();
+		});
+		interrupter.start();
+		try{
+			queue.offer(3,5,TimeUnit.SECONDS);
+			throw new IllegalStateException(strategy + ": offer should throw when interrupted while waiting");
+		}catch (InterruptedException expected){
+		}
+		interrupter.join();
+		queue.take();
+		queue.take();
+
+		Thread.currentThread().interrupt();
+		try{
+			queue.poll(1,TimeUnit.SECONDS);
+			throw new IllegalStateException(strategy + ": poll should throw when interrupted");
+		}catch (InterruptedException expected){
+		}
+		System.out.println(strategy + " timeouts ok");
+	}
+
+	static void checkWaited(WaitStrategy strategy,String op,long begin,long timeoutMs){
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+		check(waited >= timeoutMs,strategy + ": timed " + op + " returned after " + waited + "ms, timeout was " + timeoutMs + "ms");
+	}
+
+	static void batch() throws InterruptedException {
+		final MiniMpmcBrokingQueue<Integer> queue = new MiniMpmcBrokingQueue<Integer>(8);
+		List<Integer> out = new ArrayList<Integer>();
+		check(queue.drainTo(out,4) == 0 && out.isEmpty(),"drainTo on an empty queue should return 0 without waiting");
+		for(int i = 0; i < 6; i++){
+			queue.put(i);
+		}
+		check(queue.drainTo(out,4) == 4 && out.size() == 4 && out.get(3) == 3,"drainTo should stop at maxElements, got " + out);
+		out.clear();
+		check(queue.takeBatch(out,10) == 2 && out.get(0) == 4 && out.get(1) == 5,"takeBatch should take what is there, got " + out);
+		check(queue.takeBatch(out,0) == 0,"takeBatch(0) should return 0");
+
+		//takeBatch在空队列上等待，直到生产者放入元素
+		final List<Integer> batch = new ArrayList<Integer>();
+		Thread consumer = new Thread(() -> queue.takeBatch(batch,8));
+		consumer.start();
+		sleep(20);
+		check(consumer.isAlive(),"takeBatch should wait on an empty queue");
+		queue.put(42);
+		consumer.join(5000);
+		check(!consumer.isAlive() && batch.size() >= 1 && batch.get(0) == 42,"takeBatch got " + batch);
+		System.out.println("batch ok");
+	}
+
+	/**
+	 * 第p个生产者放入 p * perProducer + j (j从0开始)，按j的值轮流用put、offer(timeout)、offer()；
+	 * 消费者轮流用take、poll(timeout)、takeBatch，记下取到的元素，并检查每个生产者的元素是递增的
+	 */
+	static void stream(WaitStrategy strategy,int producers,int consumers,final int perProducer) throws InterruptedException {
+		final MiniMpmcBrokingQueue<Integer> queue = new MiniMpmcBrokingQueue<Integer>(16,strategy);
+		final int total = producers * perProducer;
+		final BitSet seen = new BitSet(total);
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] producerThreads = new Thread[producers];
+		for(int p = 0; p < producers; p++){
+			final int base = p * perProducer;
+			producerThreads[p] = new Thread(() -> {
+				try{
+					start.await();
+					for(int j = 0; j < perProducer; j++){
+						switch (j % 3){
+							case 0:
+								queue.put(base + j);
+								break;
+							case 1:
+								while (!queue.offer(base + j,1,TimeUnit.MILLISECONDS)){
+								}
+								break;
+							default:
+								while (!queue.offer(base + j)){
+									Thread.yield();
+								}
+						}
+					}
+				}catch (InterruptedException e){
+					failure.compareAndSet(null,"producer interrupted");
+				}
+			});
+		}
+		Thread[] consumerThreads = new Thread[consumers];
+		for(int c = 0; c < consumers; c++){
+			consumerThreads[c] = new Thread(() -> {
+				int[] last = new int[producers];
+				Arrays.fill(last,-1);
+				List<Integer> mine = new ArrayList<Integer>();
+				List<Integer> batch = new ArrayList<Integer>();
+				try{
+					start.await();
+					for(int k = 0; ; k++){
+						batch.clear();
+						switch (k % 3){
+							case 0:
+								batch.add(queue.take());
+								break;
+							case 1:
+								Integer v = queue.poll(1,TimeUnit.MILLISECONDS);
+								if(v != null){
+									batch.add(v);
+								}
+								break;
+							default:
+								queue.takeBatch(batch,5);
+						}
+						int poisons = 0;
+						for(Integer v : batch){
+							if(v == POISON){
+								poisons++;
+								continue;
+							}
+							int p = v / perProducer;
+							if(v <= last[p]){
+								failure.compareAndSet(null,"producer " + p + ": got " + v + " after " + last[p]);
+							}
+							last[p] = v;
+							mine.add(v);
+						}
+						if(poisons > 0){
+							//takeBatch可能一次拿走了好几个结束标记，多拿的放回去留给其它消费者
+							for(int i = 1; i < poisons; i++){
+								queue.put(POISON);
+							}
+							break;
+						}
+					}
+				}catch (InterruptedException e){
+					failure.compareAndSet(null,"consumer interrupted");
+				}
+				synchronized (seen){
+					for(int v : mine){
+						if(seen.get(v)){
+							failure.compareAndSet(null,v + " taken twice");
+						}
+						seen.set(v);
+					}
+				}
+			});
+		}
+		for(Thread t : producerThreads){
+			t.start();
+		}
+		for(Thread t : consumerThreads){
+			t.start();
+		}
+		start.countDown();
+		for(Thread t : producerThreads){
+			t.join();
+		}
+		for(int c = 0; c < consumers; c++){
+			queue.put(POISON);
+		}
+		for(Thread t : consumerThreads){
+			t.join();
+		}
+		check(failure.get() == null,strategy + ": " + failure.get());
+		check(seen.cardinality() == total,strategy + ": " + seen.cardinality() + " distinct elements taken, expected " + total);
+		check(queue.size() == 0 && queue.poll() == null,strategy + ": queue should be empty at the end");
+		System.out.println(strategy + " stream ok");
+	}
+
+	static void sleep(long millis){
+		try{
+			Thread.sleep(millis);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
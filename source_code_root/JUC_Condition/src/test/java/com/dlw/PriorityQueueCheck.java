@@ -0,0 +1,135 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MiniPriorityBrokingQueue的顺序检查
+ *
+ * 1.按优先级从高到低取出，优先级相同的先进先出
+ * 2.drainTo按顺序批量取出；目标集合add抛出异常时，没交出去的元素还在队列里
+ * 3.队列为空时限时poll超时返回null
+ * 4.多个生产者、多个消费者并发put/take，没有丢失、没有重复
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.PriorityQueueCheck
+ */
+public class PriorityQueueCheck {
+
+	static final class Job{
+		final int priority;
+		final int id;
+
+		Job(int priority,int id) {
+			this.priority = priority;
+			this.id = id;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		order(10_000);
+		drain();
+		timedPoll();
+		concurrent(3,50_000);
+		System.out.println("all checks passed");
+	}
+
+	static void order(int n){
+		MiniPriorityBrokingQueue<Job> queue = new MiniPriorityBrokingQueue<Job>((a,b) -> Integer.compare(a.priority,b.priority));
+		Random random = new Random(3);
+		for(int i = 0; i < n; i++){
+			queue.put(new Job(random.nextInt(50),i));
+		}
+		Job prev = null;
+		for(int i = 0; i < n; i++){
+			Job job = queue.take();
+			if(prev != null){
+				check(job.priority > prev.priority || (job.priority == prev.priority && job.id > prev.id),
+						"job " + job.id + "(" + job.priority + ") taken after " + prev.id + "(" + prev.priority + ")");
+			}
+			prev = job;
+		}
+		System.out.println("order ok");
+	}
+
+	static void drain(){
+		MiniPriorityBrokingQueue<Integer> queue = new MiniPriorityBrokingQueue<Integer>();
+		queue.putAll(Arrays.asList(5,3,9,1,3));
+		List<Integer> out = new ArrayList<Integer>();
+		check(queue.drainTo(out,10) == 5 && out.equals(Arrays.asList(1,3,3,5,9)),"drainTo returned " + out);
+
+		queue.putAll(Arrays.asList(5,3,9,1,3));
+		final List<Integer> accepted = new ArrayList<Integer>();
+		//第3次add抛出异常
+		List<Integer> failing = new ArrayList<Integer>(){
+			@Override
+			public boolean add(Integer v) {
+				if(accepted.size() == 2){
+					throw new IllegalArgumentException("full");
+				}
+				return accepted.add(v);
+			}
+		};
+		try{
+			queue.drainTo(failing,10);
+			throw new IllegalStateException("drainTo should propagate the exception from add");
+		}catch (IllegalArgumentException expected){
+			//目标集合满了
+		}
+		out.clear();
+		queue.drainTo(out,10);
+		check(accepted.equals(Arrays.asList(1,3)) && out.equals(Arrays.asList(3,5,9)),
+				"failing drainTo lost elements: " + accepted + " then " + out);
+		System.out.println("drain ok");
+	}
+
+	static void timedPoll() throws InterruptedException {
+		MiniPriorityBrokingQueue<Integer> queue = new MiniPriorityBrokingQueue<Integer>();
+		long begin = System.nanoTime();
+		check(queue.poll(20,TimeUnit.MILLISECONDS) == null,"poll on an empty queue returned an element");
+		check(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(20),"poll returned before the timeout");
+		System.out.println("timed poll ok");
+	}
+
+	static void concurrent(int threads,final int perThread) throws InterruptedException {
+		final MiniPriorityBrokingQueue<Long> queue = new MiniPriorityBrokingQueue<Long>();
+		final AtomicLong sum = new AtomicLong();
+		List<Thread> all = new ArrayList<Thread>();
+		for(int p = 0; p < threads; p++){
+			final long base = (long) p * perThread;
+			all.add(new Thread(() -> {
+				for(int i = 0; i < perThread; i++){
+					queue.put(base + i);
+				}
+			}));
+		}
+		for(int c = 0; c < threads; c++){
+			all.add(new Thread(() -> {
+				long s = 0;
+				for(int i = 0; i < perThread; i++){
+					s += queue.take();
+				}
+				sum.addAndGet(s);
+			}));
+		}
+		for(Thread t : all){
+			t.start();
+		}
+		for(Thread t : all){
+			t.join();
+		}
+		long n = (long) threads * perThread;
+		check(sum.get() == n * (n - 1) / 2,"checksum mismatch: " + sum.get());
+		System.out.println("concurrent ok");
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * 几种BrokingQueue实现的吞吐量对比
+ *
+ * 每一轮：producers个生产者一共put固定数量的元素，consumers个消费者把它们全部take出来，
+ * 统计从开始到最后一个元素被取走的时间，换算成每秒多少次(put + take算一次)。
+ * 消费者会把取到的值加起来，最后校验，确认没有丢数据、没有重复。
+ *
+ * 场景：
+ * 1.一个生产者、一个消费者：单生产单消费的无锁队列 对比 其它队列
+ * 2.多生产者多消费者(1/1、2/2、4/4、8/8) 以及 多生产者汇聚到一个消费者(4/1、8/1)：
+ * 		MiniMpmcBrokingQueue 对比 MiniArrayBrokingQueue、MiniLinkedBrokingQueue(双锁)、ArrayBlockingQueue
+ * 3.批量：生产者每次putAll一批、消费者每次takeBatch一批，对比MiniArrayBrokingQueue逐个put/take
+ * 4.等待策略：一个生产者、一个消费者，MiniArrayBrokingQueue、MiniSpscBrokingQueue分别用各种WaitStrategy
+ * 		(BUSY_SPIN需要生产者、消费者各占一个核，cpu核数不够时会非常慢)
+ * 5.统计的开销：MiniArrayBrokingQueue开启/不开启占用和阻塞统计(1/1、4/4)，并打印最后一轮的统计快照
+ * 吞吐量和cpu核数关系很大(开头会打印出来)：核数比线程数少时，测到的主要是线程切换和唤醒的开销。
+ *
+ * 用法：java com.dlw.QueueBenchmark [每轮元素个数，默认1000万] [容量，默认1024]
+ */
+public class QueueBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final long total = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+		final int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+		System.out.println("cpu核数：" + Runtime.getRuntime().availableProcessors() + "，容量：" + capacity);
+		System.out.printf("%-46s %6s %14s%n","queue","p/c","ops/s");
+
+		final Map<String,Supplier<BrokingQueue<Long>>> spsc = new LinkedHashMap<String,Supplier<BrokingQueue<Long>>>();
+		spsc.put("MiniSpscBrokingQueue",() -> new MiniSpscBrokingQueue<Long>(capacity));
+		spsc.put("MiniArrayBrokingQueue",() -> new MiniArrayBrokingQueue<Long>(capacity));
+		spsc.put("ArrayBlockingQueue",() -> BenchmarkSupport.jdkQueue(new ArrayBlockingQueue<Long>(capacity)));
+
+		BenchmarkSupport.rounds(() -> {
+			for(Map.Entry<String,Supplier<BrokingQueue<Long>>> e : spsc.entrySet()){
+				run(e.getKey(),e.getValue().get(),1,1,total,1);
+			}
+			System.out.println();
+		});
+
+		final Map<String,Supplier<BrokingQueue<Long>>> mpmc = new LinkedHashMap<String,Supplier<BrokingQueue<Long>>>();
+		mpmc.put("MiniMpmcBrokingQueue",() -> new MiniMpmcBrokingQueue<Long>(capacity));
+		mpmc.put("MiniArrayBrokingQueue",() -> new MiniArrayBrokingQueue<Long>(capacity));
+		mpmc.put("MiniLinkedBrokingQueue",() -> new MiniLinkedBrokingQueue<Long>(capacity));
+		mpmc.put("ArrayBlockingQueue",() -> BenchmarkSupport.jdkQueue(new ArrayBlockingQueue<Long>(capacity)));
+
+		int[][] shapes = {{1,1},{2,2},{4,4},{8,8},{4,1},{8,1}};
+		for(final int[] shape : shapes){
+			BenchmarkSupport.rounds(() -> {
+				for(Map.Entry<String,Supplier<BrokingQueue<Long>>> e : mpmc.entrySet()){
+					run(e.getKey(),e.getValue().get(),shape[0],shape[1],total,1);
+				}
+			});
+			System.out.println();
+		}
+
+		for(final int[] shape : new int[][]{{1,1},{4,4}}){
+			BenchmarkSupport.rounds(() -> {
+				run("MiniArrayBrokingQueue",new MiniArrayBrokingQueue<Long>(capacity),shape[0],shape[1],total,1);
+				for(int batch = 16; batch <= 256; batch <<= 2){
+					run("MiniArrayBrokingQueue batch=" + batch,new MiniArrayBrokingQueue<Long>(capacity),shape[0],shape[1],total,batch);
+				}
+				run("MiniLinkedBrokingQueue batch=64",new MiniLinkedBrokingQueue<Long>(capacity),shape[0],shape[1],total,64);
+			});
+			System.out.println();
+		}
+
+		final WaitStrategy[] strategies = {WaitStrategy.BUSY_SPIN,WaitStrategy.YIELD,WaitStrategy.SPIN_THEN_PARK,WaitStrategy.PARK};
+		BenchmarkSupport.rounds(() -> {
+			for(WaitStrategy strategy : strategies){
+				run("MiniArrayBrokingQueue " + strategy,new MiniArrayBrokingQueue<Long>(capacity,strategy),1,1,total,1);
+				run("MiniSpscBrokingQueue " + strategy,new MiniSpscBrokingQueue<Long>(capacity,strategy),1,1,total,1);
+			}
+			System.out.println();
+		});
+
+		for(final int[] shape : new int[][]{{1,1},{4,4}}){
+			//只打印最后一轮的统计快照
+			final List<MiniArrayBrokingQueue<Long>> measured = new ArrayList<MiniArrayBrokingQueue<Long>>();
+			BenchmarkSupport.rounds(() -> {
+				run("MiniArrayBrokingQueue",new MiniArrayBrokingQueue<Long>(capacity),shape[0],shape[1],total,1);
+				MiniArrayBrokingQueue<Long> queue = new MiniArrayBrokingQueue<Long>(capacity);
+				queue.enableMetrics();
+				run("MiniArrayBrokingQueue metrics",queue,shape[0],shape[1],total,1);
+				measured.add(queue);
+			});
+			System.out.println(measured.get(measured.size() - 1).getMetricsSnapshot());
+			System.out.println();
+		}
+	}
+
+	/**
+	 * @param batch 1：逐个put/take，大于1：每次putAll/takeBatch这么多个
+	 */
+	static void run(String name,final BrokingQueue<Long> queue,int producers,int consumers,long total,final int batch)
+			throws InterruptedException {
+		final long perProducer = total / producers;
+		final long count = perProducer * producers;
+		final long[] sums = new long[consumers];
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(producers + consumers);
+
+		//预先装箱，不把Long.valueOf的分配算进队列的时间里
+		final Long[] values = new Long[1024];
+		for(int i = 0; i < values.length; i++){
+			values[i] = (long) i;
+		}
+
+		for(int p = 0; p < producers; p++){
+			new Thread(() -> {
+				try{
+					start.await();
+					if(batch == 1){
+						for(long i = 0; i < perProducer; i++){
+							queue.put(values[(int) i & 1023]);
+						}
+					}else {
+						List<Long> chunk = new ArrayList<Long>(batch);
+						for(long i = 0; i < perProducer; i++){
+							chunk.add(values[(int) i & 1023]);
+							if(chunk.size() == batch || i == perProducer - 1){
+								queue.putAll(chunk);
+								chunk.clear();
+							}
+						}
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		for(int c = 0; c < consumers; c++){
+			final int id = c;
+			//前几个消费者多取一个，保证一共取count个
+			final long share = count / consumers + (id < count % consumers ? 1 : 0);
+			new Thread(() -> {
+				long sum = 0;
+				try{
+					start.await();
+					if(batch == 1){
+						for(long i = 0; i < share; i++){
+							sum += queue.take();
+						}
+					}else {
+						List<Long> chunk = new ArrayList<Long>(batch);
+						//不能多取，否则别的消费者会一直等下去
+						for(long left = share; left > 0; left -= chunk.size()){
+							chunk.clear();
+							queue.takeBatch(chunk,(int) Math.min(batch,left));
+							for(Long v : chunk){
+								sum += v;
+							}
+						}
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					sums[id] = sum;
+					done.countDown();
+				}
+			}).start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		long sum = 0;
+		for(long s : sums){
+			sum += s;
+		}
+		long expected = producers * ((perProducer / 1024) * (1023L * 1024 / 2) + sumBelow(perProducer % 1024));
+		System.out.printf("%-46s %6s %14.0f%s%n",name,producers + "/" + consumers,count * 1e9 / elapsed,
+				sum == expected ? "" : "  CHECKSUM MISMATCH " + sum + " != " + expected);
+	}
+
+	/**
+	 * 0 + 1 + ... + (n - 1)
+	 */
+	static long sumBelow(long n){
+		return n * (n - 1) / 2;
+	}
+}
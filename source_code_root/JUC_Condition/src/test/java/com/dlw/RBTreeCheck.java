@@ -0,0 +1,95 @@
+package com.dlw;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * RBTree删除(popMin)之后的红黑树性质检查
+ *
+ * 随机插入、popMin，和PriorityQueue对照，每一步之后检查：
+ * 1.popMin取到的是最小的key，size一致
+ * 2.根节点是黑色
+ * 3.每个节点的parent指向它的父节点
+ * 4.红色节点的子节点都是黑色
+ * 5.从任一节点到它下面的每个叶子，经过的黑色节点数相同
+ * 最后把树取空，每次popMin之后同样检查。
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.RBTreeCheck [轮数，默认200]
+ */
+public class RBTreeCheck {
+
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		Random random = new Random(1);
+		for(int round = 0; round < rounds; round++){
+			RBTree<Integer,Integer> tree = new RBTree<Integer,Integer>();
+			PriorityQueue<Integer> expected = new PriorityQueue<Integer>();
+			//RBTree插入已有的key只会覆盖value
+			Set<Integer> keys = new HashSet<Integer>();
+			for(int op = 0; op < 2000; op++){
+				if(random.nextInt(3) != 0){
+					int key = random.nextInt(5000);
+					tree.insert(key,key);
+					if(keys.add(key)){
+						expected.add(key);
+					}
+				}else {
+					popMin(tree,expected,keys);
+				}
+				verify(tree,expected.size());
+			}
+			while (!expected.isEmpty()){
+				popMin(tree,expected,keys);
+				verify(tree,expected.size());
+			}
+			check(tree.isEmpty() && tree.popMin() == null,"tree should be empty");
+		}
+		System.out.println("RBTree ok, " + rounds + " rounds");
+	}
+
+	static void popMin(RBTree<Integer,Integer> tree,PriorityQueue<Integer> expected,Set<Integer> keys){
+		RBTree.RBNode<?,?> min = tree.popMin();
+		Integer key = expected.poll();
+		if(key == null){
+			check(min == null,"popMin on an empty tree returned a node");
+			return;
+		}
+		check(min != null && key.equals(min.getKey()),"popMin returned " + (min == null ? null : min.getKey()) + ", expected " + key);
+		keys.remove(key);
+	}
+
+	static void verify(RBTree<Integer,Integer> tree,int size){
+		check(tree.size() == size,"size " + tree.size() + " != " + size);
+		RBTree.RBNode<?,?> root = tree.getRoot();
+		check(root == null || !root.isColor(),"root is red");
+		blackHeight(root,null);
+	}
+
+	/**
+	 * @return 从node到叶子经过的黑色节点数(null叶子算一个)
+	 */
+	static int blackHeight(RBTree.RBNode<?,?> node,RBTree.RBNode<?,?> parent){
+		if(node == null){
+			return 1;
+		}
+		check(node.getParent() == parent,"broken parent link at " + node.getKey());
+		RBTree.RBNode<?,?> left = node.getLeft();
+		RBTree.RBNode<?,?> right = node.getRight();
+		if(node.isColor()){
+			check((left == null || !left.isColor()) && (right == null || !right.isColor()),"red node " + node.getKey() + " has a red child");
+		}
+		int l = blackHeight(left,node);
+		int r = blackHeight(right,node);
+		check(l == r,"black height differs below " + node.getKey());
+		return l + (node.isColor() ? 0 : 1);
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
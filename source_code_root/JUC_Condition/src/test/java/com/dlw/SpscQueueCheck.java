@@ -0,0 +1,234 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MiniSpscBrokingQueue的正确性检查
+ *
+ * 1.容量向上取整成2的幂；满了offer返回false，空了poll返回null；下标绕回之后仍然先进先出
+ * 2.限时offer/poll：等够时间才超时返回；等待期间被中断抛出InterruptedException
+ * 3.put/take在挂起阶段被中断：不抛出异常，拿到元素之后中断标记还在
+ * 4.drainTo最多取maxElements个、不等待；takeBatch先等到一个，再把已有的取走
+ * 5.每种WaitStrategy下，一个生产者、一个消费者(混用put/take、限时offer/poll、takeBatch)传递的序列不丢、不重复、不乱序
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.SpscQueueCheck
+ */
+public class SpscQueueCheck {
+
+	static final WaitStrategy[] STRATEGIES = {
+			WaitStrategy.BUSY_SPIN,WaitStrategy.YIELD,WaitStrategy.SPIN_THEN_PARK,WaitStrategy.PARK,WaitStrategy.spinThenPark(10,0)
+	};
+
+	public static void main(String[] args) throws Exception {
+		boundaries();
+		for(WaitStrategy strategy : STRATEGIES){
+			timeouts(strategy);
+		}
+		interruptedTake();
+		batch();
+		for(WaitStrategy strategy : STRATEGIES){
+			//BUSY_SPIN要求每个线程独占一个cpu核，核数不够时每次交接都要等时间片用完，少跑一些
+			stream(strategy,strategy == WaitStrategy.BUSY_SPIN ? 2_000 : 200_000);
+		}
+		System.out.println("all checks passed");
+	}
+
+	static void boundaries(){
+		check(new MiniSpscBrokingQueue<Integer>(1).capacity() == 1,"capacity(1)");
+		check(new MiniSpscBrokingQueue<Integer>(5).capacity() == 8,"capacity(5) should round up to 8");
+		MiniSpscBrokingQueue<Integer> queue = new MiniSpscBrokingQueue<Integer>(4);
+		check(queue.poll() == null,"poll on an empty queue should return null");
+		//转几圈，下标绕回
+		for(int round = 0; round < 5; round++){
+			for(int i = 0; i < 4; i++){
+				check(queue.offer(round * 4 + i),"offer " + i + " should fit");
+			}
+			check(!queue.offer(-1) && queue.size() == 4,"offer on a full queue should return false");
+			for(int i = 0; i < 4; i++){
+				Integer v = queue.poll();
+				check(v != null && v == round * 4 + i,"poll returned " + v + ", expected " + (round * 4 + i));
+			}
+			check(queue.poll() == null && queue.size() == 0,"queue should be empty");
+		}
+		try{
+			queue.offer(null);
+			throw new IllegalStateException("offer(null) should throw");
+		}catch (NullPointerException expected){
+		}
+		System.out.println("boundaries ok");
+	}
+
+	static void timeouts(WaitStrategy strategy) throws InterruptedException {
+		MiniSpscBrokingQueue<Integer> queue = new MiniSpscBrokingQueue<Integer>(2,strategy);
+		long begin = System.nanoTime();
+		check(queue.poll(20,TimeUnit.MILLISECONDS) == null,strategy + ": poll on an empty queue should time out");
+		checkWaited(strategy,"poll",begin,20);
+
+		queue.put(1);
+		queue.put(2);
+		begin = System.nanoTime();
+		check(!queue.offer(3,20,TimeUnit.MILLISECONDS),strategy + ": offer on a full queue should time out");
+		checkWaited(strategy,"offer",begin,20);
+		check(queue.size() == 2,strategy + ": a timed-out offer should not insert");
+
+		Thread.currentThread().interrupt();
+		try{
+			queue.offer(3,1,TimeUnit.SECONDS);
+			throw new IllegalStateException(strategy + ": offer should throw when interrupted");
+		}catch (InterruptedException expected){
+		}
+		queue.take();
+		queue.take();
+
+		final Thread waiter = Thread.currentThread();
+		Thread interrupter = new Thread(() -> {
+			sleep(20);
+			waiter.interrupt();
+		});
+		interrupter.start();
+		try{
+			queue.poll(5,TimeUnit.SECONDS);
+			throw new IllegalStateException(strategy + ": poll should throw when interrupted while waiting");
+		}catch (InterruptedException expected){
+		}
+		interrupter.join();
+		System.out.println(strategy + " timeouts ok");
+	}
+
+	static void checkWaited(WaitStrategy strategy,String op,long begin,long timeoutMs){
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+		check(waited >= timeoutMs,strategy + ": timed " + op + " returned after " + waited + "ms, timeout was " + timeoutMs + "ms");
+	}
+
+	/**
+	 * 消费者在PARK策略下take()挂起，被中断之后继续等，拿到元素之后中断标记还在
+	 */
+	static void interruptedTake() throws InterruptedException {
+		final MiniSpscBrokingQueue<Integer> queue = new MiniSpscBrokingQueue<Integer>(2,WaitStrategy.PARK);
+		final AtomicReference<Object> result = new AtomicReference<Object>();
+		Thread consumer = new Thread(() -> {
+			Integer v = queue.take();
+			result.set(v == 7 && Thread.currentThread().isInterrupted() ? Boolean.TRUE : "took " + v
+					+ ", interrupted=" + Thread.currentThread().isInterrupted());
+		});
+		consumer.start();
+		sleep(20);
+		consumer.interrupt();
+		sleep(20);
+		check(consumer.isAlive(),"take should keep waiting after an interrupt");
+		queue.put(7);
+		consumer.join(5000);
+		check(Boolean.TRUE.equals(result.get()),"interruptedTake: " + result.get());
+		System.out.println("interruptedTake ok");
+	}
+
+	static void batch() throws InterruptedException {
+		final MiniSpscBrokingQueue<Integer> queue = new MiniSpscBrokingQueue<Integer>(8);
+		List<Integer> out = new ArrayList<Integer>();
+		check(queue.drainTo(out,4) == 0 && out.isEmpty(),"drainTo on an empty queue should return 0 without waiting");
+		for(int i = 0; i < 6; i++){
+			queue.put(i);
+		}
+		check(queue.drainTo(out,4) == 4 && out.size() == 4 && out.get(3) == 3,"drainTo should stop at maxElements, got " + out);
+		out.clear();
+		check(queue.takeBatch(out,10) == 2 && out.get(0) == 4 && out.get(1) == 5,"takeBatch should take what is there, got " + out);
+		check(queue.takeBatch(out,0) == 0,"takeBatch(0) should return 0");
+
+		//takeBatch在空队列上等待，直到生产者放入元素
+		final List<Integer> batch = new ArrayList<Integer>();
+		Thread consumer = new Thread(() -> queue.takeBatch(batch,8));
+		consumer.start();
+		sleep(20);
+		check(consumer.isAlive(),"takeBatch should wait on an empty queue");
+		queue.put(42);
+		consumer.join(5000);
+		check(!consumer.isAlive() && batch.size() >= 1 && batch.get(0) == 42,"takeBatch got " + batch);
+		System.out.println("batch ok");
+	}
+
+	/**
+	 * 生产者按j的值轮流用put、offer(timeout)、offer()，消费者轮流用take、poll(timeout)、takeBatch，
+	 * 消费者检查收到的正好是0,1,2,...
+	 */
+	static void stream(WaitStrategy strategy,final int n) throws InterruptedException {
+		final MiniSpscBrokingQueue<Integer> queue = new MiniSpscBrokingQueue<Integer>(16,strategy);
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		Thread producer = new Thread(() -> {
+			try{
+				for(int j = 0; j < n; j++){
+					switch (j % 3){
+						case 0:
+							queue.put(j);
+							break;
+						case 1:
+							while (!queue.offer(j,1,TimeUnit.MILLISECONDS)){
+							}
+							break;
+						default:
+							while (!queue.offer(j)){
+								Thread.yield();
+							}
+					}
+				}
+			}catch (InterruptedException e){
+				failure.compareAndSet(null,"producer interrupted");
+			}
+		});
+		Thread consumer = new Thread(() -> {
+			try{
+				List<Integer> batch = new ArrayList<Integer>();
+				int expected = 0;
+				while (expected < n){
+					batch.clear();
+					switch (expected % 3){
+						case 0:
+							batch.add(queue.take());
+							break;
+						case 1:
+							Integer v = queue.poll(1,TimeUnit.MILLISECONDS);
+							if(v != null){
+								batch.add(v);
+							}
+							break;
+						default:
+							queue.takeBatch(batch,5);
+					}
+					for(Integer v : batch){
+						if(v != expected){
+							failure.compareAndSet(null,"got " + v + ", expected " + expected);
+							return;
+						}
+						expected++;
+					}
+				}
+			}catch (InterruptedException e){
+				failure.compareAndSet(null,"consumer interrupted");
+			}
+		});
+		producer.start();
+		consumer.start();
+		producer.join();
+		consumer.join();
+		check(failure.get() == null,strategy + ": " + failure.get());
+		check(queue.size() == 0 && queue.poll() == null,strategy + ": queue should be empty at the end");
+		System.out.println(strategy + " stream ok");
+	}
+
+	static void sleep(long millis){
+		try{
+			Thread.sleep(millis);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MiniSynchronousBrokingQueue的取消(超时、中断)检查
+ *
+ * 取消的节点要从链表中摘掉，并且不能再被配对：
+ * 1.超时：限时的offer/poll超时返回false/null，超时的生产者放的元素不能再被消费者取到
+ * 2.中断：限时的offer/poll被中断时抛出InterruptedException，中断标记被清掉；put/take不响应中断，配对之后中断标记还在
+ * 3.一个take一直在等，期间大量poll超时取消，take最后仍然能和put配对
+ * 4.多个生产者用很短的超时offer、多个消费者用很短的超时poll，有的配对成功、有的取消，
+ * 		配对成功的元素之和等于被消费的元素之和，没有丢失、没有重复
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.SynchronousQueueCheck
+ */
+public class SynchronousQueueCheck {
+
+	public static void main(String[] args) throws Exception {
+		timeouts();
+		interrupts();
+		cancelWhileTakeWaits();
+		for(int round = 0; round < 3; round++){
+			mixed(4,4,100_000);
+		}
+		System.out.println("all checks passed");
+	}
+
+	static void timeouts() throws InterruptedException {
+		MiniSynchronousBrokingQueue<Long> queue = new MiniSynchronousBrokingQueue<Long>();
+		check(!queue.offer(1L),"offer without a waiting consumer");
+		check(queue.poll() == null,"poll without a waiting producer");
+		check(queue.poll(20,TimeUnit.MILLISECONDS) == null,"timed poll should time out");
+		check(!queue.offer(2L,20,TimeUnit.MILLISECONDS),"timed offer should time out");
+
+		//超时的2L已经取消，消费者只能拿到之后新放入的3L
+		Thread producer = new Thread(() -> queue.put(3L));
+		producer.start();
+		Long v = queue.take();
+		producer.join();
+		check(v == 3L,"took a cancelled element: " + v);
+		System.out.println("timeouts ok");
+	}
+
+	static void interrupts() throws InterruptedException {
+		final MiniSynchronousBrokingQueue<Long> queue = new MiniSynchronousBrokingQueue<Long>();
+		final Thread main = Thread.currentThread();
+		interruptLater(main,30);
+		try{
+			queue.poll(5,TimeUnit.SECONDS);
+			throw new IllegalStateException("timed poll should be interrupted");
+		}catch (InterruptedException e){
+			check(!Thread.currentThread().isInterrupted(),"interrupt flag should be cleared");
+		}
+		//被中断的消费者已经取消，不能再和生产者配对
+		check(!queue.offer(4L),"offer paired with a cancelled consumer");
+
+		interruptLater(main,30);
+		try{
+			queue.offer(5L,5,TimeUnit.SECONDS);
+			throw new IllegalStateException("timed offer should be interrupted");
+		}catch (InterruptedException e){
+			check(!Thread.currentThread().isInterrupted(),"interrupt flag should be cleared");
+		}
+		check(queue.poll() == null,"poll paired with a cancelled producer");
+
+		//put/take不响应中断：配对之后返回，中断标记保留
+		final Long[] taken = new Long[1];
+		final boolean[] interrupted = new boolean[1];
+		Thread consumer = new Thread(() -> {
+			taken[0] = queue.take();
+			interrupted[0] = Thread.currentThread().isInterrupted();
+		});
+		consumer.start();
+		Thread.sleep(30);
+		consumer.interrupt();
+		Thread.sleep(30);
+		queue.put(6L);
+		consumer.join();
+		check(taken[0] == 6L && interrupted[0],"take should ignore the interrupt and keep the flag");
+		System.out.println("interrupts ok");
+	}
+
+	static void cancelWhileTakeWaits() throws InterruptedException {
+		final MiniSynchronousBrokingQueue<Long> queue = new MiniSynchronousBrokingQueue<Long>();
+		final Long[] taken = new Long[1];
+		Thread consumer = new Thread(() -> taken[0] = queue.take());
+		consumer.start();
+		Thread.sleep(20);
+		//队尾是等待的take(请求节点)，同类的poll追加在它后面然后超时取消
+		for(int i = 0; i < 100_000; i++){
+			queue.poll(1,TimeUnit.MICROSECONDS);
+		}
+		queue.put(7L);
+		consumer.join();
+		check(taken[0] == 7L,"waiting take got " + taken[0]);
+		System.out.println("cancel while take waits ok");
+	}
+
+	static void mixed(int producers,int consumers,final int perProducer) throws InterruptedException {
+		final MiniSynchronousBrokingQueue<Long> queue = new MiniSynchronousBrokingQueue<Long>();
+		final AtomicLong offered = new AtomicLong();
+		final AtomicLong consumed = new AtomicLong();
+		final CountDownLatch producersDone = new CountDownLatch(producers);
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int p = 0; p < producers; p++){
+			final long base = (long) p * perProducer;
+			threads.add(new Thread(() -> {
+				try{
+					for(int i = 0; i < perProducer; i++){
+						long v = base + i + 1;
+						if(queue.offer(v,(i & 3) + 1,TimeUnit.MICROSECONDS)){
+							offered.addAndGet(v);
+						}
+					}
+				}catch (InterruptedException e){
+					throw new IllegalStateException(e);
+				}finally {
+					producersDone.countDown();
+				}
+			}));
+		}
+		for(int c = 0; c < consumers; c++){
+			threads.add(new Thread(() -> {
+				try{
+					while (producersDone.getCount() > 0){
+						Long v = queue.poll(50,TimeUnit.MICROSECONDS);
+						if(v != null){
+							consumed.addAndGet(v);
+						}
+					}
+				}catch (InterruptedException e){
+					throw new IllegalStateException(e);
+				}
+			}));
+		}
+		for(Thread t : threads){
+			t.start();
+		}
+		for(Thread t : threads){
+			t.join();
+		}
+		check(queue.poll() == null,"element left behind after all producers finished");
+		check(offered.get() == consumed.get(),"offered " + offered.get() + " != consumed " + consumed.get());
+		System.out.println("mixed cancellation ok, " + producers + "/" + consumers);
+	}
+
+	static void interruptLater(final Thread target,final long millis){
+		new Thread(() -> {
+			try{
+				Thread.sleep(millis);
+			}catch (InterruptedException e){
+				return;
+			}
+			target.interrupt();
+		}).start();
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
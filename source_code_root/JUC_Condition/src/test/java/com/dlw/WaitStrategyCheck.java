@@ -0,0 +1,102 @@
+package com.dlw;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WaitStrategy的检查
+ *
+ * 1.shouldPark：BUSY_SPIN、YIELD永远不挂起(tries到了Integer.MAX_VALUE也不会)，其它策略在spins + yields次之后挂起
+ * 2.idle/next：tries加1，到Integer.MAX_VALUE就不再增加；spinThenPark拒绝负数
+ * 3.parkNanos：挂起阶段第一次是MIN_PARK_NANOS，之后翻倍，最多MAX_PARK_NANOS，tries很大时也不会溢出
+ * 4.空闲了一段时间的消费者(基于锁的队列、无锁队列)，在每种策略下都能及时取走新来的元素：
+ * 		无锁队列最多晚MAX_PARK_NANOS，这里给的上界很宽松，只用来发现"一直醒不过来"
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.WaitStrategyCheck
+ */
+public class WaitStrategyCheck {
+
+	static final WaitStrategy[] STRATEGIES = {
+			WaitStrategy.BUSY_SPIN,WaitStrategy.YIELD,WaitStrategy.SPIN_THEN_PARK,WaitStrategy.PARK,WaitStrategy.spinThenPark(10,0)
+	};
+
+	public static void main(String[] args) throws Exception {
+		shouldPark();
+		idle();
+		parkNanos();
+		for(WaitStrategy strategy : STRATEGIES){
+			wakeUp(strategy,new MiniArrayBrokingQueue<Integer>(4,strategy));
+			wakeUp(strategy,new MiniSpscBrokingQueue<Integer>(4,strategy));
+			wakeUp(strategy,new MiniMpmcBrokingQueue<Integer>(4,strategy));
+		}
+		System.out.println("all checks passed");
+	}
+
+	static void shouldPark(){
+		for(int tries : new int[]{0,1,1000,Integer.MAX_VALUE}){
+			check(!WaitStrategy.BUSY_SPIN.shouldPark(tries),"BUSY_SPIN should never park, tries=" + tries);
+			check(!WaitStrategy.YIELD.shouldPark(tries),"YIELD should never park, tries=" + tries);
+			check(WaitStrategy.PARK.shouldPark(tries),"PARK should always park, tries=" + tries);
+		}
+		check(!WaitStrategy.SPIN_THEN_PARK.shouldPark(199) && WaitStrategy.SPIN_THEN_PARK.shouldPark(200),
+				"SPIN_THEN_PARK should park after 100 spins and 100 yields");
+		WaitStrategy custom = WaitStrategy.spinThenPark(3,2);
+		check(!custom.shouldPark(4) && custom.shouldPark(5),"spinThenPark(3,2) should park from the 5th try");
+		check(!WaitStrategy.spinThenPark(Integer.MAX_VALUE,5).shouldPark(Integer.MAX_VALUE),"unlimited spins should never park");
+		try{
+			WaitStrategy.spinThenPark(-1,0);
+			throw new IllegalStateException("negative spins should be rejected");
+		}catch (IllegalArgumentException expected){
+		}
+		System.out.println("shouldPark ok");
+	}
+
+	static void idle(){
+		check(WaitStrategy.BUSY_SPIN.idle(0) == 1 && WaitStrategy.YIELD.idle(0) == 1,"idle should return tries + 1");
+		check(WaitStrategy.BUSY_SPIN.idle(Integer.MAX_VALUE) == Integer.MAX_VALUE,"idle should saturate at Integer.MAX_VALUE");
+		check(WaitStrategy.next(41) == 42 && WaitStrategy.next(Integer.MAX_VALUE) == Integer.MAX_VALUE,"next should saturate");
+		System.out.println("idle ok");
+	}
+
+	static void parkNanos(){
+		//PARK的挂起阶段从tries == 0开始
+		for(int tries = 0; tries < 20; tries++){
+			long nanos = WaitStrategy.PARK.parkNanos(tries);
+			long expected = Math.min(WaitStrategy.MIN_PARK_NANOS << tries,WaitStrategy.MAX_PARK_NANOS);
+			check(nanos == expected,"PARK.parkNanos(" + tries + ") = " + nanos + ", expected " + expected);
+		}
+		check(WaitStrategy.PARK.parkNanos(Integer.MAX_VALUE) == WaitStrategy.MAX_PARK_NANOS,"parkNanos should not overflow");
+		check(WaitStrategy.SPIN_THEN_PARK.parkNanos(200) == WaitStrategy.MIN_PARK_NANOS,"the first park should be MIN_PARK_NANOS");
+		check(WaitStrategy.SPIN_THEN_PARK.parkNanos(202) == WaitStrategy.MIN_PARK_NANOS << 2,"parks should double");
+		System.out.println("parkNanos ok");
+	}
+
+	/**
+	 * 消费者在空队列上take，等了100ms(无锁队列已经退避到MAX_PARK_NANOS)之后放入一个元素，记录多久才被取走
+	 */
+	static void wakeUp(WaitStrategy strategy,final BrokingQueue<Integer> queue) throws InterruptedException {
+		final AtomicLong takenAt = new AtomicLong();
+		Thread consumer = new Thread(() -> {
+			queue.take();
+			takenAt.set(System.nanoTime());
+		});
+		consumer.start();
+		Thread.sleep(100);
+		long putAt = System.nanoTime();
+		queue.put(1);
+		consumer.join(5000);
+		check(!consumer.isAlive(),strategy + " " + queue.getClass().getSimpleName() + ": consumer never woke up");
+		long latency = takenAt.get() - putAt;
+		check(latency < TimeUnit.MILLISECONDS.toNanos(100),strategy + " " + queue.getClass().getSimpleName()
+				+ ": element taken " + TimeUnit.NANOSECONDS.toMicros(latency) + "us after put");
+		System.out.println(strategy + " " + queue.getClass().getSimpleName() + " wakeUp ok ("
+				+ TimeUnit.NANOSECONDS.toMicros(latency) + "us)");
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CLH自旋锁(不可重入)
+ *
+ * 每个线程把自己的节点放到队尾，然后在前置节点的locked上自旋，
+ * 前置节点释放锁(locked = false)后，当前线程就获取到了锁。
+ * MiniReentrantLock的阻塞队列就是CLH队列的变种：把自旋换成了park。
+ *
+ * 释放锁之后，当前线程的节点可能还在被后继节点读取，所以不能再用了，
+ * 改用前置节点作为自己下一次加锁的节点(前置节点已经没有线程会再读它了)。
+ */
+public class MiniClhLock implements MiniLock {
+
+	static final class QNode{
+		volatile boolean locked;
+	}
+
+	/**
+	 * 队尾节点，初始是一个已经释放了的节点，所以第一个线程可以直接拿到锁
+	 */
+	private volatile QNode tail = new QNode();
+
+	private Thread owner;
+
+	private final ThreadLocal<QNode> myNode = new ThreadLocal<QNode>(){
+		@Override
+		protected QNode initialValue() {
+			return new QNode();
+		}
+	};
+
+	private final ThreadLocal<QNode> myPred = new ThreadLocal<QNode>();
+
+	@Override
+	public void lock() {
+		QNode node = myNode.get();
+		node.locked = true;
+		QNode pred = getAndSetTail(node);
+		myPred.set(pred);
+		int spins = 0;
+		while (pred.locked){
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+		owner = Thread.currentThread();
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		int spins = 0;
+		while (!tryLock()){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * 队尾节点已经释放了锁，说明没有线程持有锁也没有线程在排队，cas把自己放到队尾
+	 */
+	@Override
+	public boolean tryLock() {
+		QNode t = tail;
+		if(t.locked){
+			return false;
+		}
+		QNode node = myNode.get();
+		node.locked = true;
+		if(compareAndSetTail(t,node)){
+			myPred.set(t);
+			/**
+			 * 极端情况：读完t.locked之后，t被回收复用又重新入队了(ABA)，
+			 * 这时t代表的是另一个线程，已经入队了就只能等它释放
+			 */
+			while (t.locked){
+				Thread.yield();
+			}
+			owner = Thread.currentThread();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(time);
+		int spins = 0;
+		while (!tryLock()){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if(deadline - System.nanoTime() <= 0L){
+				return false;
+			}
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+		if(owner != Thread.currentThread()){
+			throw new IllegalMonitorStateException();
+		}
+		owner = null;
+		QNode node = myNode.get();
+		node.locked = false;
+		//自己的节点交给后继节点去读，下次加锁用前置节点
+		myNode.set(myPred.get());
+	}
+
+	private static final Unsafe unsafe;
+	private static final long tailOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			tailOffset = unsafe.objectFieldOffset
+					(MiniClhLock.class.getDeclaredField("tail"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+
+	private final QNode getAndSetTail(QNode update){
+		return (QNode) unsafe.getAndSetObject(this,tailOffset,update);
+	}
+
+	private final boolean compareAndSetTail(QNode expect,QNode update){
+		return unsafe.compareAndSwapObject(this,tailOffset,expect,update);
+	}
+}
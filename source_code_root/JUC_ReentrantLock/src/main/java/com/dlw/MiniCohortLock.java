@@ -0,0 +1,208 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * 分组(cohort)锁，面向NUMA(多路cpu)机器
+ *
+ * MiniReentrantLock按先来后到交接锁，多路cpu上几乎每次交接都发生在不同的cpu插槽之间，
+ * 临界区的数据、锁本身的缓存行每次都要跨插槽搬运(远程缓存未命中)。
+ *
+ * 分组锁由 一把全局锁 + 每组一把本地锁 组成：
+ * 1.线程按mapping分到某一组(比如所在的cpu插槽)，先抢本组的本地锁，抢到之后再抢全局锁
+ * 2.释放时，如果本组还有线程在排队，只释放本地锁，全局锁直接"传给"本组的下一个线程(它不用再抢全局锁)
+ * 3.连续传了maxPasses次，或者本组没人排队了，才释放全局锁，让其它组有机会拿到
+ * 这样锁会在同一组内连续交接多次，maxPasses就是其它组最多要多等的次数(公平性上界)。
+ *
+ * 本地锁用公平的MiniReentrantLock，组内先来后到；全局锁只有各组的代表线程竞争，用自旋就够了，
+ * 而且全局锁会被一个线程获取、另一个线程释放，所以不能用记录持有者的锁。
+ *
+ * 本地锁的排队节点不能取消：锁传给了一个排队的线程，它却超时走了，全局锁就再也没人释放了。
+ * 所以和MiniMcsLock一样，超时、可中断的获取方式不排队，而是不断地tryLock()。
+ *
+ * 可重入：重入只会增加本地锁的计数，最后一次unlock才会考虑传递/释放全局锁。
+ */
+public class MiniCohortLock implements MiniLock {
+
+	/**
+	 * 默认的公平性上界：全局锁最多在组内连续传递64次
+	 */
+	static final int DEFAULT_MAX_PASSES = 64;
+
+	static final class Cohort{
+		final MiniReentrantLock local = new MiniReentrantLock();
+
+		/**
+		 * 本组当前是否持有全局锁
+		 * 只有持有本地锁的线程会读写，本地锁的加锁/解锁保证了可见性
+		 */
+		boolean ownsGlobal;
+
+		/**
+		 * 本组连续传递全局锁的次数
+		 */
+		int passes;
+	}
+
+	private final Cohort[] cohorts;
+
+	/**
+	 * 线程 -> 组号，结果会对组数取模
+	 */
+	private final ToIntFunction<Thread> mapping;
+
+	private final int maxPasses;
+
+	/**
+	 * 全局锁 0：空闲 1：被某一组持有
+	 */
+	private volatile int global;
+
+	/**
+	 * 当前持有锁的线程所在的组，只有持锁线程会读写
+	 * unlock时用它找到本地锁，不再调用一次mapping(mapping的结果可能会变，比如按当前cpu分组)
+	 */
+	private Cohort ownerCohort;
+
+	/**
+	 * 按线程id分组
+	 */
+	public MiniCohortLock(int groups){
+		this(groups,t -> (int) t.getId(),DEFAULT_MAX_PASSES);
+	}
+
+	/**
+	 * @param groups 组数，通常是cpu插槽(NUMA节点)个数
+	 * @param mapping 线程 -> 组号
+	 * @param maxPasses 全局锁在组内最多连续传递几次，0表示不传递(每次都释放全局锁)
+	 */
+	public MiniCohortLock(int groups,ToIntFunction<Thread> mapping,int maxPasses){
+		if(groups <= 0 || maxPasses < 0){
+			throw new IllegalArgumentException();
+		}
+		if(mapping == null){
+			throw new NullPointerException();
+		}
+		this.cohorts = new Cohort[groups];
+		for(int i = 0; i < groups; i++){
+			cohorts[i] = new Cohort();
+		}
+		this.mapping = mapping;
+		this.maxPasses = maxPasses;
+	}
+
+	private Cohort cohortOf(Thread t){
+		int g = mapping.applyAsInt(t) % cohorts.length;
+		return cohorts[g < 0 ? g + cohorts.length : g];
+	}
+
+	@Override
+	public void lock() {
+		Cohort c = cohortOf(Thread.currentThread());
+		c.local.lock();
+		if(!c.ownsGlobal){
+			int spins = 0;
+			while (!tryAcquireGlobal()){
+				//等待的只有各组的代表线程，时不时让出cpu就够了
+				if((++spins & 63) == 0){
+					Thread.yield();
+				}
+			}
+			c.ownsGlobal = true;
+		}
+		ownerCohort = c;
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		int spins = 0;
+		while (!tryLock()){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+	}
+
+	@Override
+	public boolean tryLock() {
+		Cohort c = cohortOf(Thread.currentThread());
+		if(!c.local.tryLock()){
+			return false;
+		}
+		if(!c.ownsGlobal){
+			if(!tryAcquireGlobal()){
+				c.local.unlock();
+				return false;
+			}
+			c.ownsGlobal = true;
+		}
+		ownerCohort = c;
+		return true;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(time);
+		int spins = 0;
+		while (!tryLock()){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if(deadline - System.nanoTime() <= 0L){
+				return false;
+			}
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+		Cohort c = ownerCohort;
+		if(c == null || !c.local.isHeldExclusively()){
+			throw new IllegalMonitorStateException();
+		}
+		if(c.local.getState() == 1){
+			/**
+			 * 最后一次unlock：本组还有人排队、还没到上界，就把全局锁留给本组
+			 */
+			if(c.local.hasQueuedThreads() && c.passes < maxPasses){
+				c.passes++;
+			}else {
+				c.passes = 0;
+				c.ownsGlobal = false;
+				global = 0;
+			}
+		}
+		c.local.unlock();
+	}
+
+	private boolean tryAcquireGlobal(){
+		return global == 0 && unsafe.compareAndSwapInt(this,globalOffset,0,1);
+	}
+
+	private static final Unsafe unsafe;
+	private static final long globalOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			globalOffset = unsafe.objectFieldOffset
+					(MiniCohortLock.class.getDeclaredField("global"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+}
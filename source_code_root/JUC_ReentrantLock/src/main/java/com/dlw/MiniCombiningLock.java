@@ -0,0 +1,263 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 平面合并锁(flat combining)
+ *
+ * 临界区很短、竞争很激烈时，时间主要花在锁所在的缓存行(以及临界区数据的缓存行)在各个核之间来回搬运上。
+ * 平面合并的思路：抢不到锁的线程不去排队抢锁，而是把"要做的操作"发布到自己的发布记录(Record)上，
+ * 抢到锁的线程成为合并者(combiner)，顺着发布链表把所有线程发布的操作一次性执行完，再把结果写回各自的记录。
+ * 这样临界区的数据一直留在合并者的缓存里，锁也只被获取一次。
+ *
+ * 用法：
+ * 	Long v = lock.execute(() -> ++counter);
+ * 操作在持锁状态下执行，和lock()/unlock()之间的代码互斥，所以同一份数据可以两种方式混用。
+ * 注意：操作会在其它线程(合并者)上执行，不能依赖ThreadLocal，也不要在操作里阻塞或者再调用execute。
+ *
+ * 发布链表：
+ * 每个线程第一次调用execute时把自己的记录插入到链表头部(cas)，之后一直复用。
+ * 合并者每隔CLEANUP_INTERVAL次合并，把很久没有发布过操作的记录摘除(不再使用这把锁的线程)，
+ * 记录的主人发现自己被摘除了(active == false)，会重新插入。
+ */
+public class MiniCombiningLock implements MiniLock {
+
+	/**
+	 * 一次合并最多扫描几遍发布链表
+	 * 扫描一遍的同时，可能又有线程发布了新的操作，多扫几遍能让一次持锁做更多的事
+	 */
+	static final int COMBINE_PASSES = 3;
+
+	/**
+	 * 每合并多少次清理一次发布链表
+	 */
+	static final int CLEANUP_INTERVAL = 1 << 10;
+
+	/**
+	 * 记录超过多少次合并没有发布过操作，就被认为是不活跃的
+	 */
+	static final int STALE_COMBINES = 1 << 12;
+
+	static final class Record{
+		/**
+		 * 发布的操作，null表示没有待执行的操作(或者已经执行完了)
+		 * 合并者先写result/failure，再把op置为null，主人看到null之后读到的一定是这次的结果
+		 */
+		volatile Supplier<?> op;
+		Object result;
+		Throwable failure;
+
+		/**
+		 * 是否在发布链表中
+		 */
+		volatile boolean active;
+
+		/**
+		 * 最后一次执行这条记录的操作时，合并者的合并次数
+		 */
+		long lastUsed;
+
+		/**
+		 * 只有插入(主人)和清理(合并者)时修改
+		 */
+		volatile Record next;
+	}
+
+	/**
+	 * 互斥还是由MiniReentrantLock保证：合并者用tryLock，lock()/unlock()直接转发
+	 * 用非公平模式，合并者有机会插队，不用等排队的线程被唤醒
+	 */
+	private final MiniReentrantLock lock = new MiniReentrantLock(false);
+
+	/**
+	 * 发布链表的头
+	 */
+	private volatile Record head;
+
+	/**
+	 * 合并次数，只有合并者(持锁线程)会读写
+	 */
+	private long combines;
+
+	private final ThreadLocal<Record> myRecord = new ThreadLocal<Record>(){
+		@Override
+		protected Record initialValue() {
+			return new Record();
+		}
+	};
+
+	/**
+	 * 在锁的保护下执行op，返回op的结果
+	 * op抛出的异常会原样抛给调用者
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(Supplier<T> op){
+		if(op == null){
+			throw new NullPointerException();
+		}
+		Record r = myRecord.get();
+		r.op = op;
+		int spins = 0;
+		for(;;){
+			if(!r.active){
+				publish(r);
+			}
+			if(lock.tryLock()){
+				try{
+					combine();
+				}finally {
+					lock.unlock();
+				}
+			}
+			if(r.op == null){
+				break;
+			}
+			/**
+			 * 锁被别人拿着，等合并者顺便把我的操作做了
+			 * 只读自己的记录，不会去抢锁的缓存行
+			 */
+			int i = 0;
+			while (r.op != null && ++i < 64){
+				//空转
+			}
+			if(r.op == null){
+				break;
+			}
+			if((++spins & 7) == 0){
+				Thread.yield();
+			}
+		}
+		Object result = r.result;
+		Throwable failure = r.failure;
+		r.result = null;
+		r.failure = null;
+		if(failure != null){
+			if(failure instanceof RuntimeException){
+				throw (RuntimeException) failure;
+			}
+			if(failure instanceof Error){
+				throw (Error) failure;
+			}
+			//Supplier不能声明受检异常，但可能被"偷偷"抛出来(sneaky throw)，包一层，原来的异常作为cause
+			throw new UndeclaredThrowableException(failure);
+		}
+		return (T) result;
+	}
+
+	/**
+	 * 把记录插入到发布链表头部
+	 */
+	private void publish(Record r){
+		r.active = true;
+		for(;;){
+			Record h = head;
+			r.next = h;
+			if(compareAndSetHead(h,r)){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 持锁状态下调用：执行发布链表上所有待执行的操作
+	 */
+	private void combine(){
+		long c = ++combines;
+		for(int pass = 0; pass < COMBINE_PASSES; pass++){
+			boolean found = false;
+			for(Record r = head; r != null; r = r.next){
+				Supplier<?> op = r.op;
+				if(op != null){
+					found = true;
+					try{
+						r.result = op.get();
+					}catch (Throwable t){
+						r.failure = t;
+					}
+					r.lastUsed = c;
+					r.op = null;
+				}
+			}
+			if(!found){
+				break;
+			}
+		}
+		if((c & (CLEANUP_INTERVAL - 1)) == 0){
+			cleanup(c);
+		}
+	}
+
+	/**
+	 * 摘除很久没用过的记录
+	 * 头节点不摘(它可能正在被cas)，其它节点的next只有合并者会修改，不需要cas。
+	 * 先摘除，再把active置为false，主人看到false时记录一定已经不在链表中了，可以放心地重新插入。
+	 * 如果主人恰好在摘除前发布了操作，它会在等待循环中发现active == false，重新插入之后再被执行。
+	 */
+	private void cleanup(long c){
+		Record pred = head;
+		if(pred == null){
+			return;
+		}
+		Record r = pred.next;
+		while (r != null){
+			Record next = r.next;
+			if(r.op == null && c - r.lastUsed > STALE_COMBINES){
+				pred.next = next;
+				r.active = false;
+			}else {
+				pred = r;
+			}
+			r = next;
+		}
+	}
+
+	@Override
+	public void lock() {
+		lock.lock();
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		lock.lockInterruptibly();
+	}
+
+	@Override
+	public boolean tryLock() {
+		return lock.tryLock();
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		return lock.tryLock(time,unit);
+	}
+
+	@Override
+	public void unlock() {
+		lock.unlock();
+	}
+
+	private final boolean compareAndSetHead(Record expect,Record update){
+		return unsafe.compareAndSwapObject(this,headOffset,expect,update);
+	}
+
+	private static final Unsafe unsafe;
+	private static final long headOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			headOffset = unsafe.objectFieldOffset
+					(MiniCombiningLock.class.getDeclaredField("head"));
+		}catch (Exception ex){
+			throw new Error(ex);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * MiniReentrantLock之间的死锁检测(默认关闭)
+ *
+ * 等待图(wait-for graph)：
+ * 线程T在排队等待锁L，L的持有者是线程O，就有一条边 T -> O。
+ * 一个线程同一时刻最多只等一把锁，所以每个线程最多一条出边，顺着边走回到自己就是一个死锁环。
+ *
+ * 怎么记录？
+ * 持有者：MiniReentrantLock本来就记录了exclusiveOwnerThread
+ * 等待者：开启检测后，线程在排队之前把 (线程 -> 锁) 登记到WAITING，拿到锁或者取消排队后删除
+ * 只有抢锁失败、要排队的线程才会登记，没有竞争的加锁/解锁路径上没有任何额外开销；
+ * 关闭时，排队路径上也只多了读取enabled、判断WAITING是否为空的开销。
+ *
+ * 后台线程每隔periodMillis扫描一次等待图，连续两次扫描都发现同一个环才报告(排除扫描时恰好碰上的中间状态)，
+ * 报告里带上环上每个线程的堆栈。同一个环只报告一次。
+ */
+public class MiniDeadlockDetector {
+
+	/**
+	 * 是否开启了检测
+	 */
+	static volatile boolean enabled;
+
+	/**
+	 * 正在排队的线程 -> 它在等的锁
+	 */
+	private static final ConcurrentHashMap<Thread,MiniReentrantLock> WAITING = new ConcurrentHashMap<Thread,MiniReentrantLock>();
+
+	private static Thread detector;
+
+	private MiniDeadlockDetector() {
+	}
+
+	/**
+	 * 开启检测，发现死锁时打印到System.err
+	 */
+	public static void enable(long periodMillis){
+		enable(periodMillis,d -> System.err.println(d));
+	}
+
+	/**
+	 * 开启检测
+	 * @param periodMillis 扫描间隔
+	 * @param listener 发现死锁时回调(在检测线程上执行)
+	 */
+	public static synchronized void enable(final long periodMillis,final Consumer<Deadlock> listener){
+		if(periodMillis <= 0L){
+			throw new IllegalArgumentException("periodMillis must be positive");
+		}
+		if(listener == null){
+			throw new NullPointerException();
+		}
+		disable();
+		enabled = true;
+		Thread t = new Thread(() -> {
+			Set<List<Thread>> previous = Collections.emptySet();
+			Set<List<Thread>> reported = new HashSet<List<Thread>>();
+			while (!Thread.currentThread().isInterrupted()){
+				try{
+					Thread.sleep(periodMillis);
+				}catch (InterruptedException e){
+					break;
+				}
+				Set<List<Thread>> current = new HashSet<List<Thread>>();
+				for(Deadlock d : findDeadlocks()){
+					List<Thread> key = d.getThreads();
+					current.add(key);
+					if(previous.contains(key) && reported.add(key)){
+						listener.accept(d);
+					}
+				}
+				//已经解开(或者线程已经退出)的环，下次再出现还要报告
+				reported.retainAll(current);
+				previous = current;
+			}
+		},"MiniDeadlockDetector");
+		t.setDaemon(true);
+		t.start();
+		detector = t;
+	}
+
+	/**
+	 * 关闭检测：不再登记新的等待
+	 * 已经登记的等待关系不清空，由对应的线程结束排队时自己删除：
+	 * 这些线程可能还挂起在队列里，如果在这里清空，重新开启检测之后就再也看不到它们参与的环了
+	 */
+	public static synchronized void disable(){
+		enabled = false;
+		if(detector != null){
+			detector.interrupt();
+			detector = null;
+		}
+	}
+
+	/**
+	 * 当前线程开始排队等待lock
+	 */
+	static void beginWait(MiniReentrantLock lock){
+		WAITING.put(Thread.currentThread(),lock);
+	}
+
+	/**
+	 * 当前线程结束排队(拿到锁 或者 取消排队)
+	 * 不管现在有没有开启检测都要调用：开始排队时登记了、排队期间检测被关闭的线程也要删掉自己的登记
+	 */
+	static void endWait(){
+		if(!WAITING.isEmpty()){
+			WAITING.remove(Thread.currentThread());
+		}
+	}
+
+	/**
+	 * 扫描一次等待图，返回现在能看到的所有死锁环
+	 * 读取的是各个锁、各个线程在不同时刻的状态，结果可能包含刚好正在变化的假环，后台检测会再确认一次
+	 */
+	public static List<Deadlock> findDeadlocks(){
+		Map<Thread,MiniReentrantLock> waiting = new HashMap<Thread,MiniReentrantLock>(WAITING);
+		/**
+		 * 0(不在map中)：没访问过
+		 * 1：在当前这条路径上
+		 * 2：访问完了，不在环上 或者 所在的环已经找到了
+		 */
+		Map<Thread,Integer> state = new HashMap<Thread,Integer>();
+		List<Deadlock> result = new ArrayList<Deadlock>();
+		for(Thread start : waiting.keySet()){
+			if(state.containsKey(start)){
+				continue;
+			}
+			List<Thread> path = new ArrayList<Thread>();
+			Thread t = start;
+			while (t != null && !state.containsKey(t)){
+				state.put(t,1);
+				path.add(t);
+				MiniReentrantLock lock = waiting.get(t);
+				t = lock == null ? null : lock.getExclusiveOwnerThread();
+			}
+			if(t != null && state.get(t) == 1){
+				List<Thread> cycle = new ArrayList<Thread>(path.subList(path.indexOf(t),path.size()));
+				result.add(new Deadlock(cycle,waiting));
+			}
+			for(Thread p : path){
+				state.put(p,2);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 一个死锁环：threads[i] 在等 locks[i]，locks[i] 被 threads[i + 1] 持有(最后一个被第一个持有)
+	 */
+	public static final class Deadlock{
+		private final List<Thread> threads;
+		private final List<MiniReentrantLock> locks;
+		private final List<StackTraceElement[]> stackTraces;
+
+		Deadlock(List<Thread> cycle,Map<Thread,MiniReentrantLock> waiting) {
+			//从环上"最小"的线程开始，同一个环每次扫描得到的列表都一样，可以用来去重
+			int first = 0;
+			for(int i = 1; i < cycle.size(); i++){
+				if(cycle.get(i).getId() < cycle.get(first).getId()){
+					first = i;
+				}
+			}
+			Collections.rotate(cycle,-first);
+			this.threads = Collections.unmodifiableList(cycle);
+			List<MiniReentrantLock> locks = new ArrayList<MiniReentrantLock>();
+			List<StackTraceElement[]> traces = new ArrayList<StackTraceElement[]>();
+			for(Thread t : cycle){
+				locks.add(waiting.get(t));
+				traces.add(t.getStackTrace());
+			}
+			this.locks = Collections.unmodifiableList(locks);
+			this.stackTraces = Collections.unmodifiableList(traces);
+		}
+
+		public List<Thread> getThreads() {
+			return threads;
+		}
+
+		public List<MiniReentrantLock> getLocks() {
+			return locks;
+		}
+
+		public List<StackTraceElement[]> getStackTraces() {
+			return stackTraces;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("发现死锁，涉及").append(threads.size()).append("个线程：\n");
+			for(int i = 0; i < threads.size(); i++){
+				Thread t = threads.get(i);
+				Thread owner = threads.get((i + 1) % threads.size());
+				sb.append('"').append(t.getName()).append("\" 等待 ").append(nameOf(locks.get(i)))
+						.append("，它被 \"").append(owner.getName()).append("\" 持有\n");
+				for(StackTraceElement e : stackTraces.get(i)){
+					sb.append("\tat ").append(e).append('\n');
+				}
+			}
+			return sb.toString();
+		}
+
+		private static String nameOf(MiniReentrantLock lock){
+			return lock.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(lock));
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.dlw;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 以2的幂次分桶的耗时直方图(单位：纳秒)
+ *
+ * 第i个桶统计落在 [2^(i-1), 2^i) 之间的值，第0个桶统计0。
+ * 每个桶都是一个LongAdder(分段计数)，多个线程同时记录也不会竞争同一个缓存行，
+ * 代价是精度只到2倍，对于"是几百纳秒还是几毫秒"这种判断已经足够了。
+ */
+public class MiniHistogram {
+
+	static final int BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+
+	public MiniHistogram() {
+		for(int i = 0; i < BUCKETS; i++){
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos){
+		if(nanos < 0L){
+			nanos = 0L;
+		}
+		buckets[bucketOf(nanos)].increment();
+		sum.add(nanos);
+	}
+
+	static int bucketOf(long nanos){
+		return Math.min(BUCKETS - 1,64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * 第i个桶的上界
+	 */
+	static long upperBound(int bucket){
+		return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket);
+	}
+
+	public Snapshot snapshot(){
+		long[] counts = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++){
+			counts[i] = buckets[i].sum();
+		}
+		return new Snapshot(counts,sum.sum());
+	}
+
+	/**
+	 * 某一时刻的直方图快照
+	 * 各个桶是分别读取的，记录并发进行时快照不是严格的某一瞬间，统计用途足够了
+	 */
+	public static final class Snapshot{
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+
+		Snapshot(long[] counts,long sum) {
+			this.counts = counts;
+			long c = 0;
+			for(long n : counts){
+				c += n;
+			}
+			this.count = c;
+			this.sum = sum;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getMean(){
+			return count == 0 ? 0L : sum / count;
+		}
+
+		/**
+		 * 百分位数的估算值(所在桶的上界)
+		 * @param p 0 ~ 1，比如0.99
+		 */
+		public long getPercentile(double p){
+			if(count == 0){
+				return 0L;
+			}
+			long rank = (long) Math.ceil(p * count);
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++){
+				seen += counts[i];
+				if(seen >= rank && counts[i] != 0){
+					return upperBound(i);
+				}
+			}
+			return upperBound(counts.length - 1);
+		}
+
+		public long[] getCounts() {
+			return counts.clone();
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + ", mean=" + getMean() + "ns, p50<=" + getPercentile(0.5) + "ns, p99<="
+					+ getPercentile(0.99) + "ns, p999<=" + getPercentile(0.999) + "ns";
+		}
+	}
+}
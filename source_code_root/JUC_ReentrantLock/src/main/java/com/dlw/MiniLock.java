@@ -1,6 +1,28 @@
 package com.dlw;
 
+import java.util.concurrent.TimeUnit;
+
 public interface MiniLock {
 	void lock();
+
+	/**
+	 * 获取锁，等待过程中可以响应中断
+	 * 被中断时，当前线程会退出阻塞队列，并抛出InterruptedException
+	 */
+	void lockInterruptibly() throws InterruptedException;
+
+	/**
+	 * 尝试获取锁，不会阻塞线程
+	 * true -> 抢占成功
+	 * false -> 抢占失败
+	 */
+	boolean tryLock();
+
+	/**
+	 * 在给定的时间内尝试获取锁
+	 * 超时仍未获取到锁，则返回false，当前线程不会继续留在阻塞队列中
+	 */
+	boolean tryLock(long time, TimeUnit unit) throws InterruptedException;
+
 	void unlock();
 }
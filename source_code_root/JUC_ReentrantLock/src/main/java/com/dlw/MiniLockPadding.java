@@ -0,0 +1,75 @@
+package com.dlw;
+
+import com.dlw.MiniQueuedSynchronizer.Node;
+
+/**
+ * MiniReentrantLock的字段布局
+ *
+ * 为什么要有下面这几个padding类？
+ * state 和 head/tail 如果在同一个缓存行上：
+ * 每个入队的线程cas tail，都会让持锁线程、自旋线程缓存的state失效(伪共享)，反过来cas state也会影响入队。
+ * 同样，从队列里抢到锁的线程会写spinBudget、starving，如果它们和tail挨在一起，也会和入队的线程互相干扰。
+ *
+ * 为什么不直接在MiniReentrantLock里声明一堆long字段？
+ * 同一个类里的字段，JVM会按类型重新排列(long在前，int在后，引用最后)，声明顺序没用。
+ * 但父类的字段一定排在子类字段的前面，所以用继承来保证：
+ * 	[padding] [state、持锁线程] [padding] [head、tail] [padding] [MiniReentrantLock自己的字段 ...]
+ * 每段padding15个long(120字节)，考虑到cpu会成对预取相邻的两个64字节缓存行。
+ *
+ * 为什么是嵌套类？
+ * 写在MiniReentrantLock.java里的顶层类只能在那个文件里使用，其它地方(比如FalseSharingBenchmark)反射查看偏移量时javac会告警。
+ */
+final class MiniLockPadding {
+
+	private MiniLockPadding() {
+	}
+
+	abstract static class Lhs {
+		/**
+		 * 对象头后面可能有4字节的空隙，新版本JVM会把子类的int字段(state)塞进去，先用一个int占住
+		 */
+		int p00;
+		long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+	}
+
+	abstract static class State extends Lhs {
+		/**
+		 * 锁的是什么？
+		 * 资源 --> state
+		 * 0:表示未加锁状态
+		 * >0:加锁状态
+		 */
+		volatile int state;
+
+		/**
+		 * 独占模式：同一时刻只有一个线程可以持有锁，其他线程再未获取到锁时，会被阻塞...
+		 * 当前独占锁的线程(占用锁线程)
+		 */
+		Thread exclusiveOwnerThread;
+
+		/**
+		 * 开启统计时，当前这一次持锁的开始时间
+		 * 只有抽样到的加锁才会记录，0表示没有抽样到。只有持锁线程会读写它
+		 */
+		long holdStartNanos;
+	}
+
+	abstract static class Mid extends State {
+		long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+	}
+
+	abstract static class Queue extends Mid {
+		/**
+		 * 需要有两个引用去维护阻塞队列
+		 * 1.Head 指向队列的头节点
+		 * 		head节点对应的线程，就是当前占用锁的线程。
+		 * 2.Tail 指向队列的尾节点
+		 */
+		volatile Node head;
+		volatile Node tail;
+	}
+
+	abstract static class Rhs extends Queue {
+		long p31, p32, p33, p34, p35, p36, p37, p38, p39, p40, p41, p42, p43, p44, p45;
+	}
+}
@@ -0,0 +1,288 @@
+package com.dlw;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MiniReentrantLock的竞争统计
+ *
+ * 统计项：
+ * 1.加锁次数、其中需要排队的次数
+ * 2.持锁时间、排队等待时间的直方图
+ * 3.阻塞队列的最大长度
+ * 4.park / unpark次数
+ * 5.每个持锁线程的持锁次数和持锁时间
+ *
+ * 为什么可以在生产环境一直开着？
+ * 1.所有计数器都是LongAdder/LongAccumulator(分段计数)，不会变成新的竞争点
+ * 2.计时(System.nanoTime)只对抽样到的加锁做，默认每64次抽1次
+ * 3.按线程统计只记录抽样到的持锁
+ * 4.按线程统计的条目有上限(MAX_OWNERS)：线程很多(比如大量短命的线程、虚拟线程)时，
+ * 		超出上限的线程都记到一个OTHERS条目里；每次snapshot会把已经结束的线程并进OTHERS，腾出位置
+ */
+public class MiniLockProfiler {
+
+	private final int sampleMask;
+
+	final LongAdder acquisitions = new LongAdder();
+	final LongAdder contendedAcquisitions = new LongAdder();
+	final LongAdder parks = new LongAdder();
+	final LongAdder unparks = new LongAdder();
+	final LongAccumulator maxQueueLength = new LongAccumulator(Math::max,0L);
+	final MiniHistogram holdTime = new MiniHistogram();
+	final MiniHistogram waitTime = new MiniHistogram();
+
+	/**
+	 * 按线程统计最多记录多少个线程(并发新增时可能略微超过)
+	 */
+	static final int MAX_OWNERS = 64;
+
+	/**
+	 * OTHERS条目的线程id
+	 */
+	public static final long OTHERS_ID = -1L;
+
+	private final ConcurrentHashMap<Long,OwnerStats> owners = new ConcurrentHashMap<Long,OwnerStats>();
+
+	/**
+	 * 超出MAX_OWNERS的线程 以及 已经结束的线程
+	 */
+	private final OwnerStats others = new OwnerStats(null,"others");
+
+	/**
+	 * @param sampleRate 每sampleRate次加锁抽样计时一次，会向上取整成2的幂，1表示全部计时
+	 */
+	public MiniLockProfiler(int sampleRate) {
+		if(sampleRate <= 0){
+			throw new IllegalArgumentException("sampleRate must be positive");
+		}
+		int n = Integer.highestOneBit(sampleRate);
+		if(n < sampleRate){
+			n <<= 1;
+		}
+		this.sampleMask = n - 1;
+	}
+
+	/**
+	 * 这一次加锁要不要计时
+	 */
+	boolean sample(){
+		return sampleMask == 0 || (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+	}
+
+	void recordAcquire(boolean contended){
+		acquisitions.increment();
+		if(contended){
+			contendedAcquisitions.increment();
+		}
+	}
+
+	void recordQueueLength(long length){
+		maxQueueLength.accumulate(length);
+	}
+
+	void recordHold(Thread owner,long nanos){
+		holdTime.record(nanos);
+		Long id = owner.getId();
+		OwnerStats stats = owners.get(id);
+		if(stats == null){
+			if(owners.size() >= MAX_OWNERS){
+				stats = others;
+			}else {
+				OwnerStats created = new OwnerStats(owner,owner.getName());
+				stats = owners.putIfAbsent(id,created);
+				if(stats == null){
+					stats = created;
+				}
+			}
+		}
+		stats.record(nanos);
+	}
+
+	static final class OwnerStats{
+		/**
+		 * 弱引用：统计不能让已经结束的线程没法回收
+		 */
+		final WeakReference<Thread> thread;
+		final String name;
+		final LongAdder sampledHolds = new LongAdder();
+		final LongAdder holdNanos = new LongAdder();
+		final LongAccumulator maxHoldNanos = new LongAccumulator(Math::max,0L);
+
+		OwnerStats(Thread thread,String name) {
+			this.thread = new WeakReference<Thread>(thread);
+			this.name = name;
+		}
+
+		void record(long nanos){
+			sampledHolds.increment();
+			holdNanos.add(nanos);
+			maxHoldNanos.accumulate(nanos);
+		}
+
+		boolean isDead(){
+			Thread t = thread.get();
+			return t == null || !t.isAlive();
+		}
+
+		/**
+		 * 把另一个条目的计数并进来
+		 */
+		void merge(OwnerStats other){
+			sampledHolds.add(other.sampledHolds.sum());
+			holdNanos.add(other.holdNanos.sum());
+			maxHoldNanos.accumulate(other.maxHoldNanos.get());
+		}
+	}
+
+	public Snapshot snapshot(){
+		List<OwnerSnapshot> list = new ArrayList<OwnerSnapshot>();
+		for(Iterator<Map.Entry<Long,OwnerStats>> it = owners.entrySet().iterator(); it.hasNext(); ){
+			Map.Entry<Long,OwnerStats> e = it.next();
+			OwnerStats s = e.getValue();
+			/**
+			 * 结束的线程不会再持锁，把它的计数并进others，腾出位置
+			 * 先remove成功再merge：并发的snapshot不会把同一个条目并两次
+			 */
+			if(s.isDead()){
+				if(owners.remove(e.getKey(),s)){
+					others.merge(s);
+				}
+				continue;
+			}
+			list.add(new OwnerSnapshot(e.getKey(),s.name,s.sampledHolds.sum(),s.holdNanos.sum(),s.maxHoldNanos.get()));
+		}
+		if(others.sampledHolds.sum() > 0L){
+			list.add(new OwnerSnapshot(OTHERS_ID,others.name,others.sampledHolds.sum(),others.holdNanos.sum(),others.maxHoldNanos.get()));
+		}
+		return new Snapshot(acquisitions.sum(),contendedAcquisitions.sum(),parks.sum(),unparks.sum(),
+				maxQueueLength.get(),holdTime.snapshot(),waitTime.snapshot(),list);
+	}
+
+	public static final class Snapshot{
+		private final long acquisitions;
+		private final long contendedAcquisitions;
+		private final long parks;
+		private final long unparks;
+		private final long maxQueueLength;
+		private final MiniHistogram.Snapshot holdTime;
+		private final MiniHistogram.Snapshot waitTime;
+		private final List<OwnerSnapshot> owners;
+
+		Snapshot(long acquisitions,long contendedAcquisitions,long parks,long unparks,long maxQueueLength,
+				 MiniHistogram.Snapshot holdTime,MiniHistogram.Snapshot waitTime,List<OwnerSnapshot> owners) {
+			this.acquisitions = acquisitions;
+			this.contendedAcquisitions = contendedAcquisitions;
+			this.parks = parks;
+			this.unparks = unparks;
+			this.maxQueueLength = maxQueueLength;
+			this.holdTime = holdTime;
+			this.waitTime = waitTime;
+			this.owners = Collections.unmodifiableList(owners);
+		}
+
+		public long getAcquisitions() {
+			return acquisitions;
+		}
+
+		public long getContendedAcquisitions() {
+			return contendedAcquisitions;
+		}
+
+		public long getParks() {
+			return parks;
+		}
+
+		public long getUnparks() {
+			return unparks;
+		}
+
+		public long getMaxQueueLength() {
+			return maxQueueLength;
+		}
+
+		/**
+		 * 抽样到的持锁时间
+		 */
+		public MiniHistogram.Snapshot getHoldTime() {
+			return holdTime;
+		}
+
+		/**
+		 * 抽样到的排队等待时间(只统计需要排队的加锁)
+		 */
+		public MiniHistogram.Snapshot getWaitTime() {
+			return waitTime;
+		}
+
+		public List<OwnerSnapshot> getOwners() {
+			return owners;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("acquisitions=").append(acquisitions)
+					.append(", contended=").append(contendedAcquisitions)
+					.append(", parks=").append(parks)
+					.append(", unparks=").append(unparks)
+					.append(", maxQueueLength=").append(maxQueueLength)
+					.append("\n  hold: ").append(holdTime)
+					.append("\n  wait: ").append(waitTime);
+			for(OwnerSnapshot o : owners){
+				sb.append("\n  ").append(o);
+			}
+			return sb.toString();
+		}
+	}
+
+	public static final class OwnerSnapshot{
+		private final long threadId;
+		private final String threadName;
+		private final long sampledHolds;
+		private final long holdNanos;
+		private final long maxHoldNanos;
+
+		OwnerSnapshot(long threadId,String threadName,long sampledHolds,long holdNanos,long maxHoldNanos) {
+			this.threadId = threadId;
+			this.threadName = threadName;
+			this.sampledHolds = sampledHolds;
+			this.holdNanos = holdNanos;
+			this.maxHoldNanos = maxHoldNanos;
+		}
+
+		public long getThreadId() {
+			return threadId;
+		}
+
+		public String getThreadName() {
+			return threadName;
+		}
+
+		public long getSampledHolds() {
+			return sampledHolds;
+		}
+
+		public long getHoldNanos() {
+			return holdNanos;
+		}
+
+		public long getMaxHoldNanos() {
+			return maxHoldNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "owner[" + threadId + "," + threadName + "] sampledHolds=" + sampledHolds + ", holdNanos="
+					+ holdNanos + ", maxHoldNanos=" + maxHoldNanos;
+		}
+	}
+}
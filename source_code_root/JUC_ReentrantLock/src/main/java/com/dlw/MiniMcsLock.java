@@ -0,0 +1,161 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MCS自旋锁(不可重入)
+ *
+ * 和CLH一样是基于队列的自旋锁，先来后到，区别在于自旋的位置：
+ * 每个线程只在自己的节点(node.locked)上自旋，释放锁的线程把后继节点的locked置为false。
+ * 所有等待线程都在各自的缓存行上自旋，释放锁时只会让一个缓存行失效。
+ *
+ * 队列中间的节点没办法"取消排队"，所以超时、可中断的获取方式不排队，
+ * 而是不断地tryLock()，直到成功或者超时/被中断。
+ */
+public class MiniMcsLock implements MiniLock {
+
+	static final class QNode{
+		volatile boolean locked;
+		volatile QNode next;
+	}
+
+	/**
+	 * 队尾节点，null表示锁空闲
+	 */
+	private volatile QNode tail;
+
+	/**
+	 * 当前持有锁的线程，只用来检查unlock的调用者
+	 */
+	private Thread owner;
+
+	/**
+	 * 每个线程在这把锁上复用同一个节点
+	 */
+	private final ThreadLocal<QNode> myNode = new ThreadLocal<QNode>(){
+		@Override
+		protected QNode initialValue() {
+			return new QNode();
+		}
+	};
+
+	@Override
+	public void lock() {
+		QNode node = myNode.get();
+		node.next = null;
+		node.locked = true;
+		QNode pred = getAndSetTail(node);
+		if(pred != null){
+			pred.next = node;
+			int spins = 0;
+			while (node.locked){
+				//线程数比cpu核数多的时候，持锁线程可能被调度走了，时不时让出cpu
+				if((++spins & 63) == 0){
+					Thread.yield();
+				}
+			}
+		}
+		owner = Thread.currentThread();
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		int spins = 0;
+		while (!tryLock()){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * 只有队列为空时才能抢到锁
+	 */
+	@Override
+	public boolean tryLock() {
+		if(tail != null){
+			return false;
+		}
+		QNode node = myNode.get();
+		node.next = null;
+		node.locked = false;
+		if(compareAndSetTail(null,node)){
+			owner = Thread.currentThread();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(time);
+		int spins = 0;
+		while (!tryLock()){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if(deadline - System.nanoTime() <= 0L){
+				return false;
+			}
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+		if(owner != Thread.currentThread()){
+			throw new IllegalMonitorStateException();
+		}
+		owner = null;
+		QNode node = myNode.get();
+		if(node.next == null){
+			//没有后继节点，把tail还原成null
+			if(compareAndSetTail(node,null)){
+				return;
+			}
+			//cas失败说明有线程正在入队：已经设置了tail，还没来得及设置pred.next，等它一下
+			//入队的线程可能刚好被调度走了，和lock()一样时不时让出cpu
+			int spins = 0;
+			while (node.next == null){
+				if((++spins & 63) == 0){
+					Thread.yield();
+				}
+			}
+		}
+		node.next.locked = false;
+		node.next = null;
+	}
+
+	private static final Unsafe unsafe;
+	private static final long tailOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			tailOffset = unsafe.objectFieldOffset
+					(MiniMcsLock.class.getDeclaredField("tail"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+
+	private final QNode getAndSetTail(QNode update){
+		return (QNode) unsafe.getAndSetObject(this,tailOffset,update);
+	}
+
+	private final boolean compareAndSetTail(QNode expect,QNode update){
+		return unsafe.compareAndSwapObject(this,tailOffset,expect,update);
+	}
+}
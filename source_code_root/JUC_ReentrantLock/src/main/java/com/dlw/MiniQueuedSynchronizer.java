@@ -0,0 +1,529 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MiniReentrantLock、MiniReadWriteLock、MiniStampedLock 共用的阻塞队列
+ *
+ * Node + head + tail 组成的FIFO队列，head节点对应的线程就是当前占用锁的线程(或者刚通过排队拿到锁的线程)，
+ * 只有head.next有资格抢锁，抢不到就park，等释放锁的线程unparkSuccessor唤醒它。
+ * 入队、排队抢锁、取消排队、唤醒后继都只有这一份实现。
+ *
+ * 子类决定：
+ * 1.tryAcquireQueued：轮到head.next时怎么抢锁(独占/共享，要不要先自旋)
+ * 2.几个回调(默认什么都不做)：排队开始/结束、从队列里抢到锁、head.next抢锁失败、park/unpark，
+ * 		MiniReentrantLock用它们做竞争统计、混合模式的防饥饿、死锁检测，MiniReadWriteLock用来做共享模式的向后传播
+ *
+ * 字段布局见MiniLockPadding。
+ */
+abstract class MiniQueuedSynchronizer extends MiniLockPadding.Rhs {
+
+	/**
+	 * 超时获取锁时，剩余时间小于该阈值就不再park了，直接自旋。
+	 * 因为park/unpark一次的开销比这段时间还要大
+	 */
+	static final long SPIN_FOR_TIMEOUT_THRESHOLD = 1000L;
+
+	/**
+	 * 阻塞的线程被封装成什么？
+	 * Node节点，然后放入到FIFO队列
+	 */
+	static final class Node{
+		/** waitStatus值：表示当前node对应的线程已经取消排队了(等待超时 或者 被中断) */
+		static final int CANCELLED = 1;
+		/** waitStatus值：表示当前node在条件队列中等待(ConditionObject.await) */
+		static final int CONDITION = -2;
+
+		//封装的线程
+		volatile Thread thread;
+
+		//前置节点引用
+		volatile Node prev;
+		//后置节点引用
+		volatile Node next;
+
+		/**
+		 * 0：默认状态，正在排队
+		 * CANCELLED：已经取消排队，需要从队列中移除
+		 * CONDITION：在条件队列中等待，被signal之后才会转移到阻塞队列，变回0
+		 */
+		volatile int waitStatus;
+
+		/**
+		 * 入队序号：前置节点的序号 + 1
+		 * tail.seq - head.seq 就是当前排队的节点个数，开启竞争统计时用来记录最大队列长度
+		 * 中间取消排队的节点也会被算进去(序号不会重排)，所以这是一个上界
+		 */
+		long seq;
+
+		/**
+		 * 共享模式的标记节点(MiniReadWriteLock的读锁)
+		 * nextWaiter == SHARED，表示当前node在等待共享锁
+		 */
+		static final Node SHARED = new Node();
+		/**
+		 * 独占模式(MiniReentrantLock 以及 MiniReadWriteLock的写锁)
+		 */
+		static final Node EXCLUSIVE = null;
+
+		/**
+		 * 阻塞队列中：等待模式，null表示独占模式，SHARED表示共享模式
+		 * 条件队列中：指向条件队列的下一个节点(条件队列只会是独占模式)
+		 */
+		Node nextWaiter;
+
+		public Node() {
+		}
+
+		public Node(Thread thread) {
+			this.thread = thread;
+		}
+
+		public Node(Thread thread,Node mode) {
+			this.thread = thread;
+			this.nextWaiter = mode;
+		}
+
+		final boolean isShared(){
+			return nextWaiter == SHARED;
+		}
+	}
+
+	/**
+	 * node已经是head.next了，尝试抢锁
+	 * @return true：抢锁成功
+	 */
+	abstract boolean tryAcquireQueued(Node node,int arg);
+
+	/**
+	 * node刚入队，准备开始排队
+	 * @return 排队期间需要记住的一个值，原样传给queuedAcquired/headAcquireFailed
+	 */
+	long beginQueuedWait(Node node){
+		return 0L;
+	}
+
+	/**
+	 * 从队列里抢到锁了，node已经是新的head
+	 */
+	void queuedAcquired(Node node,long token){
+	}
+
+	/**
+	 * node是head.next，但是没有抢到锁
+	 */
+	void headAcquireFailed(Node node,long token){
+	}
+
+	/**
+	 * 排队结束：拿到锁 或者 取消排队(超时、被中断)
+	 */
+	void endQueuedWait(){
+	}
+
+	/**
+	 * 排队的线程马上要park了
+	 */
+	void beforePark(){
+	}
+
+	/**
+	 * 马上要unpark一个排队的线程
+	 */
+	void beforeUnpark(){
+	}
+
+	/**
+	 * 当前线程入队的一个方法
+	 * @param mode Node.EXCLUSIVE 或者 Node.SHARED
+	 * @return 当前线程对应的Node节点
+	 */
+	final Node addWaiter(Node mode){
+		Node newNode = new Node(Thread.currentThread(),mode);
+
+		/**
+		 * 如何入队呢?
+		 * 1.如果队列不为空：找到newNode的前置节点
+		 * 2.更新newNode.prev == 前置节点
+		 * 3.CAS更新tail为newNode
+		 * 4.更新pred.next = newNode
+		 */
+		Node pred = tail;
+		if(pred != null){
+			//cas tail会把prev一起发布出去，这里不需要volatile写
+			setPrevRelaxed(newNode,pred);
+			newNode.seq = pred.seq + 1;
+			/**
+			 * 条件成立：说明当前线程成功入队。
+			 */
+			if(compareAndSetTail(pred,newNode)){
+				pred.next = newNode;
+				//入队成功一定要return，否则enq会把newNode再入队一次
+				return newNode;
+			}
+		}
+
+		/**
+		 * 执行到这里有几种情况？
+		 * 1.tail == null队列是空队列
+		 * 2.cas设置当前newNode 为tail时失败了..被其他线程抢先一步了....
+		 */
+		enq(newNode);
+		return newNode;
+	}
+
+	/**
+	 * 通过自旋方式入队，只有成功后返回。
+	 * 1.tail == null队列是空队列
+	 * 2.cas设置当前newNode 为tail时失败了..被其他线程抢先一步了....
+	 * @return node的前置节点
+	 */
+	final Node enq(Node node){
+		for(;;){
+			/**
+			 * 第一种情况：tail == null队列是空队列
+			 * ==>
+			 * 	当前线程是第一个抢占锁失败的线程...当前持有锁的线程并没有设置为Node加入队列
+			 * 	所以需要给持有锁的线程补充一个Node 作为head节点(head节点表示占有锁的线程)
+			 */
+			if(tail == null){
+				/**
+				 * 条件成立：说明当前线程给当前持有锁的线程补充head操作成功了。
+				 */
+				if(compareAndSetHead(new Node())){
+					tail = head;
+				}
+			}else {
+				/**
+				 * 说明当前队列中已经有node了，这里是一个追加node的过程，和addWaiter一样
+				 */
+				Node pred = tail;
+				if(pred != null){
+					setPrevRelaxed(node,pred);
+					node.seq = pred.seq + 1;
+					/**
+					 * 条件成立：说明当前线程成功入队。
+					 */
+					if(compareAndSetTail(pred,node)){
+						pred.next = node;
+						//入队成功一定要return
+						return pred;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 只有当前线程成拿到锁之后才会返回
+	 * 挂起期间不响应中断，只是记录下来
+	 * @param node 已经入队的节点
+	 * @return true：等待过程中被中断过
+	 */
+	final boolean acquireQueued(Node node,int arg){
+		final long token = beginQueuedWait(node);
+		boolean interrupted = false;
+		boolean failed = true;
+		try{
+			for(;;){
+				/**
+				 * 什么情况下，当前node被唤醒后可以尝试去获取锁呢？
+				 * 1. 当前node试试head的next节点，也就是先来后到
+				 */
+				if(acquiredAsHead(node,arg,token)){
+					failed = false;
+					return interrupted;
+				}
+				if(shouldParkAfterFailedAcquire(node)){
+					beforePark();
+					//将当前线程挂起
+					LockSupport.park(this);
+					/**
+					 * 清除中断标记，否则下一次park会直接返回，线程会一直空转
+					 */
+					if(Thread.interrupted()){
+						interrupted = true;
+					}
+				}
+			}
+		}finally {
+			endQueuedWait();
+			//只有tryAcquireQueued抛出异常(比如重入次数超过上限)才会走到这里
+			if(failed){
+				cancelAcquire(node);
+			}
+		}
+	}
+
+	/**
+	 * 与acquireQueued的区别：被中断时，取消排队并抛出InterruptedException
+	 */
+	final void doAcquireInterruptibly(Node mode,int arg) throws InterruptedException{
+		Node node = addWaiter(mode);
+		final long token = beginQueuedWait(node);
+		boolean failed = true;
+		try{
+			for(;;){
+				if(acquiredAsHead(node,arg,token)){
+					failed = false;
+					return;
+				}
+				if(shouldParkAfterFailedAcquire(node)){
+					beforePark();
+					LockSupport.park(this);
+					if(Thread.interrupted()){
+						throw new InterruptedException();
+					}
+				}
+			}
+		}finally {
+			endQueuedWait();
+			if(failed){
+				cancelAcquire(node);
+			}
+		}
+	}
+
+	/**
+	 * 在nanosTimeout时间内排队获取锁
+	 * 超时 返回false，被中断 抛出InterruptedException，这两种情况都会取消node的排队
+	 */
+	final boolean doAcquireNanos(Node mode,int arg,long nanosTimeout) throws InterruptedException{
+		if(nanosTimeout <= 0L){
+			return false;
+		}
+		final long deadline = System.nanoTime() + nanosTimeout;
+		Node node = addWaiter(mode);
+		final long token = beginQueuedWait(node);
+		boolean failed = true;
+		try{
+			for(;;){
+				if(acquiredAsHead(node,arg,token)){
+					failed = false;
+					return true;
+				}
+				nanosTimeout = deadline - System.nanoTime();
+				if(nanosTimeout <= 0L){
+					return false;
+				}
+				if(shouldParkAfterFailedAcquire(node) && nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD){
+					beforePark();
+					LockSupport.parkNanos(this,nanosTimeout);
+				}
+				if(Thread.interrupted()){
+					throw new InterruptedException();
+				}
+			}
+		}finally {
+			endQueuedWait();
+			if(failed){
+				cancelAcquire(node);
+			}
+		}
+	}
+
+	/**
+	 * node是head.next时抢一次锁
+	 * 抢到了：node成为新的head，老的head出队
+	 * @return true：抢锁成功
+	 */
+	private boolean acquiredAsHead(Node node,int arg,long token){
+		Node pred = node.prev;
+		if(head != pred){
+			return false;
+		}
+		if(tryAcquireQueued(node,arg)){
+			/**
+			 * 这里面说明当前线程竞争锁成功了
+			 * 这里需要做什么？
+			 * 1.设置head为当前线程的Node
+			 * 2.协助原始线程出队
+			 */
+			setHead(node);
+			pred.next = null;//help GC
+			queuedAcquired(node,token);
+			return true;
+		}
+		headAcquireFailed(node,token);
+		return false;
+	}
+
+	/**
+	 * 抢锁失败后，是否可以挂起当前线程？
+	 * 如果前置节点已经取消排队了，需要先跳过这些取消的节点，找到一个正常排队的节点作为新的前置节点。
+	 * 返回false，让调用者重新检查一下自己是不是head.next，再决定要不要挂起。
+	 */
+	private boolean shouldParkAfterFailedAcquire(Node node){
+		Node pred = node.prev;
+		if(pred.waitStatus == Node.CANCELLED){
+			/**
+			 * head节点不会是取消状态，所以这个循环最多走到head就会停下来
+			 */
+			do{
+				node.prev = pred = pred.prev;
+			}while (pred.waitStatus == Node.CANCELLED);
+			pred.next = node;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 取消node的排队(超时 或者 被中断)
+	 * 1.跳过已经取消的前置节点
+	 * 2.如果node是tail，直接把tail退回到pred
+	 * 3.否则把pred.next 指向 node.next，将node从队列中摘除。
+	 * 		如果pred已经是head了，说明node.next马上就有资格抢锁了，需要唤醒它
+	 */
+	private void cancelAcquire(Node node){
+		if(node == null){
+			return;
+		}
+		node.thread = null;
+
+		Node pred = node.prev;
+		while (pred.waitStatus == Node.CANCELLED){
+			node.prev = pred = pred.prev;
+		}
+		Node predNext = pred.next;
+
+		/**
+		 * 一定要在修改队列链接之前设置为CANCELLED，
+		 * 这样释放锁的线程在unparkSuccessor中就会跳过当前node
+		 */
+		node.waitStatus = Node.CANCELLED;
+
+		if(node == tail && compareAndSetTail(node,pred)){
+			compareAndSetNext(pred,predNext,null);
+		}else {
+			Node next = node.next;
+			if(pred != head && pred.thread != null && next != null && next.waitStatus != Node.CANCELLED){
+				compareAndSetNext(pred,predNext,next);
+			}else {
+				unparkSuccessor(node);
+			}
+			node.next = node;//help GC
+		}
+	}
+
+	/**
+	 * 锁释放了，如果有线程在排队，唤醒head.next
+	 * 不能只看head.next，因为入队时是先cas tail，再设置pred.next的
+	 */
+	final void signalNext(){
+		Node h = head;
+		if(h != null && h != tail){
+			unparkSuccessor(h);
+		}
+	}
+
+	/**
+	 * 唤醒node之后第一个没有取消排队的节点
+	 *
+	 * 为什么不像AQS那样，next不可用时直接从tail往前找？
+	 * 从tail往前找要把整个队列走一遍，排队的线程很多时(比如十几万个虚拟线程)，每次释放锁都是O(n)。
+	 * 这里先顺着next往后跳过取消的节点，通常几步就找到了；
+	 * 只有遇到next还没设置好(null) 或者 已经出队的取消节点(next指向自己)时，才从tail往前找，
+	 * 而且找到这个位置就停下来，只需要扫过它后面刚入队的那几个节点。
+	 */
+	final void unparkSuccessor(Node node){
+		Node s = node.next;
+		Node stop = node;
+		while (s != null && s.waitStatus == Node.CANCELLED){
+			Node n = s.next;
+			if(n == s){
+				//s已经被cancelAcquire摘除了，它的next没有意义
+				n = null;
+			}
+			stop = s;
+			s = n;
+		}
+		if(s == null){
+			for(Node p = tail; p != null && p != node && p != stop; p = p.prev){
+				if(p.waitStatus != Node.CANCELLED){
+					s = p;
+				}
+			}
+		}
+		Thread t;
+		if(s != null && (t = s.thread) != null){
+			beforeUnpark();
+			LockSupport.unpark(t);
+		}
+	}
+
+	final void setHead(Node node){
+		this.head = node;
+		/**
+		 * 为什么要设置为null？
+		 * 因为当前node已经是获取锁成功的线程了...
+		 */
+		node.thread = null;
+		setPrevRelaxed(node,null);
+	}
+
+	private static final Unsafe unsafe;
+	private static final long stateOffset;
+	private static final long headOffset;
+	private static final long tailOffset;
+	private static final long nextOffset;
+	private static final long prevOffset;
+	private static final long waitStatusOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			stateOffset =  unsafe.objectFieldOffset
+					(MiniLockPadding.State.class.getDeclaredField("state"));
+			headOffset =  unsafe.objectFieldOffset
+					(MiniLockPadding.Queue.class.getDeclaredField("head"));
+			tailOffset =  unsafe.objectFieldOffset
+					(MiniLockPadding.Queue.class.getDeclaredField("tail"));
+			nextOffset = unsafe.objectFieldOffset
+					(Node.class.getDeclaredField("next"));
+			prevOffset = unsafe.objectFieldOffset
+					(Node.class.getDeclaredField("prev"));
+			waitStatusOffset = unsafe.objectFieldOffset
+					(Node.class.getDeclaredField("waitStatus"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+
+	private final boolean compareAndSetHead(Node update){
+		return unsafe.compareAndSwapObject(this,headOffset,null,update);
+	}
+
+	private boolean compareAndSetTail(Node expect,Node update){
+		return unsafe.compareAndSwapObject(this,tailOffset,expect,update);
+	}
+
+	final boolean compareAndSetState(int expect,int update){
+		return unsafe.compareAndSwapInt(this,stateOffset,expect,update);
+	}
+
+	private static boolean compareAndSetNext(Node node,Node expect,Node update){
+		return unsafe.compareAndSwapObject(node,nextOffset,expect,update);
+	}
+
+	/**
+	 * 有序写(release语义)：保证之前的写不会重排序到它后面，但不等待写入对其它线程可见
+	 */
+	final void setStateOrdered(int update){
+		unsafe.putOrderedInt(this,stateOffset,update);
+	}
+
+	static boolean compareAndSetWaitStatus(Node node,int expect,int update){
+		return unsafe.compareAndSwapInt(node,waitStatusOffset,expect,update);
+	}
+
+	private static void setPrevRelaxed(Node node,Node update){
+		unsafe.putOrderedObject(node,prevOffset,update);
+	}
+}
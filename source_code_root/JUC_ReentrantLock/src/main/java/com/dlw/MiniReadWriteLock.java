@@ -0,0 +1,406 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读写锁
+ * 阻塞队列和MiniReentrantLock是同一套(MiniQueuedSynchronizer)，在此基础上增加了共享模式(读锁)。
+ *
+ * 1.读读不互斥，读写、写写互斥
+ * 2.读锁、写锁都可以重入，持有写锁的线程还可以再获取读锁(锁降级)
+ * 3.写优先：只要有写线程在排队，新来的读线程就不能再抢读锁了，需要去排队，避免写线程饿死
+ */
+public class MiniReadWriteLock extends MiniQueuedSynchronizer {
+
+	/**
+	 * state(继承自MiniQueuedSynchronizer，持有写锁的线程是exclusiveOwnerThread)拆成两半来用
+	 * 高16位：读锁被持有的次数(所有读线程的重入次数之和)
+	 * 低16位：写锁的重入次数
+	 */
+	static final int SHARED_SHIFT = 16;
+	static final int SHARED_UNIT = (1 << SHARED_SHIFT);
+	static final int MAX_COUNT = (1 << SHARED_SHIFT) - 1;
+	static final int EXCLUSIVE_MASK = (1 << SHARED_SHIFT) - 1;
+
+	static int sharedCount(int c){
+		return c >>> SHARED_SHIFT;
+	}
+
+	static int exclusiveCount(int c){
+		return c & EXCLUSIVE_MASK;
+	}
+
+	/**
+	 * 正在排队的写线程数量
+	 * 写优先：waitingWriters > 0 时，没有持有读锁的线程不能直接抢读锁
+	 */
+	private volatile int waitingWriters;
+
+	/**
+	 * 每个读线程自己的重入次数
+	 * 为什么需要它？
+	 * 1.已经持有读锁的线程重入时，就算有写线程在排队也必须放行，否则会死锁(写线程在等它释放读锁)
+	 * 2.释放读锁时，检查当前线程是不是真的持有读锁
+	 * 只有重入次数不为0的线程才会在这里有记录，次数减到0(或者根本没拿到读锁)时remove掉
+	 */
+	private final ThreadLocal<HoldCounter> readHolds = new ThreadLocal<HoldCounter>(){
+		@Override
+		protected HoldCounter initialValue() {
+			return new HoldCounter();
+		}
+	};
+
+	static final class HoldCounter{
+		int count;
+		/**
+		 * 用线程id而不是Thread引用，避免cachedHoldCounter让已经结束的线程没法回收
+		 */
+		final long tid = Thread.currentThread().getId();
+	}
+
+	/**
+	 * ThreadLocal的get/remove每次都要查哈希表，而读锁最常见的用法是：只有一个线程在读，或者同一个线程反复加锁、解锁。
+	 * 参考ReentrantReadWriteLock，加两层缓存，这两种情况都不用访问readHolds：
+	 * 1.firstReader：把读锁从0变成1的那个线程，它的重入次数直接记在firstReaderHoldCount里，不进readHolds
+	 * 2.cachedHoldCounter：最后一个成功获取读锁的线程的HoldCounter
+	 * 这几个字段不是volatile的：firstReader == 当前线程 只可能是当前线程自己写进去的；
+	 * cachedHoldCounter读到别的线程的也没关系，比较一下tid就知道了
+	 */
+	private Thread firstReader;
+	private int firstReaderHoldCount;
+	private HoldCounter cachedHoldCounter;
+
+	private final ReadLock readLock = new ReadLock();
+	private final WriteLock writeLock = new WriteLock();
+
+	public MiniLock readLock(){
+		return readLock;
+	}
+
+	public MiniLock writeLock(){
+		return writeLock;
+	}
+
+	final class ReadLock implements MiniLock{
+		@Override
+		public void lock() {
+			if(!tryAcquireShared(false)){
+				acquireQueuedUninterruptibly(Node.SHARED);
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if(!tryAcquireShared(false)){
+				doAcquireInterruptibly(Node.SHARED,1);
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			return tryAcquireShared(false);
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			return tryAcquireShared(false) || doAcquireNanos(Node.SHARED,1,unit.toNanos(time));
+		}
+
+		@Override
+		public void unlock() {
+			if(tryReleaseShared()){
+				signalNext();
+			}
+		}
+	}
+
+	final class WriteLock implements MiniLock{
+		@Override
+		public void lock() {
+			if(!tryAcquire()){
+				addWaitingWriters(1);
+				try{
+					acquireQueuedUninterruptibly(Node.EXCLUSIVE);
+				}finally {
+					addWaitingWriters(-1);
+				}
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if(!tryAcquire()){
+				addWaitingWriters(1);
+				try{
+					doAcquireInterruptibly(Node.EXCLUSIVE,1);
+				}finally {
+					addWaitingWriters(-1);
+				}
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			return tryAcquire();
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if(tryAcquire()){
+				return true;
+			}
+			addWaitingWriters(1);
+			try{
+				return doAcquireNanos(Node.EXCLUSIVE,1,unit.toNanos(time));
+			}finally {
+				addWaitingWriters(-1);
+			}
+		}
+
+		@Override
+		public void unlock() {
+			if(tryRelease()){
+				signalNext();
+			}
+		}
+	}
+
+	/**
+	 * 尝试获取写锁
+	 * 1.state != 0
+	 * 		写锁次数为0：说明有读线程持有读锁，失败
+	 * 		写锁次数不为0，但持有者不是当前线程，失败
+	 * 		否则就是写锁重入
+	 * 2.state == 0，cas抢锁
+	 */
+	private boolean tryAcquire(){
+		Thread current = Thread.currentThread();
+		int c = state;
+		int w = exclusiveCount(c);
+		if(c != 0){
+			if(w == 0 || current != exclusiveOwnerThread){
+				return false;
+			}
+			if(w + 1 > MAX_COUNT){
+				throw new Error("Maximum lock count exceeded");
+			}
+			//重入，不存在并发
+			state = c + 1;
+			return true;
+		}
+		if(!compareAndSetState(c,c + 1)){
+			return false;
+		}
+		exclusiveOwnerThread = current;
+		return true;
+	}
+
+	/**
+	 * 释放写锁
+	 * @return true：写锁已经完全释放
+	 */
+	private boolean tryRelease(){
+		if(exclusiveOwnerThread != Thread.currentThread()){
+			throw new IllegalMonitorStateException();
+		}
+		int nextc = state - 1;
+		boolean free = exclusiveCount(nextc) == 0;
+		if(free){
+			exclusiveOwnerThread = null;
+		}
+		state = nextc;
+		return free;
+	}
+
+	/**
+	 * 尝试获取读锁
+	 * @param queued true：当前线程是排到head.next的节点，已经在队列里按先来后到等过了，不再受写优先的限制
+	 */
+	private boolean tryAcquireShared(boolean queued){
+		Thread current = Thread.currentThread();
+		for(;;){
+			int c = state;
+			if(exclusiveCount(c) != 0 && exclusiveOwnerThread != current){
+				//其它线程持有写锁
+				return false;
+			}
+			/**
+			 * 写优先
+			 * 条件一：!queued 新来的读线程
+			 * 条件二：exclusiveOwnerThread != current 不是锁降级
+			 * 条件三：有写线程在排队
+			 * 条件四：不是读锁重入(前三个条件都满足才去查，一般情况下不用访问readHolds)
+			 */
+			if(!queued && exclusiveOwnerThread != current && waitingWriters > 0 && getReadHoldCount() == 0){
+				return false;
+			}
+			if(sharedCount(c) == MAX_COUNT){
+				throw new Error("Maximum lock count exceeded");
+			}
+			if(compareAndSetState(c,c + SHARED_UNIT)){
+				if(sharedCount(c) == 0){
+					firstReader = current;
+					firstReaderHoldCount = 1;
+				}else if(firstReader == current){
+					firstReaderHoldCount++;
+				}else {
+					HoldCounter rh = cachedHoldCounter;
+					if(rh == null || rh.tid != current.getId()){
+						cachedHoldCounter = rh = readHolds.get();
+					}else if(rh.count == 0){
+						//缓存的HoldCounter之前减到0时已经从readHolds里remove掉了，重新放回去
+						readHolds.set(rh);
+					}
+					rh.count++;
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 释放读锁
+	 * @return true：state变成0了，需要唤醒排队的线程(一般是写线程)
+	 */
+	private boolean tryReleaseShared(){
+		Thread current = Thread.currentThread();
+		if(firstReader == current){
+			if(firstReaderHoldCount == 1){
+				firstReader = null;
+			}else {
+				firstReaderHoldCount--;
+			}
+		}else {
+			HoldCounter rh = cachedHoldCounter;
+			if(rh == null || rh.tid != current.getId()){
+				rh = readHolds.get();
+			}
+			int count = rh.count;
+			if(count <= 1){
+				readHolds.remove();
+				if(count <= 0){
+					throw new IllegalMonitorStateException();
+				}
+			}
+			rh.count--;
+		}
+		for(;;){
+			int c = state;
+			int nextc = c - SHARED_UNIT;
+			if(compareAndSetState(c,nextc)){
+				return nextc == 0;
+			}
+		}
+	}
+
+	/**
+	 * 排到head.next了：按节点的模式抢读锁或者写锁
+	 * 读线程已经在队列里按先来后到等过了，不再受写优先的限制
+	 */
+	@Override
+	boolean tryAcquireQueued(Node node,int arg){
+		return node.isShared() ? tryAcquireShared(true) : tryAcquire();
+	}
+
+	/**
+	 * 共享模式下抢到锁之后还需要向后传播：
+	 * 如果后继节点也在等读锁，那它现在也能拿到读锁，把它唤醒，它醒来后会继续唤醒它的后继...
+	 */
+	@Override
+	void queuedAcquired(Node node,long token){
+		if(node.isShared()){
+			Node s = node.next;
+			/**
+			 * s == null 不能说明没有后继，可能是后继节点cas tail成功了，还没来得及设置node.next
+			 */
+			if(s == null || s.isShared()){
+				unparkSuccessor(node);
+			}
+		}
+	}
+
+	/**
+	 * 排队获取锁，不响应中断，中断标记会保留下来
+	 */
+	private void acquireQueuedUninterruptibly(Node mode){
+		if(acquireQueued(addWaiter(mode),1)){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void addWaitingWriters(int delta){
+		unsafe.getAndAddInt(this,waitingWritersOffset,delta);
+	}
+
+	/**
+	 * 读锁被持有的总次数
+	 */
+	public int getReadLockCount(){
+		return sharedCount(state);
+	}
+
+	public boolean isWriteLocked(){
+		return exclusiveCount(state) != 0;
+	}
+
+	/**
+	 * 当前线程持有读锁的重入次数
+	 * 没有持有读锁时不会在readHolds里留下记录
+	 */
+	public int getReadHoldCount(){
+		if(sharedCount(state) == 0){
+			return 0;
+		}
+		Thread current = Thread.currentThread();
+		if(firstReader == current){
+			return firstReaderHoldCount;
+		}
+		HoldCounter rh = cachedHoldCounter;
+		if(rh != null && rh.tid == current.getId()){
+			return rh.count;
+		}
+		int count = readHolds.get().count;
+		if(count == 0){
+			readHolds.remove();
+		}
+		return count;
+	}
+
+	/**
+	 * 当前线程持有写锁的重入次数
+	 */
+	public int getWriteHoldCount(){
+		return exclusiveOwnerThread == Thread.currentThread() ? exclusiveCount(state) : 0;
+	}
+
+	private static final Unsafe unsafe;
+	private static final long waitingWritersOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			waitingWritersOffset = unsafe.objectFieldOffset
+					(MiniReadWriteLock.class.getDeclaredField("waitingWriters"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+}
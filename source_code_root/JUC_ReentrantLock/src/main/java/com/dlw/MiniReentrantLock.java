@@ -1,54 +1,91 @@
 package com.dlw;
 
-import sun.misc.Unsafe;
-
-import java.lang.reflect.Field;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.LockSupport;
 
-public class MiniReentrantLock implements MiniLock {
+/**
+ * 可重入的独占锁
+ * 阻塞队列(入队、排队抢锁、取消排队、唤醒后继)在MiniQueuedSynchronizer里，这里决定什么时候可以抢锁：
+ * 公平/非公平/混合模式、head.next自旋、竞争统计、死锁检测。
+ * 字段布局见MiniLockPadding：state、head/tail、下面这些字段各自在不同的缓存行上
+ */
+public class MiniReentrantLock extends MiniQueuedSynchronizer implements MiniLock {
+
 	/**
-	 * 锁的是什么？
-	 * 资源 --> state
-	 * 0:表示未加锁状态
-	 * >0:加锁状态
+	 * 自旋预算的上下限
+	 * MIN_SPINS：预算不会降到0，保证每次都还有机会重新"学习"持锁时间
+	 * MAX_SPINS：自旋最多也就几微秒，再长就不如直接park了
 	 */
-	private volatile int state;
+	static final int MIN_SPINS = 16;
+	static final int MAX_SPINS = 1 << 12;
 
 	/**
-	 * 独占模式：同一时刻只有一个线程可以持有锁，其他线程再未获取到锁时，会被阻塞...
-	 * 当前独占锁的线程(占用锁线程)
+	 * 当前锁学习到的自旋预算(自旋次数)
+	 * head.next节点抢锁失败后，先自旋spinBudget次，锁还没有释放才park。
+	 *
+	 * 怎么学习的？
+	 * 自旋期间抢到锁了：说明持锁时间大约是自旋i次的时间，预算往 2*i 靠拢
+	 * 自旋完都没抢到：说明持锁时间比较长，预算减半
+	 *
+	 * 为什么不用volatile？
+	 * 这只是一个估算值，多个线程并发覆盖也无所谓，没必要为它付出内存屏障的开销
 	 */
-	private Thread exclusiveOwnerThread;
+	private int spinBudget = 64;
 
 	/**
-	 * 需要有两个引用去维护阻塞队列
-	 * 1.Head 指向队列的头节点
-	 * 		head节点对应的线程，就是当前占用锁的线程。
-	 * 2.Tail 指向队列的尾节点
+	 * 竞争统计，null表示没有开启
+	 * 没开启时，加锁/解锁路径上只多了一次读取并判断null的开销
 	 */
-	private Node head;
-	private Node tail;
+	private volatile MiniLockProfiler profiler;
 
 	/**
-	 * 阻塞的线程被封装成什么？
-	 * Node节点，然后放入到FIFO队列
+	 * handoffNanos的两个特殊值
+	 * FAIR：公平锁，队列里有人就不允许插队
+	 * NEVER_HANDOFF：非公平锁，任何时候都允许插队
 	 */
-	static final class Node{
-		//封装的线程
-		Thread thread;
+	static final long FAIR = 0L;
+	static final long NEVER_HANDOFF = Long.MAX_VALUE;
 
-		//前置节点引用
-		Node prev;
-		//后置节点引用
-		Node next;
+	/**
+	 * 允许插队的时间上限(纳秒)
+	 *
+	 * 非公平锁吞吐量高(新来的线程直接抢锁，不用等排队的线程被唤醒)，
+	 * 但是负载高的时候，head.next被唤醒后总是抢不过新来的线程，可能一直饿着，表现为p99.9延迟的毛刺。
+	 * 混合模式：平时允许插队，head.next排队超过handoffNanos之后，打开starving标记，
+	 * 之后新来的线程都要排队，释放锁时锁就交给了head.next，最坏等待时间是有上界的。
+	 */
+	private final long handoffNanos;
 
-		public Node() {
-		}
+	/**
+	 * 混合模式下，head.next已经等得太久了，暂停插队
+	 * 由head.next打开，下一个从队列里抢到锁的线程关闭
+	 */
+	private volatile boolean starving;
 
-		public Node(Thread thread) {
-			this.thread = thread;
-		}
+	/**
+	 * 默认是公平锁
+	 */
+	public MiniReentrantLock() {
+		this(true);
+	}
+
+	/**
+	 * @param fair true：公平锁，false：非公平锁(允许插队，可能饿死排队的线程)
+	 */
+	public MiniReentrantLock(boolean fair) {
+		this.handoffNanos = fair ? FAIR : NEVER_HANDOFF;
+	}
+
+	/**
+	 * 混合模式：允许插队，但排在最前面的线程等待超过threshold之后，锁一定会交给它
+	 * @param threshold 允许插队的时间上限，<= 0 等价于公平锁
+	 */
+	public MiniReentrantLock(long threshold,TimeUnit unit) {
+		long nanos = unit.toNanos(threshold);
+		this.handoffNanos = nanos <= 0L ? FAIR : nanos;
 	}
 
 	/**
@@ -69,117 +106,64 @@ public class MiniReentrantLock implements MiniLock {
 	}
 
 	/**
-	 * 当前线程入队的一个方法
-	 * 返回当前线程对应的Node节点
-	 * @return
+	 * head.next节点抢锁：先抢一次，抢不到就自旋一会儿再抢
 	 */
-	private Node addWaiter(){
-		Node newNode = new Node(Thread.currentThread());
+	@Override
+	boolean tryAcquireQueued(Node node,int arg){
+		return tryAcquire(arg) || spinAcquire(node,arg);
+	}
 
-		/**
-		 * 如何入队呢?
-		 * 1.如果队列不为空：找到newNode的前置节点
-		 * 2.更新newNode.prev == 前置节点
-		 * 3.CAS更新tail为newNode
-		 * 4.更新pred.next = newNode
-		 */
-		Node pred = tail;
-		if(pred != null){
-			newNode.prev = pred;
+	/**
+	 * 挂起之前先自旋一会儿
+	 * 只有head.next节点才会来到这里，其它节点就算自旋也抢不到锁(公平锁)。
+	 *
+	 * 为什么要自旋？
+	 * 临界区很短的时候，持锁线程可能几百纳秒就释放锁了，
+	 * 这时park/unpark一次(线程上下文切换)的开销反而比等待的时间还长。
+	 * @return true：自旋期间抢锁成功
+	 */
+	private boolean spinAcquire(Node node,int arg){
+		int budget = spinBudget;
+		for(int i = 0; i < budget; i++){
 			/**
-			 * 条件成立：说明当前线程成功入队。
+			 * 先读一下state，锁空闲了才去cas，避免自旋期间不停的cas导致缓存行来回失效
 			 */
-			if(compareAndSetTail(pred,newNode)){
-				pred.next = newNode;
+			if(state == 0 && tryAcquire(arg)){
+				int learned = (budget + (i << 1)) >>> 1;
+				spinBudget = learned < MIN_SPINS ? MIN_SPINS : (learned > MAX_SPINS ? MAX_SPINS : learned);
+				return true;
 			}
 		}
+		int halved = budget >>> 1;
+		spinBudget = halved < MIN_SPINS ? MIN_SPINS : halved;
+		return false;
+	}
 
-		/**
-		 * 执行到这里有几种情况？
-		 * 1.tail == null队列是空队列
-		 * 2.cas设置当前newNode 为tail时失败了..被其他线程抢先一步了....
-		 */
-		enq(newNode);
-		return newNode;
-
+	/**
+	 * 混合模式才需要记录入队时间，其它模式不调用nanoTime
+	 */
+	private boolean isHandoffMode(){
+		return handoffNanos != FAIR && handoffNanos != NEVER_HANDOFF;
 	}
 
 	/**
-	 * 通过自旋方式入队，只有成功后返回。
-	 * 1.tail == null队列是空队列
-	 * 2.cas设置当前newNode 为tail时失败了..被其他线程抢先一步了....
+	 * head.next抢锁失败后调用：等待超过阈值就打开starving标记，不让新来的线程再插队
 	 */
-	private void enq(Node node){
-		for(;;){
-			/**
-			 * 第一种情况：tail == null队列是空队列
-			 * ==>
-			 * 	当前线程是第一个抢占锁失败的线程...当前持有锁的线程并没有设置为Node加入队列
-			 * 	所以需要给持有锁的线程补充一个Node 作为head节点(head节点表示占有锁的线程)
-			 */
-			if(tail == null){
-				/**
-				 * 条件成立：说明当前线程给当前持有锁的线程补充head操作成功了。
-				 */
-				if(compareAndSetHead(new Node())){
-					tail = head;
-				}
-			}else {
-				/**
-				 * 说明当前队列中已经有node了，这里是一个追加node的过程
-				 * 如何入队呢?
-				 * 1.如果队列不为空：找到newNode的前置节点
-				 * 2.更新newNode.prev == 前置节点
-				 * 3.CAS更新tail为newNode
-				 * 4.更新pred.next = newNode
-				 */
-				Node pred = tail;
-				if(pred != null){
-					node.prev = pred;
-					/**
-					 * 条件成立：说明当前线程成功入队。
-					 */
-					if(compareAndSetTail(pred,node)){
-						pred.next = node;
-						//入队成功一定要return
-						return;
-					}
-				}
-			}
+	private void checkStarving(long enqueueNanos){
+		if(!starving && System.nanoTime() - enqueueNanos >= handoffNanos){
+			starving = true;
 		}
 	}
 
-
 	/**
-	 * 只有当前线程成拿到锁之后才会返回
-	 * @param node
+	 * 从队列中抢到锁之后调用：这一次交接已经完成了，恢复插队
 	 */
-	private void acquireQueued(Node node,int arg){
-		for(;;){
-			/**
-			 * 什么情况下，当前node被唤醒后可以尝试去获取锁呢？
-			 * 1. 当前node试试head的next节点，也就是先来后到
-			 */
-			Node pred = node.prev;
-			if(head == pred && tryAcquire(arg)){
-				/**
-				 * 这里面说明当前线程竞争锁成功了
-				 * 这里需要做什么？
-				 * 1.设置head为当前线程的Node
-				 * 2.协助原始线程出队
-				 */
-				setHead(node);
-				pred.next = null;//help GC
-				return;
-			}
-
-			System.out.println("线程：" + Thread.currentThread().getName() + " 。 挂起!");
-			//将当前线程挂起
-			LockSupport.park();
-			System.out.println("线程：" + Thread.currentThread().getName() + " 。 唤醒成功!");
-
+	private void endStarving(){
+		if(starving){
+			starving = false;
 		}
 	}
+
 	/**
 	 * 竞争资源
 	 * 1.尝试获取锁，成功则占用锁，然后返回
@@ -187,7 +171,9 @@ public class MiniReentrantLock implements MiniLock {
 	 * @param arg
 	 */
 	private void acquire(int arg){
-		if(!tryAcquire(arg)){
+		if(tryAcquire(arg)){
+			profileFastAcquired();
+		}else {
 			/**
 			 * 抢占锁失败，需要做些什么呢？
 			 * 1.需要将当前线程封装成 node，加入到阻塞队列
@@ -204,14 +190,186 @@ public class MiniReentrantLock implements MiniLock {
 			 * 2.竞争资源的逻辑		acquireQueued()
 			 * */
 			//1.需要将当前线程封装成 node，加入到阻塞队列
-			Node node = addWaiter();
+			Node node = addWaiter(Node.EXCLUSIVE);
 			//2.需要将当前线程park掉，使线程处于挂起状态。
-			acquireQueued(node,arg);
+			if(acquireQueued(node,arg)){
+				//等待期间被中断过，把中断标记补回去，交给业务层处理
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		if(tryAcquire(1)){
+			profileFastAcquired();
+		}else {
+			doAcquireInterruptibly(Node.EXCLUSIVE,1);
 		}
 	}
 
+	/**
+	 * 和ReentrantLock.tryLock()一样，不管有没有排队的线程，只要锁空闲就直接抢
+	 * 混合模式的starving标记对它也不生效，要保证排队线程等待时间有上界，就不要在循环里不停地tryLock
+	 */
+	@Override
+	public boolean tryLock() {
+		if(nonfairTryAcquire(1)){
+			profileFastAcquired();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		if(tryAcquire(1)){
+			profileFastAcquired();
+			return true;
+		}
+		return doAcquireNanos(Node.EXCLUSIVE,1,unit.toNanos(time));
+	}
+
+	/**
+	 * 开启竞争统计，每64次加锁抽样计时一次
+	 */
+	public void enableProfiling(){
+		enableProfiling(64);
+	}
+
+	/**
+	 * 开启竞争统计，之前的统计数据会被丢弃
+	 * @param sampleRate 每sampleRate次加锁抽样计时一次
+	 */
+	public void enableProfiling(int sampleRate){
+		this.profiler = new MiniLockProfiler(sampleRate);
+	}
+
+	public void disableProfiling(){
+		this.profiler = null;
+	}
+
+	/**
+	 * @return 当前的统计快照，没有开启统计时返回null
+	 */
+	public MiniLockProfiler.Snapshot getProfileSnapshot(){
+		MiniLockProfiler p = profiler;
+		return p == null ? null : p.snapshot();
+	}
+
+	/**
+	 * 入队之后：
+	 * 1.开启了统计：记录队列长度，决定这一次排队要不要计时
+	 * 2.混合模式：记录入队时间，head.next用它判断自己是不是等得太久了
+	 * 3.开启了死锁检测：登记 当前线程 -> 这把锁
+	 * @return 排队开始的时间，0表示不需要计时。
+	 * 		混合模式下每次排队都要计时，开启统计时这些排队也都会计入等待时间(不再抽样)
+	 */
+	@Override
+	long beginQueuedWait(Node node){
+		long start = 0L;
+		MiniLockProfiler p = profiler;
+		if(p != null){
+			Node h = head;
+			if(h != null){
+				p.recordQueueLength(node.seq - h.seq);
+			}
+			if(p.sample()){
+				start = System.nanoTime();
+			}
+		}
+		if(start == 0L && isHandoffMode()){
+			start = System.nanoTime();
+		}
+		if(MiniDeadlockDetector.enabled){
+			MiniDeadlockDetector.beginWait(this);
+		}
+		return start;
+	}
+
+	@Override
+	void queuedAcquired(Node node,long waitStart){
+		if(isHandoffMode()){
+			endStarving();
+		}
+		MiniLockProfiler p = profiler;
+		if(p != null){
+			profileAcquired(p,true,waitStart);
+		}
+	}
+
+	@Override
+	void headAcquireFailed(Node node,long waitStart){
+		if(isHandoffMode()){
+			checkStarving(waitStart);
+		}
+	}
+
+	@Override
+	void endQueuedWait(){
+		MiniDeadlockDetector.endWait();
+	}
+
+	@Override
+	void beforePark(){
+		MiniLockProfiler p = profiler;
+		if(p != null){
+			p.parks.increment();
+		}
+	}
+
+	@Override
+	void beforeUnpark(){
+		MiniLockProfiler p = profiler;
+		if(p != null){
+			p.unparks.increment();
+		}
+	}
+
+	private void profileFastAcquired(){
+		MiniLockProfiler p = profiler;
+		if(p != null){
+			profileAcquired(p,false,0L);
+		}
+	}
+
+	/**
+	 * 加锁成功后的统计
+	 * @param contended 是否排过队
+	 * @param waitStart 排队开始的时间，0表示没有抽样到
+	 */
+	private void profileAcquired(MiniLockProfiler p,boolean contended,long waitStart){
+		if(state != 1){
+			//锁重入，只统计最外层的加锁
+			return;
+		}
+		p.recordAcquire(contended);
+		long now;
+		if(contended){
+			if(waitStart == 0L){
+				return;
+			}
+			now = System.nanoTime();
+			p.waitTime.record(now - waitStart);
+		}else {
+			if(!p.sample()){
+				return;
+			}
+			now = System.nanoTime();
+		}
+		holdStartNanos = now;
+	}
+
 	/**
 	 * 尝试获取锁，不会阻塞线程
+	 * 公平锁 或者 混合模式下head.next已经饿着了：先检查队列，不允许插队
+	 * 非公平锁 或者 混合模式的其它时候：直接抢
 	 * true -> 抢占成功
 	 * false -> 抢占失败
 	 * @param arg
@@ -221,14 +379,14 @@ public class MiniReentrantLock implements MiniLock {
 		if(state == 0){
 			/**
 			 * 当前state，是否可以直接抢锁呢。
-			 * 不可以，因为模拟的是公平锁，先来后到...
+			 * 公平锁不可以，先来后到...
 			 *
-			 * 条件一：!hasQueuedPredecessor()
-			 * 		true：当前线程前面没有等待者线程
+			 * 条件一：!canBarge() && hasQueuedPredecessor() 不成立
+			 * 		true：允许插队，或者当前线程前面没有等待者线程
 			 * 条件二：compareAndSetState(0,arg)
 			 * 		true：通过CAS方式设置状态成功(抢锁成功)。
 			 */
-			if(!hasQueuedPredecessor() && compareAndSetState(0,arg)){
+			if((canBarge() || !hasQueuedPredecessor()) && compareAndSetState(0,arg)){
 				/**
 				 * 抢锁成功，需要做些什么？
 				 * 1.将exclusiveOwnerThread 设置为当前进入if块中的线程
@@ -243,10 +401,11 @@ public class MiniReentrantLock implements MiniLock {
 			 *
 			 * 为什么不需要通过CAS操作？
 			 * 因为当前线程已经获取过锁，不存在并发的问题
+			 * 其它线程只关心state是不是0，重入前后都不是0，所以有序写(release)就够了，不需要volatile写的StoreLoad屏障
 			 */
 			int c = getState();
 			c = c + arg;
-			this.state = c;
+			setStateOrdered(c);
 			return true;
 		}
 		/**
@@ -257,6 +416,33 @@ public class MiniReentrantLock implements MiniLock {
 		return false;
 	}
 
+	/**
+	 * 当前是否允许不检查队列直接抢锁
+	 * 公平锁：handoffNanos == FAIR，永远不允许
+	 * 非公平锁：starving永远不会被打开，永远允许
+	 */
+	private boolean canBarge(){
+		return handoffNanos != FAIR && !starving;
+	}
+
+	/**
+	 * 不检查阻塞队列，直接抢锁
+	 */
+	private boolean nonfairTryAcquire(int arg){
+		Thread current = Thread.currentThread();
+		int c = getState();
+		if(c == 0){
+			if(compareAndSetState(0,arg)){
+				this.exclusiveOwnerThread = current;
+				return true;
+			}
+		}else if(current == this.exclusiveOwnerThread){
+			setStateOrdered(c + arg);
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * true：表示当前线程前面有等待着线程
 	 * false：当前线程前面没有其他等待者线程。
@@ -309,20 +495,16 @@ public class MiniReentrantLock implements MiniLock {
 		 * */
 		if(tryRelease(arg)){
 			Node th= this.head;
-			/**需要判断阻塞队列中是否有等待着线程*/
-			if(th.next != null){
+			/**
+			 * 需要判断阻塞队列中是否有等待着线程
+			 * 不能只看th.next，因为入队时是先cas tail，再设置pred.next的
+			 */
+			if(th != null && th != tail){
 				/**公平锁，就是唤醒head.next节点*/
-				unparkSuccessor(head);
+				unparkSuccessor(th);
 			}
 		}
 	}
-	private void unparkSuccessor(Node node){
-		Node s = node.next;
-		Thread t;
-		if(s != null && (t = s.thread) != null){
-			LockSupport.unpark(t);
-		}
-	}
 
 	/**
 	 * 完全释放锁成功。则返回true
@@ -345,11 +527,25 @@ public class MiniReentrantLock implements MiniLock {
 			 * 1.ExclusiveOwnerThread == null
 			 * 2.设置state == 0
 			 * */
+			long start = holdStartNanos;
+			if(start != 0L){
+				holdStartNanos = 0L;
+				MiniLockProfiler p = profiler;
+				if(p != null){
+					p.recordHold(exclusiveOwnerThread,System.nanoTime() - start);
+				}
+			}
 			this.exclusiveOwnerThread = null;
+			/**
+			 * 这里必须是volatile写：
+			 * 释放锁的线程 先写state 再读tail，入队的线程 先cas tail 再读state，
+			 * 需要StoreLoad屏障保证两边至少有一方能看到对方的写，否则会出现谁都不唤醒谁的情况
+			 */
 			this.state = c;
 			return true;
 		}
-		this.state = c;
+		//重入的锁还没完全释放，state还不是0，有序写就够了
+		setStateOrdered(c);
 		return false;
 	}
 
@@ -369,59 +565,331 @@ public class MiniReentrantLock implements MiniLock {
 		this.exclusiveOwnerThread = exclusiveOwnerThread;
 	}
 
-	public Node getHead() {
-		return head;
+	/**
+	 * 是否有线程在排队
+	 * 和hasQueuedPredecessor一样只比较head和tail，取消排队的节点还没被清理时也会返回true
+	 */
+	public boolean hasQueuedThreads(){
+		return head != tail;
 	}
 
-	public Node getTail() {
-		return tail;
+	/**
+	 * 当前线程是否持有锁
+	 */
+	public boolean isHeldExclusively(){
+		return exclusiveOwnerThread == Thread.currentThread();
 	}
 
-	public void setTail(Node tail) {
-		this.tail = tail;
+	/**
+	 * 创建一个和当前锁绑定的条件队列
+	 * 和Lock.newCondition()一样：调用await/signal之前必须先持有这把锁
+	 */
+	public Condition newCondition(){
+		return new ConditionObject();
 	}
 
-	private void setHead(Node node){
-		this.head = node;
+	/**
+	 * 条件队列
+	 *
+	 * 条件队列是一个单向链表(通过node.nextWaiter连接)，只有持锁线程才会操作它，所以不需要cas。
+	 * await：
+	 * 	1.把当前线程封装成node放入条件队列
+	 * 	2.完全释放锁(不管重入了几次)，记住state
+	 * 	3.park，直到node被signal转移到阻塞队列
+	 * 	4.在阻塞队列中重新抢锁，抢到后恢复之前的state
+	 * signal：
+	 * 	把条件队列的第一个node转移到阻塞队列的队尾，等轮到它时，释放锁的线程会唤醒它
+	 */
+	public class ConditionObject implements Condition{
+
+		/** 从await返回之前重新设置中断标记 */
+		private static final int REINTERRUPT = 1;
+		/** 从await返回时抛出InterruptedException */
+		private static final int THROW_IE = -1;
+
+		private Node firstWaiter;
+		private Node lastWaiter;
+
 		/**
-		 * 为什么要设置为null？
-		 * 因为当前node已经是获取锁成功的线程了...
+		 * 当前线程入条件队列
 		 */
-		node.thread = null;
-		node.prev = null;
-	}
+		private Node addConditionWaiter(){
+			if(!isHeldExclusively()){
+				throw new IllegalMonitorStateException();
+			}
+			Node t = lastWaiter;
+			//队尾的节点已经取消等待了，顺便清理一下
+			if(t != null && t.waitStatus != Node.CONDITION){
+				unlinkCancelledWaiters();
+				t = lastWaiter;
+			}
+			Node node = new Node(Thread.currentThread());
+			node.waitStatus = Node.CONDITION;
+			if(t == null){
+				firstWaiter = node;
+			}else {
+				t.nextWaiter = node;
+			}
+			lastWaiter = node;
+			return node;
+		}
+
+		/**
+		 * 把条件队列中已经取消等待(超时、被中断)的节点移除
+		 */
+		private void unlinkCancelledWaiters(){
+			Node t = firstWaiter;
+			Node trail = null;
+			while (t != null){
+				Node next = t.nextWaiter;
+				if(t.waitStatus != Node.CONDITION){
+					t.nextWaiter = null;
+					if(trail == null){
+						firstWaiter = next;
+					}else {
+						trail.nextWaiter = next;
+					}
+					if(next == null){
+						lastWaiter = trail;
+					}
+				}else {
+					trail = t;
+				}
+				t = next;
+			}
+		}
 
-	private static final Unsafe unsafe;
-	private static final long stateOffset;
-	private static final long headOffset;
-	private static final long tailOffset;
+		@Override
+		public void signal() {
+			if(!isHeldExclusively()){
+				throw new IllegalMonitorStateException();
+			}
+			Node first = firstWaiter;
+			/**
+			 * 从头开始找，直到成功转移一个节点(跳过已经取消等待的节点)
+			 */
+			while (first != null){
+				if((firstWaiter = first.nextWaiter) == null){
+					lastWaiter = null;
+				}
+				first.nextWaiter = null;
+				if(transferForSignal(first)){
+					break;
+				}
+				first = firstWaiter;
+			}
+		}
+
+		@Override
+		public void signalAll() {
+			if(!isHeldExclusively()){
+				throw new IllegalMonitorStateException();
+			}
+			Node first = firstWaiter;
+			lastWaiter = firstWaiter = null;
+			while (first != null){
+				Node next = first.nextWaiter;
+				first.nextWaiter = null;
+				transferForSignal(first);
+				first = next;
+			}
+		}
+
+		@Override
+		public void await() throws InterruptedException {
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			Node node = addConditionWaiter();
+			int savedState = fullyRelease(node);
+			int interruptMode = 0;
+			while (!isOnSyncQueue(node)){
+				LockSupport.park(this);
+				if((interruptMode = checkInterruptWhileWaiting(node)) != 0){
+					break;
+				}
+			}
+			if(acquireQueued(node,savedState) && interruptMode != THROW_IE){
+				interruptMode = REINTERRUPT;
+			}
+			if(node.nextWaiter != null){
+				unlinkCancelledWaiters();
+			}
+			if(interruptMode != 0){
+				reportInterruptAfterWait(interruptMode);
+			}
+		}
 
-	static {
+		@Override
+		public void awaitUninterruptibly() {
+			Node node = addConditionWaiter();
+			int savedState = fullyRelease(node);
+			boolean interrupted = false;
+			while (!isOnSyncQueue(node)){
+				LockSupport.park(this);
+				if(Thread.interrupted()){
+					interrupted = true;
+				}
+			}
+			if(acquireQueued(node,savedState) || interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * @return 剩余的等待时间，<= 0 表示超时了
+		 */
+		@Override
+		public long awaitNanos(long nanosTimeout) throws InterruptedException {
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			final long deadline = System.nanoTime() + nanosTimeout;
+			Node node = addConditionWaiter();
+			int savedState = fullyRelease(node);
+			int interruptMode = 0;
+			while (!isOnSyncQueue(node)){
+				if(nanosTimeout <= 0L){
+					//超时了，自己转移到阻塞队列
+					transferAfterCancelledWait(node);
+					break;
+				}
+				if(nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD){
+					LockSupport.parkNanos(this,nanosTimeout);
+				}
+				if((interruptMode = checkInterruptWhileWaiting(node)) != 0){
+					break;
+				}
+				nanosTimeout = deadline - System.nanoTime();
+			}
+			if(acquireQueued(node,savedState) && interruptMode != THROW_IE){
+				interruptMode = REINTERRUPT;
+			}
+			if(node.nextWaiter != null){
+				unlinkCancelledWaiters();
+			}
+			if(interruptMode != 0){
+				reportInterruptAfterWait(interruptMode);
+			}
+			return deadline - System.nanoTime();
+		}
+
+		@Override
+		public boolean await(long time, TimeUnit unit) throws InterruptedException {
+			return awaitNanos(unit.toNanos(time)) > 0L;
+		}
+
+		@Override
+		public boolean awaitUntil(Date deadline) throws InterruptedException {
+			long nanos = TimeUnit.MILLISECONDS.toNanos(deadline.getTime() - System.currentTimeMillis());
+			return awaitNanos(nanos) > 0L;
+		}
+
+		/**
+		 * 等待期间被中断了：
+		 * 在signal之前被中断 -> THROW_IE
+		 * 在signal之后被中断 -> REINTERRUPT(已经被signal了，就当作正常返回)
+		 */
+		private int checkInterruptWhileWaiting(Node node){
+			return Thread.interrupted() ? (transferAfterCancelledWait(node) ? THROW_IE : REINTERRUPT) : 0;
+		}
+
+		private void reportInterruptAfterWait(int interruptMode) throws InterruptedException{
+			if(interruptMode == THROW_IE){
+				throw new InterruptedException();
+			}else if(interruptMode == REINTERRUPT){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * 完全释放锁(不管重入了几次)
+	 * @return 释放之前的state，重新抢到锁之后要恢复
+	 */
+	private int fullyRelease(Node node){
+		boolean failed = true;
 		try{
-			Field f = Unsafe.class.getDeclaredField("theUnsafe");
-			f.setAccessible(true);
-			unsafe = (Unsafe) f.get(null);
+			int savedState = getState();
+			release(savedState);
+			failed = false;
+			return savedState;
+		}finally {
+			if(failed){
+				node.waitStatus = Node.CANCELLED;
+			}
+		}
+	}
 
-			stateOffset =  unsafe.objectFieldOffset
-					(MiniReentrantLock.class.getDeclaredField("state"));
-			headOffset =  unsafe.objectFieldOffset
-					(MiniReentrantLock.class.getDeclaredField("head"));
-			tailOffset =  unsafe.objectFieldOffset
-					(MiniReentrantLock.class.getDeclaredField("tail"));
-		}catch (Exception e){
-			throw new Error(e);
+	/**
+	 * node是否已经被转移到阻塞队列了
+	 */
+	private boolean isOnSyncQueue(Node node){
+		if(node.waitStatus == Node.CONDITION || node.prev == null){
+			return false;
+		}
+		//有后继节点，一定在阻塞队列中
+		if(node.next != null){
+			return true;
+		}
+		/**
+		 * node.prev != null 也不能说明已经入队了，可能cas tail还没成功，从tail往前找一下
+		 */
+		for(Node t = tail; t != null; t = t.prev){
+			if(t == node){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * signal：把node从条件队列转移到阻塞队列
+	 * @return false：node已经取消等待了
+	 */
+	private boolean transferForSignal(Node node){
+		if(!compareAndSetWaitStatus(node,Node.CONDITION,0)){
+			return false;
+		}
+		Node pred = enq(node);
+		/**
+		 * 正常情况下不需要唤醒node，等它排到head.next时，释放锁的线程会唤醒它
+		 * 但如果前置节点已经取消了，直接唤醒它，让它自己去整理队列
+		 */
+		if(pred.waitStatus == Node.CANCELLED){
+			LockSupport.unpark(node.thread);
 		}
+		return true;
 	}
 
-	private final boolean compareAndSetHead(Node update){
-		return unsafe.compareAndSwapObject(this,headOffset,null,update);
+	/**
+	 * await超时 或者 被中断后，把node转移到阻塞队列
+	 * @return true：在signal之前取消的
+	 */
+	private boolean transferAfterCancelledWait(Node node){
+		if(compareAndSetWaitStatus(node,Node.CONDITION,0)){
+			enq(node);
+			return true;
+		}
+		/**
+		 * cas失败说明已经被signal了，等signal线程把它放进阻塞队列
+		 */
+		while (!isOnSyncQueue(node)){
+			Thread.yield();
+		}
+		return false;
 	}
 
-	private final boolean compareAndSetTail(Node expect,Node update){
-		return unsafe.compareAndSwapObject(this,tailOffset,expect,update);
+	public Node getHead() {
+		return head;
+	}
+
+	public Node getTail() {
+		return tail;
 	}
 
-	private final boolean compareAndSetState(int expect,int update){
-		return unsafe.compareAndSwapInt(this,stateOffset,expect,update);
+	public void setTail(Node tail) {
+		this.tail = tail;
 	}
+
 }
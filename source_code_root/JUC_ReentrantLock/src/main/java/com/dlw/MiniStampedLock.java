@@ -0,0 +1,416 @@
+package com.dlw;
+
+import com.dlw.MiniQueuedSynchronizer.Node;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+
+/**
+ * 带版本号的读写锁(参考StampedLock)
+ *
+ * 三种模式：
+ * 1.写锁：writeLock() 独占
+ * 2.悲观读锁：readLock() 共享
+ * 3.乐观读：tryOptimisticRead() 不加任何锁，只是拿到当前的版本号(stamp)，
+ * 		读完数据之后调用validate(stamp)检查期间有没有写锁出现过，
+ * 		没有 -> 读到的数据是一致的；有 -> 升级成悲观读锁再读一遍。
+ *
+ * 为什么乐观读快？
+ * 读写锁的读锁也要cas修改state，所有读线程都在写同一个缓存行。
+ * 乐观读全程只读state，不写任何共享变量，读线程之间完全没有竞争。
+ *
+ * 阻塞队列：
+ * 和MiniReentrantLock、MiniReadWriteLock是同一套(MiniQueuedSynchronizer)，入队、唤醒后继都不再单独实现一份。
+ * state是long(版本号 + 读写锁标记)，放不进MiniQueuedSynchronizer的int state，
+ * 所以不是继承，而是用一个内部类WaitQueue只借用它的队列，抢锁时操作的是外面的state。
+ *
+ * 注意：
+ * 1.不可重入
+ * 2.为了简单，阻塞获取锁时不支持超时和中断(被中断只会记录下来，拿到锁后补上中断标记)
+ */
+public class MiniStampedLock {
+
+	/**
+	 * state的位划分
+	 * 低7位：读锁个数(RBITS)
+	 * 第8位：写锁标记(WBIT)
+	 * 其余高位：版本号，每次释放写锁都会 + WBIT，进位到版本号上
+	 */
+	private static final int LG_READERS = 7;
+
+	private static final long RUNIT = 1L;
+	private static final long WBIT = 1L << LG_READERS;
+	private static final long RBITS = WBIT - 1L;
+	private static final long RFULL = RBITS - 1L;
+	private static final long ABITS = RBITS | WBIT;
+	private static final long SBITS = ~RBITS;
+
+	/**
+	 * state的初始值，不能为0，因为stamp == 0 表示获取失败
+	 */
+	private static final long ORIGIN = WBIT << 1;
+
+	/**
+	 * head.next节点抢锁前自旋的次数
+	 */
+	private static final int HEAD_SPINS = 1 << 6;
+
+	private volatile long state;
+
+	/**
+	 * 读锁个数超过RFULL之后，多出来的部分记录在这里
+	 * 修改它之前要先把state的读锁位全部置1(RBITS)，相当于拿了一把小自旋锁
+	 */
+	private int readerOverflow;
+
+	/**
+	 * 阻塞队列
+	 */
+	private final WaitQueue queue = new WaitQueue();
+
+	public MiniStampedLock() {
+		state = ORIGIN;
+	}
+
+	/**
+	 * 获取写锁，返回的stamp用于解锁和锁转换
+	 */
+	public long writeLock(){
+		long s, next;
+		return (((s = state) & ABITS) == 0L && compareAndSetState(s,next = s + WBIT)) ? next : acquireWrite();
+	}
+
+	/**
+	 * 锁空闲时获取写锁，否则返回0
+	 */
+	public long tryWriteLock(){
+		long s, next;
+		return (((s = state) & ABITS) == 0L && compareAndSetState(s,next = s + WBIT)) ? next : 0L;
+	}
+
+	/**
+	 * 获取悲观读锁
+	 * 快速路径要求队列为空：有线程(一般是写线程)在排队时，新来的读线程也要去排队，避免写线程饿死
+	 */
+	public long readLock(){
+		long s = state, next;
+		return (!queue.hasQueuedThreads() && (s & ABITS) < RFULL && compareAndSetState(s,next = s + RUNIT)) ? next : acquireRead();
+	}
+
+	/**
+	 * 没有写锁时获取读锁，否则返回0
+	 */
+	public long tryReadLock(){
+		for(;;){
+			long s, m, next;
+			if((m = (s = state) & ABITS) == WBIT){
+				return 0L;
+			}else if(m < RFULL){
+				if(compareAndSetState(s,next = s + RUNIT)){
+					return next;
+				}
+			}else if((next = tryIncReaderOverflow(s)) != 0L){
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * 乐观读
+	 * @return 没有写锁时返回当前版本号，有写锁时返回0(validate(0)永远是false)
+	 */
+	public long tryOptimisticRead(){
+		long s;
+		return (((s = state) & WBIT) == 0L) ? (s & SBITS) : 0L;
+	}
+
+	/**
+	 * 检查从拿到stamp到现在，有没有写锁出现过
+	 *
+	 * 为什么需要loadFence？
+	 * 乐观读期间读取的都是普通变量，需要保证这些读操作不会被重排序到读state之后，
+	 * 否则可能读到写线程修改了一半的数据，validate却还是通过了。
+	 */
+	public boolean validate(long stamp){
+		unsafe.loadFence();
+		return (stamp & SBITS) == (state & SBITS);
+	}
+
+	public void unlockWrite(long stamp){
+		if(state != stamp || (stamp & WBIT) == 0L){
+			throw new IllegalMonitorStateException();
+		}
+		/**
+		 * + WBIT：清掉写锁标记，同时版本号 + 1
+		 * 版本号用完溢出成0的话，从ORIGIN重新开始
+		 */
+		state = (stamp += WBIT) == 0L ? ORIGIN : stamp;
+		queue.signalNext();
+	}
+
+	public void unlockRead(long stamp){
+		long s, m;
+		for(;;){
+			if(((s = state) & SBITS) != (stamp & SBITS) || (stamp & ABITS) == 0L || (m = s & ABITS) == 0L || m == WBIT){
+				throw new IllegalMonitorStateException();
+			}
+			if(m < RFULL){
+				if(compareAndSetState(s,s - RUNIT)){
+					//最后一个读锁释放了，唤醒排队的线程
+					if(m == RUNIT){
+						queue.signalNext();
+					}
+					return;
+				}
+			}else if(tryDecReaderOverflow(s) != 0L){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 根据stamp释放对应的锁
+	 */
+	public void unlock(long stamp){
+		if((stamp & ABITS) == WBIT){
+			unlockWrite(stamp);
+		}else {
+			unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * 转换成写锁
+	 * 1.stamp是写锁：直接返回
+	 * 2.stamp是读锁，并且当前只有这一个读锁：原地升级成写锁
+	 * 3.stamp是乐观读，并且锁空闲：获取写锁
+	 * 其它情况返回0
+	 */
+	public long tryConvertToWriteLock(long stamp){
+		long a = stamp & ABITS, m, s, next;
+		while (((s = state) & SBITS) == (stamp & SBITS)){
+			if((m = s & ABITS) == 0L){
+				if(a != 0L){
+					break;
+				}
+				if(compareAndSetState(s,next = s + WBIT)){
+					return next;
+				}
+			}else if(m == WBIT){
+				if(a != m){
+					break;
+				}
+				return stamp;
+			}else if(m == RUNIT && a != 0L){
+				if(compareAndSetState(s,next = s - RUNIT + WBIT)){
+					return next;
+				}
+			}else {
+				break;
+			}
+		}
+		return 0L;
+	}
+
+	/**
+	 * 转换成读锁
+	 * 1.stamp是写锁：释放写锁，同时持有读锁(锁降级)，排队的读线程也可以进来了
+	 * 2.stamp是读锁：直接返回
+	 * 3.stamp是乐观读，并且没有写锁：获取读锁
+	 * 其它情况返回0
+	 */
+	public long tryConvertToReadLock(long stamp){
+		long a = stamp & ABITS, m, s, next;
+		while (((s = state) & SBITS) == (stamp & SBITS)){
+			if((m = s & ABITS) == WBIT){
+				if(a != m){
+					break;
+				}
+				state = next = s + (WBIT + RUNIT);
+				queue.signalNext();
+				return next;
+			}else if(a != 0L){
+				if(a < WBIT && m != 0L){
+					return stamp;
+				}
+				break;
+			}else if(m < RFULL){
+				if(compareAndSetState(s,next = s + RUNIT)){
+					return next;
+				}
+			}else if((next = tryIncReaderOverflow(s)) != 0L){
+				return next;
+			}
+		}
+		return 0L;
+	}
+
+	/**
+	 * 转换成乐观读：释放持有的锁，返回一个乐观读的stamp
+	 * stamp已经失效时返回0
+	 */
+	public long tryConvertToOptimisticRead(long stamp){
+		long a = stamp & ABITS, m, s, next;
+		unsafe.loadFence();
+		for(;;){
+			if(((s = state) & SBITS) != (stamp & SBITS)){
+				break;
+			}
+			if((m = s & ABITS) == 0L){
+				if(a != 0L){
+					break;
+				}
+				return s;
+			}else if(m == WBIT){
+				if(a != m){
+					break;
+				}
+				state = next = (s += WBIT) == 0L ? ORIGIN : s;
+				queue.signalNext();
+				return next;
+			}else if(a == 0L || a >= WBIT){
+				break;
+			}else if(m < RFULL){
+				if(compareAndSetState(s,next = s - RUNIT)){
+					if(m == RUNIT){
+						queue.signalNext();
+					}
+					return next & SBITS;
+				}
+			}else if((next = tryDecReaderOverflow(s)) != 0L){
+				return next & SBITS;
+			}
+		}
+		return 0L;
+	}
+
+	public boolean isWriteLocked(){
+		return (state & WBIT) != 0L;
+	}
+
+	public boolean isReadLocked(){
+		return (state & RBITS) != 0L;
+	}
+
+	public int getReadLockCount(){
+		long s = state & RBITS;
+		return (int) (s >= RFULL ? RFULL + readerOverflow : s);
+	}
+
+	/**
+	 * 读锁个数已经到RFULL了，多出来的记录到readerOverflow
+	 * @return 0：没有成功，调用方需要重试
+	 */
+	private long tryIncReaderOverflow(long s){
+		if((s & ABITS) == RFULL){
+			if(compareAndSetState(s,s | RBITS)){
+				++readerOverflow;
+				state = s;
+				return s;
+			}
+		}else {
+			//其它线程正在修改readerOverflow
+			Thread.yield();
+		}
+		return 0L;
+	}
+
+	private long tryDecReaderOverflow(long s){
+		if((s & ABITS) == RFULL){
+			if(compareAndSetState(s,s | RBITS)){
+				long next;
+				if(readerOverflow > 0){
+					--readerOverflow;
+					next = s;
+				}else {
+					next = s - RUNIT;
+				}
+				state = next;
+				return next;
+			}
+		}else {
+			Thread.yield();
+		}
+		return 0L;
+	}
+
+	/**
+	 * 排队获取写锁
+	 * 拿到写锁之后只有当前线程能修改state，state就是这次的stamp
+	 */
+	private long acquireWrite(){
+		if(queue.acquireQueued(queue.addWaiter(Node.EXCLUSIVE),0)){
+			Thread.currentThread().interrupt();
+		}
+		return state;
+	}
+
+	/**
+	 * 排队获取读锁
+	 * 别的读线程同时在修改读锁个数，拿不到"抢锁那一刻的state"，
+	 * 返回 版本号 + RUNIT：持有读锁期间版本号不会变，unlockRead、锁转换只看版本号和stamp是不是读锁
+	 */
+	private long acquireRead(){
+		if(queue.acquireQueued(queue.addWaiter(Node.SHARED),0)){
+			Thread.currentThread().interrupt();
+		}
+		return (state & SBITS) + RUNIT;
+	}
+
+	/**
+	 * 只借用MiniQueuedSynchronizer的阻塞队列，继承来的int state不用
+	 */
+	private final class WaitQueue extends MiniQueuedSynchronizer {
+
+		/**
+		 * 排到head.next了：按节点的模式抢读锁或者写锁，抢之前先自旋一会儿
+		 * 读线程已经在队列里按先来后到等过了，不再要求队列为空
+		 */
+		@Override
+		boolean tryAcquireQueued(Node node,int arg){
+			for(int i = 0; i < HEAD_SPINS; i++){
+				if((node.isShared() ? tryReadLock() : tryWriteLock()) != 0L){
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * 抢到读锁后，如果后继节点也在等读锁，唤醒它(共享模式向后传播)，和MiniReadWriteLock一样
+		 */
+		@Override
+		void queuedAcquired(Node node,long token){
+			if(node.isShared()){
+				Node s = node.next;
+				if(s == null || s.isShared()){
+					unparkSuccessor(node);
+				}
+			}
+		}
+
+		boolean hasQueuedThreads(){
+			return head != tail;
+		}
+	}
+
+	private static final Unsafe unsafe;
+	private static final long stateOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			stateOffset = unsafe.objectFieldOffset
+					(MiniStampedLock.class.getDeclaredField("state"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+
+	private final boolean compareAndSetState(long expect,long update){
+		return unsafe.compareAndSwapLong(this,stateOffset,expect,update);
+	}
+}
@@ -0,0 +1,151 @@
+package com.dlw;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 分段锁：按key的hash把key映射到2的幂个MiniReentrantLock(stripe)上
+ *
+ * 用一把全局锁保护所有实体的状态时，不相关的key也会互相竞争；
+ * 分段之后只有落在同一段上的key才会竞争，段数越多冲突越少，代价是锁对象的内存。
+ *
+ * 多个key一起加锁(比如转账时锁两个账户)：
+ * 先算出所有key所在的段，去重之后按段号从小到大加锁，解锁时反过来。
+ * 所有线程都按同一个顺序加锁，就不会出现 A等B、B等A 的死锁。
+ *
+ * 懒加载：
+ * MiniReentrantLock为了避免伪共享带着两段padding，一个对象好几百字节，段数很多时比较占内存。
+ * lazy == true 时，某一段第一次被用到才创建锁对象(cas放入数组，抢输了就用别人创建的)。
+ */
+public class MiniStripedLock {
+
+	/**
+	 * 段数的上限
+	 */
+	static final int MAXIMUM_STRIPES = 1 << 30;
+
+	private final AtomicReferenceArray<MiniReentrantLock> stripes;
+
+	private final int mask;
+
+	public MiniStripedLock(int stripes){
+		this(stripes,false);
+	}
+
+	/**
+	 * @param stripes 段数，会向上取整成2的幂
+	 * @param lazy true：用到的时候才创建每一段的锁
+	 */
+	public MiniStripedLock(int stripes,boolean lazy){
+		if(stripes <= 0){
+			throw new IllegalArgumentException("stripes must be positive");
+		}
+		int n = tableSizeFor(stripes);
+		this.stripes = new AtomicReferenceArray<MiniReentrantLock>(n);
+		this.mask = n - 1;
+		if(!lazy){
+			for(int i = 0; i < n; i++){
+				this.stripes.set(i,new MiniReentrantLock());
+			}
+		}
+	}
+
+	/**
+	 * 和HashMap.tableSizeFor一样：大于等于cap的最小的2的幂
+	 */
+	static int tableSizeFor(int cap){
+		int n = -1 >>> Integer.numberOfLeadingZeros(cap - 1);
+		return n < 0 ? 1 : (n >= MAXIMUM_STRIPES ? MAXIMUM_STRIPES : n + 1);
+	}
+
+	/**
+	 * key所在的段号
+	 * 和HashMap.hash一样把高16位异或到低16位，段数较少时高位也能参与进来
+	 */
+	public int indexOf(Object key){
+		int h;
+		return (key == null ? 0 : (h = key.hashCode()) ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * key所在段的锁
+	 */
+	public MiniReentrantLock get(Object key){
+		return stripeAt(indexOf(key));
+	}
+
+	/**
+	 * 第i段的锁，懒加载时第一次访问才创建
+	 */
+	public MiniReentrantLock stripeAt(int i){
+		MiniReentrantLock lock = stripes.get(i);
+		if(lock == null){
+			MiniReentrantLock created = new MiniReentrantLock();
+			lock = stripes.compareAndSet(i,null,created) ? created : stripes.get(i);
+		}
+		return lock;
+	}
+
+	public int size(){
+		return stripes.length();
+	}
+
+	public void lock(Object key){
+		get(key).lock();
+	}
+
+	public void unlock(Object key){
+		get(key).unlock();
+	}
+
+	/**
+	 * 按段号从小到大，给所有key所在的段加锁
+	 * 多个key落在同一段上时，这一段只加一次锁
+	 */
+	public void lockAll(Object... keys){
+		int[] order = stripesOf(keys);
+		for(int i = 0; i < order.length; i++){
+			stripeAt(order[i]).lock();
+		}
+	}
+
+	/**
+	 * 和lockAll(Object...)一样
+	 */
+	public void lockAll(Collection<?> keys){
+		lockAll(keys.toArray());
+	}
+
+	/**
+	 * 释放lockAll加的锁，按段号从大到小
+	 */
+	public void unlockAll(Object... keys){
+		int[] order = stripesOf(keys);
+		for(int i = order.length - 1; i >= 0; i--){
+			stripeAt(order[i]).unlock();
+		}
+	}
+
+	public void unlockAll(Collection<?> keys){
+		unlockAll(keys.toArray());
+	}
+
+	/**
+	 * 所有key所在的段号，去重并从小到大排好序
+	 */
+	private int[] stripesOf(Object[] keys){
+		int[] idx = new int[keys.length];
+		for(int i = 0; i < keys.length; i++){
+			idx[i] = indexOf(keys[i]);
+		}
+		Arrays.sort(idx);
+		int n = 0;
+		for(int i = 0; i < idx.length; i++){
+			if(n == 0 || idx[n - 1] != idx[i]){
+				idx[n++] = idx[i];
+			}
+		}
+		return n == idx.length ? idx : Arrays.copyOf(idx,n);
+	}
+}
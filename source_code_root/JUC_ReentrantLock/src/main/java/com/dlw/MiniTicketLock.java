@@ -0,0 +1,108 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排号自旋锁(不可重入)
+ *
+ * 和银行排号一样：
+ * nextTicket：下一个要发出去的号
+ * nowServing：当前正在服务的号
+ * 加锁时领一个号，然后等nowServing叫到自己；释放锁时nowServing + 1。
+ *
+ * 实现最简单，严格先来后到，
+ * 缺点是所有等待线程都在同一个nowServing上自旋，每次释放锁都会让所有等待线程的缓存行失效。
+ * 领到号之后没办法退号，所以超时、可中断的获取方式不领号，而是不断地tryLock()。
+ */
+public class MiniTicketLock implements MiniLock {
+
+	private volatile long nextTicket;
+	private volatile long nowServing;
+
+	private Thread owner;
+
+	@Override
+	public void lock() {
+		long my = unsafe.getAndAddLong(this,nextTicketOffset,1L);
+		int spins = 0;
+		while (nowServing != my){
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+		owner = Thread.currentThread();
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		int spins = 0;
+		while (!tryLock()){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * 没有人在等(下一个号就是正在服务的号)，才去领号
+	 */
+	@Override
+	public boolean tryLock() {
+		long s = nowServing;
+		if(nextTicket == s && unsafe.compareAndSwapLong(this,nextTicketOffset,s,s + 1L)){
+			owner = Thread.currentThread();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(time);
+		int spins = 0;
+		while (!tryLock()){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if(deadline - System.nanoTime() <= 0L){
+				return false;
+			}
+			if((++spins & 63) == 0){
+				Thread.yield();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+		if(owner != Thread.currentThread()){
+			throw new IllegalMonitorStateException();
+		}
+		owner = null;
+		//只有持锁线程会修改nowServing，不需要cas
+		nowServing = nowServing + 1L;
+	}
+
+	private static final Unsafe unsafe;
+	private static final long nextTicketOffset;
+
+	static {
+		try{
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+
+			nextTicketOffset = unsafe.objectFieldOffset
+					(MiniTicketLock.class.getDeclaredField("nextTicket"));
+		}catch (Exception e){
+			throw new Error(e);
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.dlw;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分组锁 和 MiniReentrantLock 的对比，在一台机器上模拟多路cpu
+ *
+ * 模拟方式：
+ * 1.把cpu核分成groups组(比如8核分2组：0-3 和 4-7)，每组相当于一个cpu插槽
+ * 2.每个线程属于一个组，启动后用taskset把自己绑定到该组的cpu上(只支持Linux，失败时不绑定，只打印提示)
+ * 3.同一台机器上跨组交接锁并没有真正的远程缓存未命中，所以临界区里检查上一个持锁线程的组号，
+ * 		不同组时额外空转remotePenaltyNs纳秒，模拟跨插槽搬运缓存行的开销
+ * 统计：吞吐量、跨组交接的比例、各线程加锁次数的 最小值/最大值(公平性)
+ *
+ * 用法：java com.dlw.CohortBenchmark [每轮毫秒数，默认1000] [组数，默认2] [每组线程数，默认4] [跨组开销纳秒，默认300]
+ */
+public class CohortBenchmark {
+
+	static volatile boolean stop;
+
+	/**
+	 * 临界区里读写的共享数据，只在持锁时访问
+	 */
+	static long counter;
+	static int lastGroup;
+	static long crossings;
+
+	/**
+	 * 线程所属的组直接放在线程对象上，mapping只需要一次类型判断
+	 */
+	static final class GroupThread extends Thread{
+		final int group;
+
+		GroupThread(int group,Runnable r) {
+			super(r);
+			this.group = group;
+		}
+	}
+
+	static int groupOf(Thread t){
+		return t instanceof GroupThread ? ((GroupThread) t).group : 0;
+	}
+
+	public static void main(String[] args) throws Exception {
+		long durationMs = args.length > 0 ? Long.parseLong(args[0]) : 1000L;
+		int groups = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int perGroup = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		long penaltyNs = args.length > 3 ? Long.parseLong(args[3]) : 300L;
+
+		int cpus = Runtime.getRuntime().availableProcessors();
+		System.out.println("cpu核数：" + cpus + "，组数：" + groups + "，每组线程数：" + perGroup + "，跨组开销：" + penaltyNs + "ns");
+		for(int g = 0; g < groups; g++){
+			System.out.println("组" + g + " -> cpu " + cpuList(g,groups,cpus));
+		}
+		System.out.printf("%-24s %14s %10s %10s%n","lock","ops/ms","cross%","min/max");
+
+		for(int round = 0; round < 3; round++){
+			for(Map.Entry<String,MiniLock> e : locks(groups).entrySet()){
+				run(e.getValue(),groups,perGroup,durationMs / 5,penaltyNs,false);
+				run(e.getValue(),groups,perGroup,durationMs,penaltyNs,true);
+				System.out.printf("%-24s ",e.getKey());
+				report(durationMs);
+			}
+			System.out.println();
+		}
+	}
+
+	static Map<String,MiniLock> locks(int groups){
+		Map<String,MiniLock> locks = new LinkedHashMap<String,MiniLock>();
+		locks.put("MiniReentrantLock",new MiniReentrantLock());
+		locks.put("MiniReentrantLock(unfair)",new MiniReentrantLock(false));
+		locks.put("MiniCohortLock(16)",new MiniCohortLock(groups,CohortBenchmark::groupOf,16));
+		locks.put("MiniCohortLock(64)",new MiniCohortLock(groups,CohortBenchmark::groupOf,64));
+		return locks;
+	}
+
+	static long[] lastOps;
+	static long lastCrossings;
+	static long lastTotal;
+
+	static void run(final MiniLock lock,int groups,int perGroup,long durationMs,final long penaltyNs,boolean record)
+			throws InterruptedException {
+		final int threads = groups * perGroup;
+		final long[] ops = new long[threads];
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		for(int i = 0; i < threads; i++){
+			final int id = i;
+			final int group = i % groups;
+			new GroupThread(group,() -> {
+				long n = 0;
+				try{
+					pin(cpuList(group,groups,cpus));
+					ready.countDown();
+					start.await();
+					while (!stop){
+						lock.lock();
+						try{
+							if(lastGroup != group){
+								lastGroup = group;
+								crossings++;
+								spin(penaltyNs);
+							}
+							counter++;
+						}finally {
+							lock.unlock();
+						}
+						n++;
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					ops[id] = n;
+					done.countDown();
+				}
+			}).start();
+		}
+		ready.await();
+		long c0 = crossings;
+		long n0 = counter;
+		start.countDown();
+		TimeUnit.MILLISECONDS.sleep(durationMs);
+		stop = true;
+		done.await();
+		stop = false;
+		if(record){
+			lastOps = ops;
+			lastCrossings = crossings - c0;
+			lastTotal = counter - n0;
+		}
+	}
+
+	static void report(long durationMs){
+		long min = Long.MAX_VALUE, max = 0;
+		for(long n : lastOps){
+			min = Math.min(min,n);
+			max = Math.max(max,n);
+		}
+		System.out.printf("%14.1f %10.2f %10.3f%n",(double) lastTotal / durationMs,
+				lastTotal == 0 ? 0 : 100.0 * lastCrossings / lastTotal,max == 0 ? 0 : (double) min / max);
+	}
+
+	static void spin(long nanos){
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end){
+			//模拟远程缓存未命中
+		}
+	}
+
+	/**
+	 * 第g组的cpu列表，比如 "0-3"
+	 * cpu核数比组数少时，所有组共用全部cpu
+	 */
+	static String cpuList(int g,int groups,int cpus){
+		if(cpus < groups){
+			return "0-" + (cpus - 1);
+		}
+		int per = cpus / groups;
+		return (g * per) + "-" + (g * per + per - 1);
+	}
+
+	static volatile boolean pinWarned;
+
+	/**
+	 * 把当前线程绑定到cpus上
+	 * /proc/thread-self 指向 "进程号/task/线程号"，再用 taskset -pc 设置这个线程的cpu亲和性
+	 */
+	static void pin(String cpus){
+		try{
+			Path self = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+			String tid = self.getFileName().toString();
+			Process p = new ProcessBuilder("taskset","-pc",cpus,tid).redirectErrorStream(true).start();
+			while (p.getInputStream().read() != -1){
+				//丢弃输出
+			}
+			if(p.waitFor() != 0){
+				throw new IllegalStateException("taskset exit " + p.exitValue());
+			}
+		}catch (Exception e){
+			if(!pinWarned){
+				pinWarned = true;
+				System.out.println("无法绑定cpu(" + e + ")，线程不绑定cpu运行");
+			}
+		}
+	}
+}
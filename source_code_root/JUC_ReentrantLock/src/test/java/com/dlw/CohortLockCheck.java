@@ -0,0 +1,236 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MiniCohortLock的正确性检查
+ *
+ * 1.互斥：多个组的线程混用lock()、tryLock()、限时tryLock、lockInterruptibly()并重入，临界区里同时最多一个线程，计数不丢
+ * 2.组内传递：本组有线程在排队时，全局锁在组内连续传递maxPasses次；之后其它组的线程也能拿到锁
+ * 3.锁被其它组占用时，限时tryLock超时返回false，lockInterruptibly被中断抛出InterruptedException，之后锁还能正常使用
+ * 4.非持锁线程unlock()抛出IllegalMonitorStateException
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.CohortLockCheck
+ */
+public class CohortLockCheck {
+
+	public static void main(String[] args) throws Exception {
+		mutualExclusion(new MiniCohortLock(2),6,20_000);
+		mutualExclusion(new MiniCohortLock(3,t -> (int) t.getId(),0),6,20_000);
+		passing(2,4);
+		timeoutAndInterrupt();
+		nonOwnerUnlock();
+		System.out.println("all checks passed");
+	}
+
+	static long counter;
+
+	static void mutualExclusion(final MiniCohortLock lock,int threads,final int ops) throws InterruptedException {
+		counter = 0;
+		final AtomicInteger inside = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++){
+			final int mode = i;
+			workers[i] = new Thread(() -> {
+				try{
+					start.await();
+					for(int j = 0; j < ops; j++){
+						acquire(lock,(mode + j) & 3);
+						try{
+							//重入一次
+							lock.lock();
+							try{
+								if(inside.incrementAndGet() != 1){
+									overlaps.incrementAndGet();
+								}
+								counter++;
+								inside.decrementAndGet();
+							}finally {
+								lock.unlock();
+							}
+						}finally {
+							lock.unlock();
+						}
+					}
+				}catch (Throwable t){
+					failure.compareAndSet(null,t);
+				}
+			});
+			workers[i].start();
+		}
+		start.countDown();
+		for(Thread t : workers){
+			t.join();
+		}
+		if(failure.get() != null){
+			throw new IllegalStateException("worker failed",failure.get());
+		}
+		check(overlaps.get() == 0,overlaps.get() + " overlapping critical sections");
+		check(counter == (long) threads * ops,"counter " + counter + ", expected " + (long) threads * ops);
+		check(lock.tryLock(),"lock should be free at the end");
+		lock.unlock();
+		System.out.println("mutualExclusion ok");
+	}
+
+	/**
+	 * 按mode选一种加锁方式，tryLock失败了就换成lock()
+	 */
+	static void acquire(MiniLock lock,int mode) throws InterruptedException {
+		switch (mode){
+			case 0:
+				lock.lock();
+				return;
+			case 1:
+				if(!lock.tryLock()){
+					lock.lock();
+				}
+				return;
+			case 2:
+				if(!lock.tryLock(1,TimeUnit.SECONDS)){
+					lock.lock();
+				}
+				return;
+			default:
+				lock.lockInterruptibly();
+		}
+	}
+
+	/**
+	 * 线程名以"g1"开头的是第1组，其它(包括main)是第0组
+	 * main持有锁，第0组的waiters个线程在本地锁上排队，第1组的一个线程在全局锁上等；
+	 * main释放之后，紧接着的maxPasses次加锁一定都是第0组的(全局锁在组内传递)，最后所有线程都拿到过锁
+	 */
+	static void passing(int maxPasses,int waiters) throws InterruptedException {
+		final MiniCohortLock lock = new MiniCohortLock(2,t -> t.getName().startsWith("g1") ? 1 : 0,maxPasses);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		lock.lock();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < waiters; i++){
+			Thread t = new Thread(() -> {
+				lock.lock();
+				try{
+					order.add(0);
+				}finally {
+					lock.unlock();
+				}
+			},"g0-" + i);
+			t.start();
+			awaitParked(t);
+			threads.add(t);
+		}
+		Thread other = new Thread(() -> {
+			lock.lock();
+			try{
+				order.add(1);
+			}finally {
+				lock.unlock();
+			}
+		},"g1-0");
+		other.start();
+		//第1组的线程拿到了本地锁，在全局锁上自旋
+		other.join(20);
+		threads.add(other);
+		lock.unlock();
+		for(Thread t : threads){
+			t.join(5000);
+			check(!t.isAlive(),t.getName() + " never got the lock");
+		}
+		check(order.size() == waiters + 1,"order " + order);
+		for(int i = 0; i < maxPasses; i++){
+			check(order.get(i) == 0,"acquisition " + i + " should be passed within group 0, order " + order);
+		}
+		System.out.println("passing ok " + order);
+	}
+
+	static void awaitParked(Thread t){
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (t.getState() != Thread.State.WAITING){
+			check(System.nanoTime() < deadline,t.getName() + " did not block on the local lock");
+			Thread.yield();
+		}
+	}
+
+	static void timeoutAndInterrupt() throws InterruptedException {
+		final MiniCohortLock lock = new MiniCohortLock(2,t -> t.getName().startsWith("g1") ? 1 : 0,MiniCohortLock.DEFAULT_MAX_PASSES);
+		lock.lock();
+		final AtomicReference<Object> timed = new AtomicReference<Object>();
+		final AtomicReference<Object> interrupted = new AtomicReference<Object>();
+		Thread t1 = new Thread(() -> {
+			try{
+				long begin = System.nanoTime();
+				boolean acquired = lock.tryLock(50,TimeUnit.MILLISECONDS);
+				long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+				timed.set(acquired ? "timed tryLock succeeded" : waited < 50 ? "timed out after " + waited + "ms" : Boolean.TRUE);
+			}catch (InterruptedException e){
+				timed.set(e);
+			}
+		},"g1-timed");
+		t1.start();
+		t1.join();
+		check(Boolean.TRUE.equals(timed.get()),"timed tryLock: " + timed.get());
+
+		Thread t2 = new Thread(() -> {
+			try{
+				lock.lockInterruptibly();
+				lock.unlock();
+				interrupted.set("lockInterruptibly returned");
+			}catch (InterruptedException e){
+				interrupted.set(e);
+			}
+		},"g1-interrupted");
+		t2.start();
+		t2.join(50);
+		t2.interrupt();
+		t2.join(5000);
+		check(interrupted.get() instanceof InterruptedException,"lockInterruptibly: " + interrupted.get());
+		lock.unlock();
+
+		//放弃等待的线程没有在锁上留下任何状态
+		final AtomicReference<Boolean> after = new AtomicReference<Boolean>();
+		Thread t3 = new Thread(() -> {
+			after.set(lock.tryLock());
+			if(after.get()){
+				lock.unlock();
+			}
+		},"g1-after");
+		t3.start();
+		t3.join();
+		check(Boolean.TRUE.equals(after.get()),"tryLock from the other group should succeed after the owner left");
+		System.out.println("timeoutAndInterrupt ok");
+	}
+
+	static void nonOwnerUnlock() throws InterruptedException {
+		final MiniCohortLock lock = new MiniCohortLock(2);
+		lock.lock();
+		final AtomicReference<Object> result = new AtomicReference<Object>();
+		Thread t = new Thread(() -> {
+			try{
+				lock.unlock();
+				result.set("unlock by a non-owner returned");
+			}catch (IllegalMonitorStateException e){
+				result.set(e);
+			}
+		});
+		t.start();
+		t.join();
+		lock.unlock();
+		check(result.get() instanceof IllegalMonitorStateException,String.valueOf(result.get()));
+		System.out.println("nonOwnerUnlock ok");
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.dlw;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 平面合并锁 和 普通锁 的对比
+ *
+ * 两种共享数据结构，临界区都很短：
+ * 1.计数器：counter++
+ * 2.队列：ArrayDeque 先offer再poll
+ * 普通锁：每个线程 lock -> 操作 -> unlock
+ * 合并锁：每个线程 execute(操作)，由合并者批量执行
+ * 线程数从1翻倍到64，统计每毫秒完成的操作数。
+ *
+ * 用法：java com.dlw.CombiningBenchmark [每轮毫秒数，默认1000] [最大线程数，默认64]
+ * 合并的好处要在多核机器、线程数较多时才明显，单核上合并锁只会多出发布记录的开销。
+ */
+public class CombiningBenchmark {
+
+	static volatile boolean stop;
+
+	static long counter;
+
+	static final ArrayDeque<Integer> deque = new ArrayDeque<Integer>();
+
+	static final Integer ONE = 1;
+
+	interface Op{
+		void run(int id);
+	}
+
+	public static void main(String[] args) throws Exception {
+		long durationMs = args.length > 0 ? Long.parseLong(args[0]) : 1000L;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+		System.out.println("cpu核数：" + Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-28s %8s %14s%n","lock","threads","ops/ms");
+
+		for(int threads = 1; threads <= maxThreads; threads <<= 1){
+			final MiniReentrantLock lock = new MiniReentrantLock(false);
+			final MiniCombiningLock combining = new MiniCombiningLock();
+
+			bench("counter MiniReentrantLock",threads,durationMs,id -> {
+				lock.lock();
+				try{
+					counter++;
+				}finally {
+					lock.unlock();
+				}
+			});
+			bench("counter MiniCombiningLock",threads,durationMs,id -> combining.execute(() -> ++counter));
+
+			bench("queue MiniReentrantLock",threads,durationMs,id -> {
+				lock.lock();
+				try{
+					deque.offer(ONE);
+					deque.poll();
+				}finally {
+					lock.unlock();
+				}
+			});
+			bench("queue MiniCombiningLock",threads,durationMs,id -> combining.execute(() -> {
+				deque.offer(ONE);
+				return deque.poll();
+			}));
+			System.out.println();
+		}
+	}
+
+	static void bench(String name,int threads,long durationMs,Op op) throws InterruptedException {
+		//预热
+		run(threads,durationMs / 5,op);
+		long start = counter;
+		long ops = run(threads,durationMs,op);
+		if(name.startsWith("counter") && counter - start != ops){
+			throw new IllegalStateException(name + " lost updates: " + (counter - start) + " != " + ops);
+		}
+		System.out.printf("%-28s %8d %14.1f%n",name,threads,(double) ops / durationMs);
+	}
+
+	/**
+	 * @return 所有线程完成的操作总数
+	 */
+	static long run(int threads,long durationMs,final Op op) throws InterruptedException {
+		final long[] ops = new long[threads];
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int i = 0; i < threads; i++){
+			final int id = i;
+			new Thread(() -> {
+				long n = 0;
+				try{
+					start.await();
+					while (!stop){
+						op.run(id);
+						n++;
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					ops[id] = n;
+					done.countDown();
+				}
+			}).start();
+		}
+		start.countDown();
+		TimeUnit.MILLISECONDS.sleep(durationMs);
+		stop = true;
+		done.await();
+		stop = false;
+		long sum = 0;
+		for(long n : ops){
+			sum += n;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,170 @@
+package com.dlw;
+
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MiniCombiningLock的正确性检查
+ *
+ * 1.结果：多个线程并发execute(() -> ++counter)，同时还有线程用lock()/unlock()修改同一个counter，
+ * 		execute返回的值互不相同，最终计数不丢
+ * 2.异常：RuntimeException、Error原样抛给调用者，偷偷抛出的受检异常包成UndeclaredThrowableException；
+ * 		抛出异常之后同一个线程再execute，拿到的是新的结果
+ * 3.发布记录被清理之后，线程再execute会重新插入发布链表，操作照样执行
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.CombiningLockCheck
+ */
+public class CombiningLockCheck {
+
+	public static void main(String[] args) throws Exception {
+		results(4,1,20_000);
+		exceptions();
+		republish();
+		System.out.println("all checks passed");
+	}
+
+	static long counter;
+
+	static void results(int executors,int lockers,final int ops) throws InterruptedException {
+		final MiniCombiningLock lock = new MiniCombiningLock();
+		counter = 0;
+		final int total = (executors + lockers) * ops;
+		final BitSet seen = new BitSet(total + 1);
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[executors + lockers];
+		for(int i = 0; i < executors; i++){
+			threads[i] = new Thread(() -> {
+				await(start);
+				long[] values = new long[ops];
+				for(int j = 0; j < ops; j++){
+					values[j] = lock.execute(() -> ++counter);
+				}
+				synchronized (seen){
+					for(long v : values){
+						if(v <= 0 || v > total || seen.get((int) v)){
+							failure.compareAndSet(null,"execute returned " + v + " twice or out of range");
+						}
+						seen.set((int) v);
+					}
+				}
+			});
+		}
+		for(int i = executors; i < threads.length; i++){
+			threads[i] = new Thread(() -> {
+				await(start);
+				for(int j = 0; j < ops; j++){
+					lock.lock();
+					try{
+						counter++;
+					}finally {
+						lock.unlock();
+					}
+				}
+			});
+		}
+		for(Thread t : threads){
+			t.start();
+		}
+		start.countDown();
+		for(Thread t : threads){
+			t.join();
+		}
+		check(failure.get() == null,failure.get());
+		check(counter == total,"counter " + counter + ", expected " + total);
+		check(seen.cardinality() == executors * ops,seen.cardinality() + " distinct results, expected " + executors * ops);
+		System.out.println("results ok");
+	}
+
+	static void exceptions(){
+		MiniCombiningLock lock = new MiniCombiningLock();
+		final IllegalArgumentException runtime = new IllegalArgumentException("runtime");
+		try{
+			lock.execute(() -> {
+				throw runtime;
+			});
+			throw new IllegalStateException("execute should rethrow a RuntimeException");
+		}catch (IllegalArgumentException e){
+			check(e == runtime,"execute should rethrow the same RuntimeException");
+		}
+		check(lock.execute(() -> "next").equals("next"),"a failed op should not leak into the next execute");
+
+		final AssertionError error = new AssertionError("error");
+		try{
+			lock.execute(() -> {
+				throw error;
+			});
+			throw new IllegalStateException("execute should rethrow an Error");
+		}catch (AssertionError e){
+			check(e == error,"execute should rethrow the same Error");
+		}
+
+		final IOException checked = new IOException("checked");
+		try{
+			lock.execute(() -> CombiningLockCheck.<RuntimeException>sneakyThrow(checked));
+			throw new IllegalStateException("execute should wrap a checked exception");
+		}catch (UndeclaredThrowableException e){
+			check(e.getCause() == checked,"the checked exception should be the cause");
+		}
+		check(lock.execute(() -> 42) == 42,"execute should work after a failed op");
+		check(lock.tryLock(),"lock should be free after failed ops");
+		lock.unlock();
+		System.out.println("exceptions ok");
+	}
+
+	@SuppressWarnings("unchecked")
+	static <E extends Throwable> Object sneakyThrow(Throwable t) throws E {
+		throw (E) t;
+	}
+
+	/**
+	 * 线程a用过一次之后不再用，线程b合并的次数超过STALE_COMBINES，a的记录被摘除，a再execute要重新插入
+	 */
+	static void republish() throws InterruptedException {
+		final MiniCombiningLock lock = new MiniCombiningLock();
+		counter = 0;
+		final AtomicReference<Object> second = new AtomicReference<Object>();
+		final CountDownLatch firstDone = new CountDownLatch(1);
+		final CountDownLatch othersDone = new CountDownLatch(1);
+		Thread a = new Thread(() -> {
+			lock.execute(() -> ++counter);
+			firstDone.countDown();
+			await(othersDone);
+			second.set(lock.execute(() -> ++counter));
+		});
+		a.start();
+		firstDone.await();
+		final int rounds = MiniCombiningLock.STALE_COMBINES + 2 * MiniCombiningLock.CLEANUP_INTERVAL;
+		Thread b = new Thread(() -> {
+			for(int i = 0; i < rounds; i++){
+				lock.execute(() -> ++counter);
+			}
+		});
+		b.start();
+		b.join();
+		othersDone.countDown();
+		a.join(5000);
+		check(!a.isAlive(),"execute after the record was cleaned up should not hang");
+		check(Long.valueOf(rounds + 2).equals(second.get()),"execute after cleanup returned " + second.get());
+		check(counter == rounds + 2,"counter " + counter + ", expected " + (rounds + 2));
+		System.out.println("republish ok");
+	}
+
+	static void await(CountDownLatch latch){
+		try{
+			latch.await();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package com.dlw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MiniDeadlockDetector的正确性检查
+ *
+ * 1.关闭时不登记等待关系：真的死锁了，findDeadlocks也看不到
+ * 2.两个线程互相等待：findDeadlocks找到这个环，线程和锁一一对应；后台检测只回调一次；
+ * 		被中断、退出排队之后，环消失，等待关系也被删除
+ * 3.三个线程的环 + 一个在环上的锁排队、但自己不在环上的线程：只报告那三个线程
+ * 4.只是竞争、没有环：不报告
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.DeadlockDetectorCheck
+ */
+public class DeadlockDetectorCheck {
+
+	public static void main(String[] args) throws Exception {
+		disabled();
+		twoThreads();
+		threeThreadsAndBystander();
+		contentionOnly();
+		System.out.println("all checks passed");
+	}
+
+	static void disabled() throws InterruptedException {
+		MiniDeadlockDetector.disable();
+		MiniReentrantLock a = new MiniReentrantLock();
+		MiniReentrantLock b = new MiniReentrantLock();
+		List<Thread> threads = cycle(Arrays.asList(a,b),"disabled-");
+		check(MiniDeadlockDetector.findDeadlocks().isEmpty(),"waits should not be recorded while disabled");
+		release(threads);
+		System.out.println("disabled ok");
+	}
+
+	static void twoThreads() throws InterruptedException {
+		final List<MiniDeadlockDetector.Deadlock> reported = new CopyOnWriteArrayList<MiniDeadlockDetector.Deadlock>();
+		MiniDeadlockDetector.enable(10,d -> reported.add(d));
+		try{
+			MiniReentrantLock a = new MiniReentrantLock();
+			MiniReentrantLock b = new MiniReentrantLock();
+			List<Thread> threads = cycle(Arrays.asList(a,b),"two-");
+
+			List<MiniDeadlockDetector.Deadlock> found = awaitDeadlocks(1);
+			MiniDeadlockDetector.Deadlock d = found.get(0);
+			check(new HashSet<Thread>(d.getThreads()).equals(new HashSet<Thread>(threads)),"cycle " + d.getThreads());
+			for(int i = 0; i < d.getThreads().size(); i++){
+				Thread t = d.getThreads().get(i);
+				Thread owner = d.getThreads().get((i + 1) % d.getThreads().size());
+				check(d.getLocks().get(i).getExclusiveOwnerThread() == owner,t.getName() + " waits for a lock not held by " + owner.getName());
+			}
+			check(d.getStackTraces().size() == 2 && d.toString().contains("two-0"),"report should describe both threads");
+
+			//连续两次扫描确认之后才报告，而且同一个环只报告一次
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (reported.isEmpty() && System.nanoTime() < deadline){
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			check(reported.size() == 1,"listener called " + reported.size() + " times");
+
+			release(threads);
+			check(MiniDeadlockDetector.findDeadlocks().isEmpty(),"cycle should be gone after the threads gave up");
+		}finally {
+			MiniDeadlockDetector.disable();
+		}
+		System.out.println("twoThreads ok");
+	}
+
+	static void threeThreadsAndBystander() throws InterruptedException {
+		MiniDeadlockDetector.enable(1000,d -> {
+		});
+		try{
+			MiniReentrantLock a = new MiniReentrantLock();
+			MiniReentrantLock b = new MiniReentrantLock();
+			MiniReentrantLock c = new MiniReentrantLock();
+			List<Thread> threads = cycle(Arrays.asList(a,b,c),"three-");
+			Thread bystander = waiter(b,"bystander");
+
+			List<MiniDeadlockDetector.Deadlock> found = awaitDeadlocks(1);
+			check(found.get(0).getThreads().size() == 3 && !found.get(0).getThreads().contains(bystander),
+					"cycle " + found.get(0).getThreads());
+
+			List<Thread> all = new ArrayList<Thread>(threads);
+			all.add(bystander);
+			release(all);
+			check(MiniDeadlockDetector.findDeadlocks().isEmpty(),"cycle should be gone after the threads gave up");
+		}finally {
+			MiniDeadlockDetector.disable();
+		}
+		System.out.println("threeThreadsAndBystander ok");
+	}
+
+	static void contentionOnly() throws InterruptedException {
+		MiniDeadlockDetector.enable(1000,d -> {
+		});
+		try{
+			MiniReentrantLock a = new MiniReentrantLock();
+			a.lock();
+			List<Thread> threads = new ArrayList<Thread>();
+			for(int i = 0; i < 3; i++){
+				threads.add(waiter(a,"contender-" + i));
+			}
+			check(MiniDeadlockDetector.findDeadlocks().isEmpty(),"plain contention reported as a deadlock");
+			a.unlock();
+			for(Thread t : threads){
+				t.join(5000);
+				check(!t.isAlive(),t.getName() + " never got the lock");
+			}
+		}finally {
+			MiniDeadlockDetector.disable();
+		}
+		System.out.println("contentionOnly ok");
+	}
+
+	/**
+	 * 第i个线程先拿locks[i]，再去等locks[i + 1](最后一个等locks[0])，返回时所有线程都已经在排队
+	 * 用lockInterruptibly，中断之后线程退出排队、释放自己持有的锁
+	 */
+	static List<Thread> cycle(final List<MiniReentrantLock> locks,String prefix) throws InterruptedException {
+		final CountDownLatch held = new CountDownLatch(locks.size());
+		final CountDownLatch go = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < locks.size(); i++){
+			final MiniReentrantLock mine = locks.get(i);
+			final MiniReentrantLock wanted = locks.get((i + 1) % locks.size());
+			Thread t = new Thread(() -> {
+				mine.lock();
+				try{
+					held.countDown();
+					go.await();
+					wanted.lockInterruptibly();
+					wanted.unlock();
+				}catch (InterruptedException e){
+					//放弃等待
+				}finally {
+					mine.unlock();
+				}
+			},prefix + i);
+			t.start();
+			threads.add(t);
+		}
+		held.await();
+		go.countDown();
+		for(Thread t : threads){
+			awaitParked(t);
+		}
+		return threads;
+	}
+
+	/**
+	 * 在lock上排队的线程，返回时已经在排队
+	 */
+	static Thread waiter(final MiniReentrantLock lock,String name){
+		Thread t = new Thread(() -> {
+			try{
+				lock.lockInterruptibly();
+				lock.unlock();
+			}catch (InterruptedException e){
+				//放弃等待
+			}
+		},name);
+		t.start();
+		awaitParked(t);
+		return t;
+	}
+
+	static void release(List<Thread> threads) throws InterruptedException {
+		for(Thread t : threads){
+			t.interrupt();
+		}
+		for(Thread t : threads){
+			t.join(5000);
+			check(!t.isAlive(),t.getName() + " did not give up after the interrupt");
+		}
+	}
+
+	static List<MiniDeadlockDetector.Deadlock> awaitDeadlocks(int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		List<MiniDeadlockDetector.Deadlock> found;
+		while ((found = MiniDeadlockDetector.findDeadlocks()).size() != expected){
+			check(System.nanoTime() < deadline,"expected " + expected + " deadlocks, found " + found.size());
+			Thread.sleep(1);
+		}
+		return found;
+	}
+
+	static void awaitParked(Thread t){
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (t.getState() != Thread.State.WAITING){
+			check(System.nanoTime() < deadline,t.getName() + " did not block");
+			Thread.yield();
+		}
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.dlw;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * state 和 tail 伪共享的对比
+ *
+ * 模拟MiniReentrantLock里的两类写操作：
+ * 1.一个"持锁线程"不停地 cas state 0->1、再写回0 (加锁/解锁)
+ * 2.其余"入队线程"不停地 getAndSet tail (入队)
+ * 分别在 不加padding(改动之前的字段布局) 和 加padding(现在MiniReentrantLock的布局) 两种对象上跑，
+ * 对比持锁线程每毫秒能完成多少次加锁/解锁。
+ *
+ * 另外打印MiniReentrantLock里state、head、tail、spinBudget、starving的实际偏移量，
+ * 确认state、head/tail、交接锁时写的字段三者之间都隔了足够的字节。
+ *
+ * 用法：java com.dlw.FalseSharingBenchmark [每轮毫秒数，默认1000] [入队线程数，默认3]
+ * 需要多核机器才能看出差别，单核上两种布局没有区别。
+ */
+public class FalseSharingBenchmark {
+
+	static volatile boolean stop;
+
+	/**
+	 * 改动之前的布局：state和tail挨在一起
+	 */
+	static class Unpadded{
+		volatile int state;
+		volatile Object tail;
+	}
+
+	static abstract class LhsPadding{
+		int p00;
+		long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+	}
+
+	static abstract class StateField extends LhsPadding{
+		volatile int state;
+	}
+
+	static abstract class MidPadding extends StateField{
+		long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+	}
+
+	static class Padded extends MidPadding{
+		volatile Object tail;
+	}
+
+	public static void main(String[] args) throws Exception {
+		long durationMs = args.length > 0 ? Long.parseLong(args[0]) : 1000L;
+		int enqueuers = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		Unsafe unsafe = unsafe();
+		printOffset(unsafe,MiniLockPadding.State.class,"state");
+		printOffset(unsafe,MiniLockPadding.Queue.class,"head");
+		printOffset(unsafe,MiniLockPadding.Queue.class,"tail");
+		printOffset(unsafe,MiniReentrantLock.class,"spinBudget");
+		printOffset(unsafe,MiniReentrantLock.class,"starving");
+		System.out.println("cpu核数：" + Runtime.getRuntime().availableProcessors() + "，入队线程数：" + enqueuers);
+
+		for(int round = 0; round < 3; round++){
+			Unpadded u = new Unpadded();
+			long before = run(unsafe,u,Unpadded.class.getDeclaredField("state"),Unpadded.class.getDeclaredField("tail"),
+					enqueuers,durationMs);
+			Padded p = new Padded();
+			long after = run(unsafe,p,StateField.class.getDeclaredField("state"),Padded.class.getDeclaredField("tail"),
+					enqueuers,durationMs);
+			System.out.printf("round %d: unpadded %10.1f lock/unlock per ms, padded %10.1f lock/unlock per ms%n",
+					round,(double) before / durationMs,(double) after / durationMs);
+		}
+	}
+
+	static void printOffset(Unsafe unsafe,Class<?> clazz,String field) throws NoSuchFieldException {
+		System.out.printf("MiniReentrantLock %-10s offset = %d%n",field,unsafe.objectFieldOffset(clazz.getDeclaredField(field)));
+	}
+
+	/**
+	 * @return 持锁线程完成的加锁/解锁次数
+	 */
+	static long run(final Unsafe unsafe,final Object target,Field stateField,Field tailField,int enqueuers,long durationMs)
+			throws InterruptedException {
+		final long stateOffset = unsafe.objectFieldOffset(stateField);
+		final long tailOffset = unsafe.objectFieldOffset(tailField);
+		final long[] result = new long[1];
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(enqueuers + 1);
+
+		new Thread(() -> {
+			long n = 0;
+			try{
+				start.await();
+				while (!stop){
+					if(unsafe.compareAndSwapInt(target,stateOffset,0,1)){
+						unsafe.putIntVolatile(target,stateOffset,0);
+						n++;
+					}
+				}
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}finally {
+				result[0] = n;
+				done.countDown();
+			}
+		}).start();
+
+		for(int i = 0; i < enqueuers; i++){
+			new Thread(() -> {
+				Object node = new Object();
+				try{
+					start.await();
+					while (!stop){
+						unsafe.getAndSetObject(target,tailOffset,node);
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					done.countDown();
+				}
+			}).start();
+		}
+
+		start.countDown();
+		TimeUnit.MILLISECONDS.sleep(durationMs);
+		stop = true;
+		done.await();
+		stop = false;
+		return result[0];
+	}
+
+	static Unsafe unsafe() throws Exception {
+		Field f = Unsafe.class.getDeclaredField("theUnsafe");
+		f.setAccessible(true);
+		return (Unsafe) f.get(null);
+	}
+}
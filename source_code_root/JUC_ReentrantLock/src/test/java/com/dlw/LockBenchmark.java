@@ -0,0 +1,171 @@
+package com.dlw;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 几种MiniLock实现的吞吐量、公平性对比
+ *
+ * 每个线程循环：加锁 -> 临界区(counter++ 以及一点点计算) -> 解锁 -> 临界区外的一点点计算
+ * 线程数从1翻倍到64，每一轮跑固定的时间，统计：
+ * 1.吞吐量：所有线程加锁成功的总次数 / 时间
+ * 2.公平性：各线程加锁次数的 最小值/最大值 以及变异系数(标准差/平均值)，越接近 1 和 0 越公平
+ * 3.延迟：lock()耗时的p99.9和最大值(按2的幂次分桶，只精确到2倍)，非公平锁的饥饿会体现在这里
+ *
+ * 用法：java com.dlw.LockBenchmark [每轮毫秒数，默认1000] [最大线程数，默认64]
+ * 注意：自旋锁在线程数超过cpu核数时性能会急剧下降(持锁线程被调度走了，其它线程还在空转)，这也是要观察的结果之一。
+ */
+public class LockBenchmark {
+
+	private static final int CRITICAL_WORK = 16;
+	private static final int OUTSIDE_WORK = 64;
+
+	static long counter;
+
+	static volatile boolean stop;
+
+	public static void main(String[] args) throws Exception {
+		long durationMs = args.length > 0 ? Long.parseLong(args[0]) : 1000L;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+		System.out.println("cpu核数：" + Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-28s %8s %14s %10s %10s %12s %12s%n","lock","threads","ops/ms","min/max","cv",
+				"p99.9(us)","max(us)");
+
+		for(int threads = 1; threads <= maxThreads; threads <<= 1){
+			for(Map.Entry<String,MiniLock> e : locks().entrySet()){
+				//预热
+				run(e.getValue(),threads,durationMs / 5,new MiniHistogram());
+				MiniHistogram latency = new MiniHistogram();
+				long[] ops = run(e.getValue(),threads,durationMs,latency);
+				report(e.getKey(),threads,durationMs,ops,latency.snapshot());
+			}
+			System.out.println();
+		}
+	}
+
+	static Map<String,MiniLock> locks(){
+		Map<String,MiniLock> locks = new LinkedHashMap<String,MiniLock>();
+		locks.put("MiniReentrantLock",new MiniReentrantLock());
+		locks.put("MiniReentrantLock(unfair)",new MiniReentrantLock(false));
+		locks.put("MiniReentrantLock(1ms)",new MiniReentrantLock(1,TimeUnit.MILLISECONDS));
+		locks.put("MiniMcsLock",new MiniMcsLock());
+		locks.put("MiniClhLock",new MiniClhLock());
+		locks.put("MiniTicketLock",new MiniTicketLock());
+		locks.put("ReentrantLock",jdkLock(new ReentrantLock()));
+		locks.put("ReentrantLock(fair)",jdkLock(new ReentrantLock(true)));
+		return locks;
+	}
+
+	/**
+	 * 把JDK的ReentrantLock包装成MiniLock，方便放在一起比较
+	 */
+	static MiniLock jdkLock(final ReentrantLock lock){
+		return new MiniLock() {
+			@Override
+			public void lock() {
+				lock.lock();
+			}
+
+			@Override
+			public void lockInterruptibly() throws InterruptedException {
+				lock.lockInterruptibly();
+			}
+
+			@Override
+			public boolean tryLock() {
+				return lock.tryLock();
+			}
+
+			@Override
+			public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+				return lock.tryLock(time,unit);
+			}
+
+			@Override
+			public void unlock() {
+				lock.unlock();
+			}
+		};
+	}
+
+	/**
+	 * @param latency 记录每一次lock()的耗时
+	 * @return 每个线程加锁成功的次数
+	 */
+	static long[] run(final MiniLock lock,int threads,long durationMs,final MiniHistogram latency)
+			throws InterruptedException {
+		final long[] ops = new long[threads];
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++){
+			final int id = i;
+			workers[i] = new Thread(() -> {
+				long n = 0;
+				long sink = 0;
+				try{
+					start.await();
+					while (!stop){
+						long t0 = System.nanoTime();
+						lock.lock();
+						latency.record(System.nanoTime() - t0);
+						try{
+							counter++;
+							sink += work(CRITICAL_WORK,n);
+						}finally {
+							lock.unlock();
+						}
+						sink += work(OUTSIDE_WORK,sink);
+						n++;
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					ops[id] = n + (sink == 42 ? 1 : 0);
+					done.countDown();
+				}
+			});
+			workers[i].start();
+		}
+		start.countDown();
+		TimeUnit.MILLISECONDS.sleep(durationMs);
+		stop = true;
+		done.await();
+		stop = false;
+		return ops;
+	}
+
+	/**
+	 * 一点点不会被JIT消除掉的计算
+	 */
+	static long work(int n,long seed){
+		long x = seed | 1L;
+		for(int i = 0; i < n; i++){
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+		}
+		return x & 1L;
+	}
+
+	static void report(String name,int threads,long durationMs,long[] ops,MiniHistogram.Snapshot latency){
+		long sum = 0, min = Long.MAX_VALUE, max = 0;
+		for(long n : ops){
+			sum += n;
+			min = Math.min(min,n);
+			max = Math.max(max,n);
+		}
+		double mean = (double) sum / ops.length;
+		double variance = 0;
+		for(long n : ops){
+			variance += (n - mean) * (n - mean);
+		}
+		double cv = mean == 0 ? 0 : Math.sqrt(variance / ops.length) / mean;
+		System.out.printf("%-28s %8d %14.1f %10.3f %10.3f %12.1f %12.1f%n",name,threads,(double) sum / durationMs,
+				max == 0 ? 0 : (double) min / max,cv,latency.getPercentile(0.999) / 1000.0,latency.getPercentile(1.0) / 1000.0);
+	}
+}
@@ -0,0 +1,249 @@
+package com.dlw;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * MiniReentrantLock(公平、非公平、混合模式)的正确性检查
+ *
+ * 1.互斥：多个线程重入加锁，临界区里同时最多一个线程，计数不丢，结束后锁是空闲的
+ * 2.条件队列：两个条件(notFull/notEmpty)实现的有界缓冲区，生产者消费者交替await/signal，数据不丢不重复；
+ * 		await期间完全释放重入的锁，醒来后恢复重入次数；awaitNanos超时返回 <= 0
+ * 3.混合模式的等待上界：几个线程不停地加锁/解锁插队，排队的线程每次等待的时间都不会太长
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.ReentrantLockCheck
+ */
+public class ReentrantLockCheck {
+
+	static Map<String,MiniReentrantLock> locks(){
+		Map<String,MiniReentrantLock> locks = new LinkedHashMap<String,MiniReentrantLock>();
+		locks.put("fair",new MiniReentrantLock(true));
+		locks.put("unfair",new MiniReentrantLock(false));
+		locks.put("handoff(1ms)",new MiniReentrantLock(1,TimeUnit.MILLISECONDS));
+		return locks;
+	}
+
+	public static void main(String[] args) throws Exception {
+		for(Map.Entry<String,MiniReentrantLock> e : locks().entrySet()){
+			mutualExclusion(e.getKey(),e.getValue(),4,20_000);
+		}
+		for(Map.Entry<String,MiniReentrantLock> e : locks().entrySet()){
+			conditions(e.getKey(),e.getValue(),2,2,20_000);
+		}
+		boundedWait(2,300,TimeUnit.MILLISECONDS.toNanos(250));
+		System.out.println("all checks passed");
+	}
+
+	static long counter;
+
+	static void mutualExclusion(String name,final MiniReentrantLock lock,int threads,final int ops) throws InterruptedException {
+		counter = 0;
+		final AtomicInteger inside = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++){
+			workers[i] = new Thread(() -> {
+				await(start);
+				for(int j = 0; j < ops; j++){
+					lock.lock();
+					try{
+						//重入一次
+						lock.lock();
+						try{
+							if(inside.incrementAndGet() != 1){
+								overlaps.incrementAndGet();
+							}
+							counter++;
+							inside.decrementAndGet();
+						}finally {
+							lock.unlock();
+						}
+					}finally {
+						lock.unlock();
+					}
+				}
+			});
+			workers[i].start();
+		}
+		start.countDown();
+		for(Thread t : workers){
+			t.join();
+		}
+		check(overlaps.get() == 0,name + ": " + overlaps.get() + " overlapping critical sections");
+		check(counter == (long) threads * ops,name + ": counter " + counter + ", expected " + (long) threads * ops);
+		check(lock.getState() == 0 && lock.getExclusiveOwnerThread() == null && !lock.hasQueuedThreads(),
+				name + ": lock should be free at the end");
+		System.out.println(name + " mutualExclusion ok");
+	}
+
+	static void conditions(String name,final MiniReentrantLock lock,int producers,int consumers,final int perProducer)
+			throws InterruptedException {
+		final int capacity = 4;
+		final Condition notFull = lock.newCondition();
+		final Condition notEmpty = lock.newCondition();
+		final ArrayDeque<Integer> buffer = new ArrayDeque<Integer>();
+		final int total = producers * perProducer;
+		final AtomicLong sum = new AtomicLong();
+		final AtomicInteger taken = new AtomicInteger();
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		Thread[] threads = new Thread[producers + consumers];
+		for(int i = 0; i < producers; i++){
+			final int base = i * perProducer;
+			threads[i] = new Thread(() -> {
+				for(int j = 0; j < perProducer; j++){
+					lock.lock();
+					try{
+						while (buffer.size() == capacity){
+							notFull.awaitUninterruptibly();
+						}
+						buffer.add(base + j);
+						notEmpty.signal();
+					}finally {
+						lock.unlock();
+					}
+				}
+			});
+		}
+		for(int i = 0; i < consumers; i++){
+			threads[producers + i] = new Thread(() -> {
+				for(;;){
+					lock.lock();
+					//重入两次再await：await要完全释放锁，醒来后恢复成2
+					lock.lock();
+					try{
+						while (buffer.isEmpty()){
+							if(taken.get() >= total){
+								return;
+							}
+							try{
+								notEmpty.awaitNanos(TimeUnit.MILLISECONDS.toNanos(10));
+							}catch (InterruptedException e){
+								failure.compareAndSet(null,"consumer interrupted");
+								return;
+							}
+							if(lock.getState() != 2){
+								failure.compareAndSet(null,"state after await is " + lock.getState());
+							}
+						}
+						sum.addAndGet(buffer.poll());
+						taken.incrementAndGet();
+						notFull.signal();
+					}finally {
+						lock.unlock();
+						lock.unlock();
+					}
+				}
+			});
+		}
+		for(Thread t : threads){
+			t.start();
+		}
+		for(Thread t : threads){
+			t.join();
+		}
+		check(failure.get() == null,name + ": " + failure.get());
+		long expected = (long) total * (total - 1) / 2;
+		check(taken.get() == total && sum.get() == expected,
+				name + ": took " + taken.get() + " elements with sum " + sum.get() + ", expected " + total + " / " + expected);
+
+		lock.lock();
+		try{
+			long left = notEmpty.awaitNanos(TimeUnit.MILLISECONDS.toNanos(20));
+			check(left <= 0L,name + ": awaitNanos without a signal returned " + left);
+			check(lock.isHeldExclusively() && lock.getState() == 1,name + ": lock not reacquired after awaitNanos timed out");
+		}finally {
+			lock.unlock();
+		}
+		System.out.println(name + " conditions ok");
+	}
+
+	/**
+	 * 防止临界区里的计算被优化掉
+	 */
+	static volatile long sink;
+
+	/**
+	 * 混合模式：bargers个线程不停地加锁/解锁(每次都有机会插队)，另一个线程反复lock()，记录每次等待的时间
+	 * 阈值是1ms，等待时间的上界取得很宽松(maxWaitNanos)，只用来发现"一直抢不到"的饥饿
+	 */
+	static void boundedWait(int bargers,long durationMs,long maxWaitNanos) throws InterruptedException {
+		final MiniReentrantLock lock = new MiniReentrantLock(1,TimeUnit.MILLISECONDS);
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+		final AtomicLong maxWait = new AtomicLong();
+		final AtomicInteger acquired = new AtomicInteger();
+		Thread[] threads = new Thread[bargers + 1];
+		for(int i = 0; i < bargers; i++){
+			threads[i] = new Thread(() -> {
+				long seed = Thread.currentThread().getId();
+				while (System.nanoTime() < deadline){
+					lock.lock();
+					try{
+						seed = work(seed,64);
+					}finally {
+						lock.unlock();
+					}
+				}
+				sink = seed;
+			});
+		}
+		threads[bargers] = new Thread(() -> {
+			while (System.nanoTime() < deadline){
+				long begin = System.nanoTime();
+				lock.lock();
+				try{
+					long waited = System.nanoTime() - begin;
+					if(waited > maxWait.get()){
+						maxWait.set(waited);
+					}
+					acquired.incrementAndGet();
+				}finally {
+					lock.unlock();
+				}
+			}
+		});
+		for(Thread t : threads){
+			t.start();
+		}
+		for(Thread t : threads){
+			t.join();
+		}
+		check(acquired.get() > 0,"the queued thread never got the lock");
+		check(maxWait.get() <= maxWaitNanos,"the queued thread waited " + TimeUnit.NANOSECONDS.toMillis(maxWait.get())
+				+ "ms, more than " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + "ms");
+		check(lock.getState() == 0 && !lock.hasQueuedThreads(),"lock should be free at the end");
+		System.out.println("boundedWait ok (" + acquired.get() + " acquisitions, max wait "
+				+ TimeUnit.NANOSECONDS.toMicros(maxWait.get()) + "us)");
+	}
+
+	static long work(long seed,int n){
+		for(int i = 0; i < n; i++){
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+		}
+		return seed;
+	}
+
+	static void await(CountDownLatch latch){
+		try{
+			latch.await();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
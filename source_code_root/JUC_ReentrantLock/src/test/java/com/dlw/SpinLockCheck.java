@@ -0,0 +1,182 @@
+package com.dlw;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MiniMcsLock、MiniClhLock、MiniTicketLock的正确性检查
+ *
+ * 1.互斥：多个线程混用lock()、tryLock()、限时tryLock、lockInterruptibly()加锁，临界区里同时最多一个线程，计数不丢
+ * 2.锁被占用时tryLock()失败，限时tryLock等够时间后返回false，之后锁还能正常使用
+ * 3.锁被占用时lockInterruptibly()被中断，抛出InterruptedException
+ * 4.非持锁线程unlock()抛出IllegalMonitorStateException
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.SpinLockCheck
+ */
+public class SpinLockCheck {
+
+	static Map<String,MiniLock> locks(){
+		Map<String,MiniLock> locks = new LinkedHashMap<String,MiniLock>();
+		locks.put("MiniMcsLock",new MiniMcsLock());
+		locks.put("MiniClhLock",new MiniClhLock());
+		locks.put("MiniTicketLock",new MiniTicketLock());
+		return locks;
+	}
+
+	public static void main(String[] args) throws Exception {
+		for(Map.Entry<String,MiniLock> e : locks().entrySet()){
+			String name = e.getKey();
+			MiniLock lock = e.getValue();
+			mutualExclusion(name,lock,4,20_000);
+			timeout(name,lock);
+			interrupt(name,lock);
+			nonOwnerUnlock(name,lock);
+		}
+		System.out.println("all checks passed");
+	}
+
+	static long counter;
+
+	static void mutualExclusion(String name,final MiniLock lock,int threads,final int ops) throws InterruptedException {
+		counter = 0;
+		final AtomicInteger inside = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++){
+			final int mode = i;
+			workers[i] = new Thread(() -> {
+				try{
+					start.await();
+					for(int j = 0; j < ops; j++){
+						acquire(lock,(mode + j) & 3);
+						try{
+							if(inside.incrementAndGet() != 1){
+								overlaps.incrementAndGet();
+							}
+							counter++;
+							inside.decrementAndGet();
+						}finally {
+							lock.unlock();
+						}
+					}
+				}catch (Throwable t){
+					failure.compareAndSet(null,t);
+				}
+			});
+			workers[i].start();
+		}
+		start.countDown();
+		for(Thread t : workers){
+			t.join();
+		}
+		if(failure.get() != null){
+			throw new IllegalStateException(name + " worker failed",failure.get());
+		}
+		check(overlaps.get() == 0,name + ": " + overlaps.get() + " overlapping critical sections");
+		check(counter == (long) threads * ops,name + ": counter " + counter + ", expected " + (long) threads * ops);
+		System.out.println(name + " mutualExclusion ok");
+	}
+
+	/**
+	 * 按mode选一种加锁方式，tryLock失败了就换成lock()
+	 */
+	static void acquire(MiniLock lock,int mode) throws InterruptedException {
+		switch (mode){
+			case 0:
+				lock.lock();
+				return;
+			case 1:
+				if(!lock.tryLock()){
+					lock.lock();
+				}
+				return;
+			case 2:
+				if(!lock.tryLock(1,TimeUnit.SECONDS)){
+					lock.lock();
+				}
+				return;
+			default:
+				lock.lockInterruptibly();
+		}
+	}
+
+	static void timeout(String name,final MiniLock lock) throws InterruptedException {
+		lock.lock();
+		final AtomicReference<Object> result = new AtomicReference<Object>();
+		Thread t = new Thread(() -> {
+			try{
+				if(lock.tryLock()){
+					result.set("tryLock succeeded");
+					return;
+				}
+				long begin = System.nanoTime();
+				boolean acquired = lock.tryLock(50,TimeUnit.MILLISECONDS);
+				long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+				result.set(acquired ? "timed tryLock succeeded" : waited < 50 ? "timed out after " + waited + "ms" : Boolean.TRUE);
+			}catch (InterruptedException e){
+				result.set(e);
+			}
+		});
+		t.start();
+		t.join();
+		lock.unlock();
+		check(Boolean.TRUE.equals(result.get()),name + ": " + result.get());
+
+		//超时的线程没有在锁上留下任何状态，锁还能正常使用
+		check(lock.tryLock(),name + ": tryLock should succeed after the timeout");
+		lock.unlock();
+		System.out.println(name + " timeout ok");
+	}
+
+	static void interrupt(String name,final MiniLock lock) throws InterruptedException {
+		lock.lock();
+		final AtomicReference<Object> result = new AtomicReference<Object>();
+		Thread t = new Thread(() -> {
+			try{
+				lock.lockInterruptibly();
+				lock.unlock();
+				result.set("lockInterruptibly returned");
+			}catch (InterruptedException e){
+				result.set(e);
+			}
+		});
+		t.start();
+		t.join(50);
+		t.interrupt();
+		t.join(5000);
+		lock.unlock();
+		check(!t.isAlive() && result.get() instanceof InterruptedException,name + ": " + result.get());
+		System.out.println(name + " interrupt ok");
+	}
+
+	static void nonOwnerUnlock(String name,final MiniLock lock) throws InterruptedException {
+		lock.lock();
+		final AtomicReference<Object> result = new AtomicReference<Object>();
+		Thread t = new Thread(() -> {
+			try{
+				lock.unlock();
+				result.set("unlock by a non-owner returned");
+			}catch (IllegalMonitorStateException e){
+				result.set(e);
+			}
+		});
+		t.start();
+		t.join();
+		lock.unlock();
+		check(result.get() instanceof IllegalMonitorStateException,name + ": " + result.get());
+		System.out.println(name + " nonOwnerUnlock ok");
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
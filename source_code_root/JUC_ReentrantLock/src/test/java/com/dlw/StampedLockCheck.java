@@ -0,0 +1,210 @@
+package com.dlw;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MiniStampedLock的正确性检查
+ *
+ * 1.stamp：乐观读期间没有写锁 -> validate通过；出现过写锁 -> 失败；持有写锁时乐观读返回0；错误的stamp解锁抛出异常
+ * 2.锁转换：唯一的读锁升级成写锁、多个读锁时升级失败、写锁降级成读锁、转换成乐观读
+ * 3.读锁个数超过state里的读锁位(readerOverflow)
+ * 4.写锁和读锁互斥：持有读锁时tryWriteLock失败，持有写锁时tryReadLock失败
+ * 5.多个写线程、悲观读线程、乐观读线程并发：写线程始终同时修改x、y，读线程(乐观读validate通过的)读到的x、y一定相等
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.StampedLockCheck
+ */
+public class StampedLockCheck {
+
+	public static void main(String[] args) throws Exception {
+		stamps();
+		conversions();
+		readerOverflow(300);
+		exclusion();
+		concurrent(2,2,2,20_000);
+		System.out.println("all checks passed");
+	}
+
+	static void stamps(){
+		MiniStampedLock lock = new MiniStampedLock();
+		long stamp = lock.tryOptimisticRead();
+		check(stamp != 0L && lock.validate(stamp),"optimistic read on a free lock should validate");
+
+		long rs = lock.readLock();
+		check(lock.validate(stamp),"a read lock should not invalidate an optimistic read");
+		lock.unlockRead(rs);
+
+		long ws = lock.writeLock();
+		check(!lock.validate(stamp),"a write lock should invalidate an optimistic read");
+		check(lock.tryOptimisticRead() == 0L,"optimistic read should fail while write locked");
+		check(!lock.validate(0L),"validate(0) should always fail");
+		try{
+			lock.unlockWrite(ws + 1);
+			throw new IllegalStateException("unlockWrite with a wrong stamp should throw");
+		}catch (IllegalMonitorStateException expected){
+		}
+		lock.unlockWrite(ws);
+		check(!lock.validate(stamp),"an optimistic read should stay invalid after the writer left");
+		check(!lock.isWriteLocked() && !lock.isReadLocked(),"lock should be free");
+		try{
+			lock.unlockWrite(ws);
+			throw new IllegalStateException("unlockWrite twice should throw");
+		}catch (IllegalMonitorStateException expected){
+		}
+		System.out.println("stamps ok");
+	}
+
+	static void conversions(){
+		MiniStampedLock lock = new MiniStampedLock();
+		long rs = lock.readLock();
+		long ws = lock.tryConvertToWriteLock(rs);
+		check(ws != 0L && lock.isWriteLocked() && !lock.isReadLocked(),"the only reader should upgrade in place");
+
+		long ds = lock.tryConvertToReadLock(ws);
+		check(ds != 0L && !lock.isWriteLocked() && lock.getReadLockCount() == 1,"a writer should downgrade to a reader");
+
+		long other = lock.readLock();
+		check(lock.tryConvertToWriteLock(ds) == 0L,"upgrade should fail while another reader holds the lock");
+		lock.unlockRead(other);
+
+		long os = lock.tryConvertToOptimisticRead(ds);
+		check(os != 0L && lock.validate(os) && !lock.isReadLocked(),"read lock should convert to an optimistic read");
+
+		long ws2 = lock.tryConvertToWriteLock(os);
+		check(ws2 != 0L && lock.isWriteLocked(),"optimistic read on a free lock should convert to a write lock");
+		check(lock.tryConvertToWriteLock(os) == 0L,"a stale optimistic stamp should not convert");
+		long os2 = lock.tryConvertToOptimisticRead(ws2);
+		check(os2 != 0L && !lock.isWriteLocked() && !lock.validate(os),"write lock should convert to a new optimistic read");
+		System.out.println("conversions ok");
+	}
+
+	static void readerOverflow(int readers){
+		MiniStampedLock lock = new MiniStampedLock();
+		long[] stamps = new long[readers];
+		for(int i = 0; i < readers; i++){
+			stamps[i] = lock.readLock();
+			check(stamps[i] != 0L,"readLock returned 0");
+		}
+		check(lock.getReadLockCount() == readers,"read count " + lock.getReadLockCount() + ", expected " + readers);
+		check(lock.tryWriteLock() == 0L,"tryWriteLock should fail while readers hold the lock");
+		for(int i = readers - 1; i >= 0; i--){
+			lock.unlockRead(stamps[i]);
+		}
+		check(lock.getReadLockCount() == 0 && !lock.isReadLocked(),"read count should drop to 0");
+		long ws = lock.tryWriteLock();
+		check(ws != 0L,"tryWriteLock should succeed after all readers left");
+		lock.unlockWrite(ws);
+		System.out.println("readerOverflow ok");
+	}
+
+	static void exclusion() throws InterruptedException {
+		final MiniStampedLock lock = new MiniStampedLock();
+		long rs = lock.readLock();
+		check(lock.tryWriteLock() == 0L,"tryWriteLock should fail under a read lock");
+		final AtomicLong writeStamp = new AtomicLong();
+		Thread writer = new Thread(() -> writeStamp.set(lock.writeLock()));
+		writer.start();
+		writer.join(100);
+		check(writer.isAlive(),"writeLock should block under a read lock");
+		lock.unlockRead(rs);
+		writer.join(5000);
+		check(!writer.isAlive() && writeStamp.get() != 0L,"writer should get the lock after the reader left");
+
+		check(lock.tryReadLock() == 0L,"tryReadLock should fail under a write lock");
+		final AtomicLong readStamp = new AtomicLong();
+		Thread reader = new Thread(() -> readStamp.set(lock.readLock()));
+		reader.start();
+		reader.join(100);
+		check(reader.isAlive(),"readLock should block under a write lock");
+		lock.unlockWrite(writeStamp.get());
+		reader.join(5000);
+		check(!reader.isAlive() && readStamp.get() != 0L,"reader should get the lock after the writer left");
+		lock.unlockRead(readStamp.get());
+		System.out.println("exclusion ok");
+	}
+
+	static int x;
+	static int y;
+
+	static void concurrent(int writers,int readers,int optimists,final int ops) throws InterruptedException {
+		final MiniStampedLock lock = new MiniStampedLock();
+		x = 0;
+		y = 0;
+		final AtomicLong torn = new AtomicLong();
+		final AtomicLong validated = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[writers + readers + optimists];
+		int k = 0;
+		for(int i = 0; i < writers; i++){
+			threads[k++] = new Thread(() -> {
+				await(start);
+				for(int j = 0; j < ops; j++){
+					long s = lock.writeLock();
+					try{
+						x++;
+						y++;
+					}finally {
+						lock.unlockWrite(s);
+					}
+				}
+			});
+		}
+		for(int i = 0; i < readers; i++){
+			threads[k++] = new Thread(() -> {
+				await(start);
+				for(int j = 0; j < ops; j++){
+					long s = lock.readLock();
+					try{
+						if(x != y){
+							torn.incrementAndGet();
+						}
+					}finally {
+						lock.unlockRead(s);
+					}
+				}
+			});
+		}
+		for(int i = 0; i < optimists; i++){
+			threads[k++] = new Thread(() -> {
+				await(start);
+				for(int j = 0; j < ops; j++){
+					long s = lock.tryOptimisticRead();
+					int a = x;
+					int b = y;
+					if(lock.validate(s)){
+						validated.incrementAndGet();
+						if(a != b){
+							torn.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		for(Thread t : threads){
+			t.start();
+		}
+		start.countDown();
+		for(Thread t : threads){
+			t.join();
+		}
+		check(torn.get() == 0L,torn.get() + " reads saw x != y");
+		check(x == writers * ops && y == writers * ops,"x=" + x + ", y=" + y + ", expected " + writers * ops);
+		check(!lock.isWriteLocked() && !lock.isReadLocked(),"lock should be free at the end");
+		System.out.println("concurrent ok (" + validated.get() + " optimistic reads validated)");
+	}
+
+	static void await(CountDownLatch latch){
+		try{
+			latch.await();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.dlw;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * MiniStripedLock的正确性检查
+ *
+ * 1.段数向上取整成2的幂，同一个key(包括null)总是落在同一段上
+ * 2.lockAll：多个key落在同一段上时只加一次锁，加锁的正好是这些key所在的段；unlockAll全部释放
+ * 3.转账：多个线程用lockAll以相反的顺序同时锁两个账户，不会死锁，总额不变
+ * 4.懒加载：多个线程并发第一次访问同一段，拿到的是同一个锁对象
+ * 失败时抛出IllegalStateException。
+ *
+ * 用法：java com.dlw.StripedLockCheck
+ */
+public class StripedLockCheck {
+
+	public static void main(String[] args) throws Exception {
+		sizing();
+		lockAll();
+		transfers(4,64,16,50_000);
+		lazy(8,1024);
+		System.out.println("all checks passed");
+	}
+
+	static void sizing(){
+		int[][] cases = {{1,1},{2,2},{3,4},{16,16},{17,32},{1000,1024}};
+		for(int[] c : cases){
+			MiniStripedLock lock = new MiniStripedLock(c[0]);
+			check(lock.size() == c[1],"stripes(" + c[0] + ") has size " + lock.size() + ", expected " + c[1]);
+		}
+		MiniStripedLock lock = new MiniStripedLock(16);
+		check(lock.indexOf(null) == 0 && lock.get(null) == lock.stripeAt(0),"null key should map to stripe 0");
+		for(int i = 0; i < 1000; i++){
+			String key = "key-" + i;
+			int idx = lock.indexOf(key);
+			check(idx >= 0 && idx < 16 && idx == lock.indexOf(new String(key)),"unstable stripe for " + key);
+			check(lock.get(key) == lock.stripeAt(idx),"get and stripeAt disagree for " + key);
+		}
+		try{
+			new MiniStripedLock(0);
+			throw new IllegalStateException("zero stripes should be rejected");
+		}catch (IllegalArgumentException expected){
+		}
+		System.out.println("sizing ok");
+	}
+
+	static void lockAll(){
+		MiniStripedLock lock = new MiniStripedLock(8);
+		//Integer的hashCode就是它自己：1和9落在第1段，3在第3段，6在第6段
+		Object[] keys = {6,9,3,1};
+		lock.lockAll(keys);
+		for(int i = 0; i < lock.size(); i++){
+			boolean expected = i == 1 || i == 3 || i == 6;
+			MiniReentrantLock stripe = lock.stripeAt(i);
+			check(stripe.isHeldExclusively() == expected,"stripe " + i + " held=" + stripe.isHeldExclusively());
+			//同一段只加一次锁，不重入
+			check(!expected || stripe.getState() == 1,"stripe " + i + " locked " + stripe.getState() + " times");
+		}
+		lock.unlockAll(Arrays.asList(keys));
+		for(int i = 0; i < lock.size(); i++){
+			check(lock.stripeAt(i).getState() == 0,"stripe " + i + " still locked after unlockAll");
+		}
+		System.out.println("lockAll ok");
+	}
+
+	/**
+	 * 每个线程随机挑两个账户转账，一半的线程按(from,to)、另一半按(to,from)的顺序传key，
+	 * 如果lockAll不排序就会互相等待；所有线程在超时之前结束、总额不变才算通过
+	 */
+	static void transfers(int threads,int accounts,int stripes,final int ops) throws InterruptedException {
+		final MiniStripedLock lock = new MiniStripedLock(stripes);
+		final long[] balances = new long[accounts];
+		Arrays.fill(balances,1000L);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++){
+			final boolean reversed = (i & 1) == 1;
+			final Random random = new Random(i);
+			workers[i] = new Thread(() -> {
+				await(start);
+				for(int j = 0; j < ops; j++){
+					Integer from = random.nextInt(balances.length);
+					Integer to = random.nextInt(balances.length);
+					Object[] keys = reversed ? new Object[]{to,from} : new Object[]{from,to};
+					lock.lockAll(keys);
+					try{
+						balances[from]--;
+						balances[to]++;
+					}finally {
+						lock.unlockAll(keys);
+					}
+				}
+			});
+			workers[i].start();
+		}
+		start.countDown();
+		for(Thread t : workers){
+			t.join(60_000);
+			check(!t.isAlive(),t.getName() + " did not finish, lockAll probably deadlocked");
+		}
+		long total = 0;
+		for(long b : balances){
+			total += b;
+		}
+		check(total == 1000L * accounts,"total " + total + ", expected " + 1000L * accounts);
+		System.out.println("transfers ok");
+	}
+
+	static void lazy(int threads,int stripes) throws InterruptedException {
+		final MiniStripedLock lock = new MiniStripedLock(stripes,true);
+		final AtomicReferenceArray<MiniReentrantLock> first = new AtomicReferenceArray<MiniReentrantLock>(stripes);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicBoolean mismatch = new AtomicBoolean();
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++){
+			workers[i] = new Thread(() -> {
+				await(start);
+				for(int j = 0; j < lock.size(); j++){
+					MiniReentrantLock stripe = lock.stripeAt(j);
+					if(!first.compareAndSet(j,null,stripe) && first.get(j) != stripe){
+						mismatch.set(true);
+					}
+				}
+			});
+			workers[i].start();
+		}
+		start.countDown();
+		for(Thread t : workers){
+			t.join();
+		}
+		check(!mismatch.get(),"two threads got different locks for the same stripe");
+		System.out.println("lazy ok");
+	}
+
+	static void await(CountDownLatch latch){
+		try{
+			latch.await();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void check(boolean condition,String message){
+		if(!condition){
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package com.dlw;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 大量(默认10万个)虚拟线程同时排队等待MiniReentrantLock
+ *
+ * 分三步：
+ * 1.主线程先持有锁，启动n个线程去lock()，等它们全部入队
+ * 		统计排队期间堆内存的增长，除以n得到每个等待者占用的内存(Node + 虚拟线程的栈)
+ * 2.主线程释放锁，n个线程依次拿到锁、退出
+ * 		统计从释放到最后一个线程拿到锁的时间，得到交接速率(每秒多少次)
+ * 3.n个线程各自循环加锁/解锁若干次，统计持续竞争下的吞吐量
+ * 最后检查counter是否等于加锁次数、队列是否已经清空。
+ *
+ * 虚拟线程需要JDK 21，这里通过反射调用Thread.ofVirtual()，这样在JDK 8上也能编译；
+ * 没有虚拟线程时退化成平台线程，默认数量降到1万(10万个平台线程会耗尽内存/线程数上限)。
+ *
+ * MiniReentrantLock加锁路径上没有synchronized，只通过LockSupport挂起，所以虚拟线程不会钉住(pin)载体线程。
+ * 在JDK 21上可以加 -Djdk.tracePinnedThreads=full 运行来确认，有钉住的情况会打印出栈。
+ *
+ * 用法：java com.dlw.VirtualThreadStress [线程数] [第3步每个线程加锁次数，默认10] [fair|unfair|handoff，默认fair]
+ */
+public class VirtualThreadStress {
+
+	static long counter;
+
+	public static void main(String[] args) throws Exception {
+		ThreadFactory factory = virtualThreadFactory();
+		boolean virtual = factory != null;
+		if(!virtual){
+			factory = r -> new Thread(r);
+		}
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : (virtual ? 100_000 : 10_000);
+		int loops = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		String mode = args.length > 2 ? args[2] : "fair";
+		MiniReentrantLock lock = newLock(mode);
+
+		System.out.println((virtual ? "虚拟线程" : "平台线程(当前JDK没有虚拟线程)") + "，线程数：" + n
+				+ "，模式：" + mode + "，cpu核数：" + Runtime.getRuntime().availableProcessors());
+
+		queueAndHandoff(lock,factory,n);
+		contend(lock,factory,n,loops);
+
+		long expected = (long) n * (1 + loops);
+		System.out.println("counter=" + counter + " expected=" + expected + (counter == expected ? " OK" : " MISMATCH")
+				+ "，队列已清空：" + (lock.getHead() == lock.getTail()) + "，state=" + lock.getState());
+	}
+
+	static MiniReentrantLock newLock(String mode){
+		if("unfair".equals(mode)){
+			return new MiniReentrantLock(false);
+		}
+		if("handoff".equals(mode)){
+			return new MiniReentrantLock(1,TimeUnit.MILLISECONDS);
+		}
+		return new MiniReentrantLock();
+	}
+
+	/**
+	 * 第1、2步：全部入队，再一次性释放
+	 */
+	static void queueAndHandoff(final MiniReentrantLock lock,ThreadFactory factory,int n) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(n);
+		final AtomicLong lastAcquired = new AtomicLong();
+
+		long heapBefore = usedHeap();
+		lock.lock();
+		long start = System.nanoTime();
+		for(int i = 0; i < n; i++){
+			factory.newThread(() -> {
+				lock.lock();
+				try{
+					counter++;
+					lastAcquired.lazySet(System.nanoTime());
+				}finally {
+					lock.unlock();
+				}
+				done.countDown();
+			}).start();
+		}
+		//tail.seq - head.seq 是排队节点个数的上界，这里没有线程会取消，所以就是准确值
+		while (queued(lock) < n){
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		long queuedNanos = System.nanoTime() - start;
+		long heapAfter = usedHeap();
+		System.out.printf("入队：%d个线程用时%d ms，堆内存增长%.1f MB，平均每个等待者%d字节%n",
+				n,TimeUnit.NANOSECONDS.toMillis(queuedNanos),(heapAfter - heapBefore) / 1048576.0,
+				(heapAfter - heapBefore) / n);
+
+		long release = System.nanoTime();
+		lock.unlock();
+		done.await();
+		long elapsed = lastAcquired.get() - release;
+		System.out.printf("交接：%d次用时%d ms，%.0f次/秒%n",n,TimeUnit.NANOSECONDS.toMillis(elapsed),
+				n * 1e9 / elapsed);
+	}
+
+	/**
+	 * 第3步：持续竞争
+	 */
+	static void contend(final MiniReentrantLock lock,ThreadFactory factory,int n,final int loops) throws InterruptedException {
+		final CountDownLatch ready = new CountDownLatch(n);
+		final CountDownLatch go = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(n);
+		for(int i = 0; i < n; i++){
+			factory.newThread(() -> {
+				ready.countDown();
+				try{
+					go.await();
+					for(int j = 0; j < loops; j++){
+						lock.lock();
+						try{
+							counter++;
+						}finally {
+							lock.unlock();
+						}
+					}
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("竞争：%d个线程各加锁%d次，用时%d ms，%.0f次/秒%n",n,loops,
+				TimeUnit.NANOSECONDS.toMillis(elapsed),(double) n * loops * 1e9 / elapsed);
+	}
+
+	static long queued(MiniReentrantLock lock){
+		MiniQueuedSynchronizer.Node h = lock.getHead();
+		MiniQueuedSynchronizer.Node t = lock.getTail();
+		return h == null || t == null ? 0L : t.seq - h.seq;
+	}
+
+	static long usedHeap(){
+		Runtime rt = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++){
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Thread.ofVirtual().factory()，没有虚拟线程时返回null
+	 */
+	static ThreadFactory virtualThreadFactory(){
+		try{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		}catch (ReflectiveOperationException e){
+			return null;
+		}
+	}
+}